@@ -0,0 +1,40 @@
+package logistics.api;
+
+import logistics.enums.PaymentMethod;
+import logistics.model.BillingPage;
+import logistics.model.BillingRecord;
+import logistics.model.Customer;
+import logistics.model.Parcel;
+import logistics.model.PeriodBalance;
+import logistics.model.ServiceType;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link BillingApi} 的非同步版本：工作交給背景 executor，例外由回傳的 future 帶出。
+ */
+public interface AsyncBillingApi {
+    CompletableFuture<Double> calculateCharge(Parcel parcel, double distanceKm);
+
+    CompletableFuture<Double> quote(ServiceType serviceType, double weightKg,
+                                    double lengthCm, double widthCm, double heightCm,
+                                    double distanceKm, boolean dangerous, boolean fragile);
+
+    CompletableFuture<BillingRecord> generateBillingRecord(Customer customer,
+                                                           LocalDate start, LocalDate end,
+                                                           Map<String, Double> distanceByTrackingNo,
+                                                           PaymentMethod preferredPaymentMethod);
+
+    CompletableFuture<List<BillingRecord>> getBillingHistoryForCustomer(long customerId);
+
+    CompletableFuture<BillingPage> getBillingHistory(long customerId, LocalDate from, LocalDate to,
+                                                     String cursor, int limit);
+
+    CompletableFuture<Void> setFinalDistance(String trackingNo, double distanceKm);
+
+    CompletableFuture<PeriodBalance> getCurrentBalance(long customerId, YearMonth period);
+}
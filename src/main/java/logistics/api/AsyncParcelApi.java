@@ -0,0 +1,29 @@
+package logistics.api;
+
+import logistics.model.Customer;
+import logistics.model.Parcel;
+import logistics.model.ParcelSpec;
+import logistics.model.ServiceType;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link ParcelApi} 的非同步版本：工作交給背景 executor，例外由回傳的 future 帶出。
+ */
+public interface AsyncParcelApi {
+    CompletableFuture<Parcel> createParcel(Customer sender, ServiceType serviceType,
+                                           double weightKg, double lengthCm, double widthCm, double heightCm,
+                                           double declaredValue, String description,
+                                           boolean dangerous, boolean fragile, boolean international);
+
+    CompletableFuture<Parcel> createParcel(Customer sender, ServiceType serviceType,
+                                           double weightKg, double lengthCm, double widthCm, double heightCm,
+                                           double declaredValue, String description,
+                                           boolean dangerous, boolean fragile, boolean international,
+                                           String destination);
+
+    CompletableFuture<Parcel[]> createParcels(List<ParcelSpec> specs);
+
+    CompletableFuture<Parcel> getByTrackingNumber(String trackingNumber);
+}
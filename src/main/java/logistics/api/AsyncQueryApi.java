@@ -0,0 +1,16 @@
+package logistics.api;
+
+import logistics.model.Parcel;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link QueryApi} 的非同步版本：工作交給背景 executor，例外由回傳的 future 帶出。
+ */
+public interface AsyncQueryApi {
+    CompletableFuture<Parcel> searchByTrackingNumber(String trackingNo);
+    CompletableFuture<List<Parcel>> searchByCustomer(long customerId);
+    CompletableFuture<List<Parcel>> searchByDateRange(LocalDate start, LocalDate end);
+}
@@ -0,0 +1,24 @@
+package logistics.api;
+
+import logistics.enums.ExceptionType;
+import logistics.enums.TrackingEventType;
+import logistics.model.BatchResult;
+import logistics.model.EventSpec;
+import logistics.model.TrackingEvent;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link TrackingApi} 的非同步版本：工作交給背景 executor，例外由回傳的 future 帶出。
+ */
+public interface AsyncTrackingApi {
+    CompletableFuture<Void> addTrackingEvent(String trackingNo, TrackingEventType type,
+                                             String location, String truckId, String warehouseId,
+                                             String description, ExceptionType exceptionTypeOrNull);
+
+    CompletableFuture<BatchResult> addTrackingEvents(List<EventSpec> events);
+
+    CompletableFuture<TrackingEvent> getCurrentStatus(String trackingNo);
+    CompletableFuture<List<TrackingEvent>> getHistory(String trackingNo);
+}
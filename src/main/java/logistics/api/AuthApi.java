@@ -10,6 +10,7 @@ import logistics.model.User;
  * 本專案目前採用簡單的 in-memory 帳號系統：
  * - 註冊時保存 password 的雜湊（不保存明碼）
  * - 登入成功後回傳 User，並由 API 實作方維護 currentUser
+ * - 多位操作者共用同一個實作時改用 session：openSession 回傳 token，之後每次呼叫帶著 token
  */
 public interface AuthApi {
 
@@ -28,6 +29,16 @@ public interface AuthApi {
      */
     User login(String username, String password);
 
+    /**
+     * 登入並建立 session，回傳不透明的 token（不影響 currentUser）。
+     */
+    String openSession(String username, String password);
+
+    /**
+     * 結束 session；token 不存在或已過期時不做事。
+     */
+    void closeSession(String token);
+
     /**
      * 登出。
      */
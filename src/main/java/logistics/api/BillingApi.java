@@ -1,21 +1,50 @@
 package logistics.api;
 
 import logistics.enums.PaymentMethod;
+import logistics.model.BillingPage;
 import logistics.model.BillingRecord;
 import logistics.model.Customer;
 import logistics.model.Parcel;
+import logistics.model.PeriodBalance;
+import logistics.model.ServiceType;
+import logistics.store.QuoteCache;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
 
 public interface BillingApi {
     double calculateCharge(Parcel parcel, double distanceKm);
 
+    /**
+     * 寄件前試算運費：重量、材積、距離進位到級距後計價，同級距的報價走快取。
+     */
+    double quote(ServiceType serviceType, double weightKg, double lengthCm, double widthCm, double heightCm,
+                 double distanceKm, boolean dangerous, boolean fragile);
+
+    QuoteCache.Stats getQuoteStats();
+
     BillingRecord generateBillingRecord(Customer customer,
                                         LocalDate start, LocalDate end,
                                         Map<String, Double> distanceByTrackingNo,
                                         PaymentMethod preferredPaymentMethod);
 
     List<BillingRecord> getBillingHistoryForCustomer(long customerId);
+
+    /**
+     * 客戶帳單歷史分頁（由新到舊），可依帳單期間起日 [from, to] 過濾（null 表示不限）。
+     * 第一頁 cursor 傳 null，之後傳上一頁的 {@link BillingPage#getNextCursor()}。
+     */
+    BillingPage getBillingHistory(long customerId, LocalDate from, LocalDate to, String cursor, int limit);
+
+    /**
+     * 記錄包裹的最終計費距離，並修正寄件客戶當月的累計運費。
+     */
+    void setFinalDistance(String trackingNo, double distanceKm);
+
+    /**
+     * 客戶某月（依寄件日）目前累計的件數與運費。
+     */
+    PeriodBalance getCurrentBalance(long customerId, YearMonth period);
 }
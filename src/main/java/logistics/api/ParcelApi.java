@@ -2,13 +2,30 @@ package logistics.api;
 
 import logistics.model.Customer;
 import logistics.model.Parcel;
+import logistics.model.ParcelSpec;
 import logistics.model.ServiceType;
 
+import java.util.List;
+
 public interface ParcelApi {
     Parcel createParcel(Customer sender, ServiceType serviceType,
                         double weightKg, double lengthCm, double widthCm, double heightCm,
                         double declaredValue, String description,
                         boolean dangerous, boolean fragile, boolean international);
 
+    /**
+     * 同上，另帶收件地址（計費時用來查寄件地到收件地的距離）。
+     */
+    Parcel createParcel(Customer sender, ServiceType serviceType,
+                        double weightKg, double lengthCm, double widthCm, double heightCm,
+                        double declaredValue, String description,
+                        boolean dangerous, boolean fragile, boolean international,
+                        String destination);
+
+    /**
+     * 批次建立（整份託運清單）：全部成功或全部不建立，回傳與 specs 同順序的包裹。
+     */
+    Parcel[] createParcels(List<ParcelSpec> specs);
+
     Parcel getByTrackingNumber(String trackingNumber);
 }
@@ -13,4 +13,12 @@ public interface ServiceTypeApi {
                                   double dangerousSurcharge, double fragileSurcharge, double oversizeSurcharge);
 
     ServiceType getServiceType(long serviceTypeId);
+
+    /**
+     * 調整定價（管理員）；之後的報價與計費都用新價格。
+     */
+    void updatePricing(long serviceTypeId,
+                       double basePrice, double pricePerKm,
+                       double pricePerKg, double pricePerCubicMeter,
+                       double dangerousSurcharge, double fragileSurcharge, double oversizeSurcharge);
 }
@@ -2,6 +2,8 @@ package logistics.api;
 
 import logistics.enums.ExceptionType;
 import logistics.enums.TrackingEventType;
+import logistics.model.BatchResult;
+import logistics.model.EventSpec;
 import logistics.model.TrackingEvent;
 
 import java.util.List;
@@ -11,6 +13,11 @@ public interface TrackingApi {
                           String location, String truckId, String warehouseId,
                           String description, ExceptionType exceptionTypeOrNull);
 
+    /**
+     * 批次新增追蹤事件：逐筆處理，失敗的項目記在回傳結果中，不中止整批。
+     */
+    BatchResult addTrackingEvents(List<EventSpec> events);
+
     TrackingEvent getCurrentStatus(String trackingNo);
     List<TrackingEvent> getHistory(String trackingNo);
 }
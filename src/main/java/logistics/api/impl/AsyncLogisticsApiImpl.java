@@ -0,0 +1,213 @@
+package logistics.api.impl;
+
+import logistics.api.*;
+import logistics.core.LogisticsCore;
+import logistics.core.TrackingNumberAllocator;
+import logistics.enums.*;
+import logistics.model.*;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非同步 API：每個呼叫包成 CompletableFuture 交給 executor 執行，呼叫端執行緒不必等 core 的工作
+ * （像 generateBillingRecord、searchByDateRange 這類大量掃描）。
+ *
+ * 操作者在呼叫當下由 {@link AuthApi#currentUser()} 取得並帶進工作中，之後登出或換人登入不影響已送出的工作。
+ * 目標平台為 Java 17，沒有 virtual thread；預設使用自有的固定大小執行緒池（close 時關閉），
+ * 也可傳入外部 executor（由呼叫端管理其生命週期）。
+ */
+public class AsyncLogisticsApiImpl implements AsyncParcelApi, AsyncTrackingApi, AsyncQueryApi, AsyncBillingApi, Closeable {
+
+    private final LogisticsCore core;
+    private final AuthApi auth;
+    private final Executor executor;
+    private final ExecutorService ownedPool;   // 自行建立的執行緒池（外部傳入 executor 時為 null）
+
+    /**
+     * 使用 CPU 數量大小的自有執行緒池。
+     */
+    public AsyncLogisticsApiImpl(LogisticsCore core, AuthApi auth) {
+        this(core, auth, newPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * @param executor 執行 core 工作的 executor；core 的寫入可能等待 WAL 落盤，不建議用 ForkJoinPool.commonPool()
+     */
+    public AsyncLogisticsApiImpl(LogisticsCore core, AuthApi auth, Executor executor) {
+        this(core, auth, executor, false);
+    }
+
+    private AsyncLogisticsApiImpl(LogisticsCore core, AuthApi auth, Executor executor, boolean owned) {
+        if (core == null || auth == null || executor == null) {
+            throw new IllegalArgumentException("core / auth / executor 不可為 null");
+        }
+        this.core = core;
+        this.auth = auth;
+        this.executor = executor;
+        this.ownedPool = owned ? (ExecutorService) executor : null;
+    }
+
+    private static ExecutorService newPool(int threads) {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "logistics-async-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* ========== ParcelApi ========== */
+    @Override
+    public CompletableFuture<Parcel> createParcel(Customer sender, ServiceType serviceType,
+                                                  double weightKg, double lengthCm, double widthCm, double heightCm,
+                                                  double declaredValue, String description,
+                                                  boolean dangerous, boolean fragile, boolean international) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.createParcel(operator, sender, serviceType,
+                weightKg, lengthCm, widthCm, heightCm,
+                declaredValue, description,
+                dangerous, fragile, international), executor);
+    }
+
+    @Override
+    public CompletableFuture<Parcel> createParcel(Customer sender, ServiceType serviceType,
+                                                  double weightKg, double lengthCm, double widthCm, double heightCm,
+                                                  double declaredValue, String description,
+                                                  boolean dangerous, boolean fragile, boolean international,
+                                                  String destination) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.createParcel(operator, sender, serviceType,
+                weightKg, lengthCm, widthCm, heightCm,
+                declaredValue, description,
+                dangerous, fragile, international, destination), executor);
+    }
+
+    @Override
+    public CompletableFuture<Parcel[]> createParcels(List<ParcelSpec> specs) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.createParcels(operator, specs), executor);
+    }
+
+    @Override
+    public CompletableFuture<Parcel> getByTrackingNumber(String trackingNumber) {
+        return searchByTrackingNumber(trackingNumber);
+    }
+
+    /* ========== TrackingApi ========== */
+    @Override
+    public CompletableFuture<Void> addTrackingEvent(String trackingNo, TrackingEventType type,
+                                                    String location, String truckId, String warehouseId,
+                                                    String description, ExceptionType exceptionTypeOrNull) {
+        User operator = auth.currentUser();
+        return CompletableFuture.runAsync(() -> core.addTrackingEvent(operator,
+                TrackingNumberAllocator.parse(trackingNo), type,
+                location, truckId, warehouseId, description, exceptionTypeOrNull), executor);
+    }
+
+    @Override
+    public CompletableFuture<BatchResult> addTrackingEvents(List<EventSpec> events) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.addTrackingEvents(operator, events), executor);
+    }
+
+    @Override
+    public CompletableFuture<TrackingEvent> getCurrentStatus(String trackingNo) {
+        User viewer = auth.currentUser();
+        return CompletableFuture.supplyAsync(() ->
+                core.getCurrentStatus(viewer, TrackingNumberAllocator.parse(trackingNo)), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<TrackingEvent>> getHistory(String trackingNo) {
+        User viewer = auth.currentUser();
+        return CompletableFuture.supplyAsync(() ->
+                core.getHistory(viewer, TrackingNumberAllocator.parse(trackingNo)), executor);
+    }
+
+    /* ========== BillingApi ========== */
+    @Override
+    public CompletableFuture<Double> calculateCharge(Parcel parcel, double distanceKm) {
+        return CompletableFuture.supplyAsync(() -> core.calculateCharge(parcel, distanceKm), executor);
+    }
+
+    @Override
+    public CompletableFuture<Double> quote(ServiceType serviceType, double weightKg,
+                                           double lengthCm, double widthCm, double heightCm,
+                                           double distanceKm, boolean dangerous, boolean fragile) {
+        return CompletableFuture.supplyAsync(() -> core.quote(serviceType, weightKg, lengthCm, widthCm, heightCm,
+                distanceKm, dangerous, fragile), executor);
+    }
+
+    @Override
+    public CompletableFuture<BillingRecord> generateBillingRecord(Customer customer, LocalDate start, LocalDate end,
+                                                                  Map<String, Double> distanceByTrackingNo,
+                                                                  PaymentMethod preferredPaymentMethod) {
+        return CompletableFuture.supplyAsync(() -> core.generateBillingRecord(customer, start, end,
+                distanceByTrackingNo, preferredPaymentMethod), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<BillingRecord>> getBillingHistoryForCustomer(long customerId) {
+        return CompletableFuture.supplyAsync(() -> core.getBillingHistoryForCustomer(customerId), executor);
+    }
+
+    @Override
+    public CompletableFuture<BillingPage> getBillingHistory(long customerId, LocalDate from, LocalDate to,
+                                                            String cursor, int limit) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.getBillingHistory(operator, customerId, from, to,
+                cursor, limit), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> setFinalDistance(String trackingNo, double distanceKm) {
+        User operator = auth.currentUser();
+        return CompletableFuture.runAsync(() -> core.setFinalDistance(operator,
+                TrackingNumberAllocator.parse(trackingNo), distanceKm), executor);
+    }
+
+    @Override
+    public CompletableFuture<PeriodBalance> getCurrentBalance(long customerId, YearMonth period) {
+        User operator = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.currentBalance(operator, customerId, period), executor);
+    }
+
+    /* ========== QueryApi ========== */
+    @Override
+    public CompletableFuture<Parcel> searchByTrackingNumber(String trackingNo) {
+        User viewer = auth.currentUser();
+        return CompletableFuture.supplyAsync(() ->
+                core.searchByTrackingNumber(viewer, TrackingNumberAllocator.parse(trackingNo)), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<Parcel>> searchByCustomer(long customerId) {
+        User viewer = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.searchByCustomer(viewer, customerId), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<Parcel>> searchByDateRange(LocalDate start, LocalDate end) {
+        User viewer = auth.currentUser();
+        return CompletableFuture.supplyAsync(() -> core.searchByDateRange(viewer, start, end), executor);
+    }
+
+    /**
+     * 關閉自有的執行緒池（已送出的工作會執行完）；外部傳入的 executor 不受影響。
+     */
+    @Override
+    public void close() {
+        if (ownedPool != null) {
+            ownedPool.shutdown();
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package logistics.api.impl;
 
 import logistics.api.*;
+import logistics.auth.CredentialService;
 import logistics.core.LogisticsCore;
+import logistics.core.TrackingNumberAllocator;
+import logistics.store.QuoteCache;
 import logistics.enums.*;
 import logistics.model.*;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.util.Base64;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,18 +18,33 @@ import java.util.concurrent.ConcurrentHashMap;
 public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, ParcelApi, TrackingApi, BillingApi, QueryApi {
 
     private final LogisticsCore core;
-    private User currentUser;
+    private volatile User currentUser;   // 非同步 API 會在其他執行緒讀取；session 檢視不使用
+
+    /**
+     * 登入 session（token -> 使用者）；共用實例與其 session 檢視共用同一張表。
+     */
+    private final SessionTable sessions;
+
+    /**
+     * 非 null 時本物件為 {@link #session(String)} 取得的檢視：操作者每次呼叫時由 token 解析。
+     */
+    private final String sessionToken;
 
     /**
      * API 層的 in-memory 帳密資料（不改 Core 也能支援登入/註冊）
      * key = normalized username
      */
-    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Account> accounts;
 
     /**
      * 由於 core 目前可能沒有 getServiceType()，這裡做一份 cache 來支援 ServiceTypeApi.getServiceType()
      */
-    private final Map<Long, ServiceType> serviceTypeCache = new ConcurrentHashMap<>();
+    private final Map<Long, ServiceType> serviceTypeCache;
+
+    /**
+     * 密碼雜湊/驗證（KDF 在驗證執行緒池上跑，同帳密去重、驗證成功短暫快取）
+     */
+    private final CredentialService credentials;
 
     private static class Account {
         final String username;
@@ -45,7 +61,36 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
     }
 
     public LogisticsApiImpl(LogisticsCore core) {
+        this(core, SessionTable.DEFAULT_TTL);
+    }
+
+    /**
+     * @param sessionTtl session 閒置多久後失效
+     */
+    public LogisticsApiImpl(LogisticsCore core, Duration sessionTtl) {
+        this(core, sessionTtl, CredentialService.defaultService());
+    }
+
+    /**
+     * @param credentials 密碼雜湊/驗證的實作（可調整 KDF 成本與驗證執行緒數）
+     */
+    public LogisticsApiImpl(LogisticsCore core, Duration sessionTtl, CredentialService credentials) {
+        this(core, new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), credentials,
+                new SessionTable(sessionTtl), null);
+    }
+
+    private LogisticsApiImpl(LogisticsCore core, Map<String, Account> accounts,
+                             Map<Long, ServiceType> serviceTypeCache, CredentialService credentials,
+                             SessionTable sessions, String sessionToken) {
+        if (credentials == null) {
+            throw new IllegalArgumentException("credentials is null");
+        }
         this.core = core;
+        this.accounts = accounts;
+        this.serviceTypeCache = serviceTypeCache;
+        this.credentials = credentials;
+        this.sessions = sessions;
+        this.sessionToken = sessionToken;
         this.currentUser = null;
     }
 
@@ -59,6 +104,7 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
      */
     @Deprecated
     public User loginAsRole(Role role, Customer customerProfileOrNull) {
+        requireShared();
         this.currentUser = new User("demo", role, customerProfileOrNull);
         return this.currentUser;
     }
@@ -74,19 +120,24 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         if (role == null) {
             throw new IllegalArgumentException("role is null");
         }
-        if (accounts.containsKey(u)) {
+        if (accounts.containsKey(u)) {   // 快速拒絕，免得白算雜湊；唯一性由下面的 putIfAbsent 保證
             throw new IllegalArgumentException("username 已存在：" + u);
         }
         if (role == Role.CUSTOMER && customerProfileOrNull == null) {
             throw new IllegalArgumentException("CUSTOMER 角色必須綁定 customerProfile");
         }
 
-        String hash = hashPassword(password);
-        accounts.put(u, new Account(u, hash, role, customerProfileOrNull));
+        String hash = credentials.hash(password);
+        if (accounts.putIfAbsent(u, new Account(u, hash, role, customerProfileOrNull)) != null) {
+            throw new IllegalArgumentException("username 已存在：" + u);   // 同名同時註冊，只有一個成功
+        }
 
-        // 註冊後直接登入
-        this.currentUser = new User(u, role, role == Role.CUSTOMER ? customerProfileOrNull : null);
-        return this.currentUser;
+        // 註冊後直接登入（session 檢視不改變自己的 session）
+        User user = new User(u, role, role == Role.CUSTOMER ? customerProfileOrNull : null);
+        if (sessionToken == null) {
+            this.currentUser = user;
+        }
+        return user;
     }
 
     /**
@@ -94,6 +145,35 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
      * 注意：不要加 @Override，避免 AuthApi 尚未更新時編譯失敗
      */
     public User login(String username, String password) {
+        requireShared();
+        this.currentUser = authenticate(username, password);
+        return this.currentUser;
+    }
+
+    /**
+     * 登入並建立 session，回傳不透明的 token；之後以 {@link #session(String)} 帶著 token 呼叫各 API。
+     * 不影響 currentUser，同一個實例可同時服務多位操作者。
+     */
+    @Override
+    public String openSession(String username, String password) {
+        return sessions.open(authenticate(username, password));
+    }
+
+    @Override
+    public void closeSession(String token) {
+        sessions.close(token);
+    }
+
+    /**
+     * 取得 token 對應的 API 檢視：與本實例共用 core、帳號與 cache，每次呼叫時由 token 解析操作者
+     * （session 過期後呼叫丟 SecurityException）。檢視很輕，可每個請求建立一個。
+     */
+    public LogisticsApiImpl session(String token) {
+        sessions.resolve(token);
+        return new LogisticsApiImpl(core, accounts, serviceTypeCache, credentials, sessions, token);
+    }
+
+    private User authenticate(String username, String password) {
         String u = normalizeUsername(username);
         validatePassword(password);
 
@@ -102,13 +182,11 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
             throw new SecurityException("帳號不存在");
         }
 
-        String actual = hashPassword(password);
-        if (!acc.passwordHash.equals(actual)) {
+        if (!credentials.verify(u, password, acc.passwordHash)) {
             throw new SecurityException("密碼錯誤");
         }
 
-        this.currentUser = new User(acc.username, acc.role, acc.role == Role.CUSTOMER ? acc.customerProfileOrNull : null);
-        return this.currentUser;
+        return new User(acc.username, acc.role, acc.role == Role.CUSTOMER ? acc.customerProfileOrNull : null);
     }
 
     /**
@@ -116,12 +194,24 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
      * 注意：不要加 @Override，避免 AuthApi 尚未更新時編譯失敗
      */
     public void logout() {
-        this.currentUser = null;
+        if (sessionToken != null) {
+            sessions.close(sessionToken);
+        } else {
+            this.currentUser = null;
+        }
     }
 
+    /**
+     * session 檢視回傳 token 對應的使用者（已過期則為 null）。
+     */
     @Override
     public User currentUser() {
-        return currentUser;
+        if (sessionToken == null) return currentUser;
+        try {
+            return sessions.resolve(sessionToken);
+        } catch (SecurityException e) {
+            return null;
+        }
     }
 
     /* ========== CustomerApi ========== */
@@ -141,7 +231,7 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
      * 這不是 CustomerApi 介面方法，所以不加 @Override。
      */
     public void deleteCustomer(long customerId) {
-        core.deleteCustomer(currentUser, customerId);
+        core.deleteCustomer(operator(), customerId);
     }
 
     /* ========== ServiceTypeApi ========== */
@@ -175,6 +265,15 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         return st;
     }
 
+    @Override
+    public void updatePricing(long serviceTypeId,
+                              double basePrice, double pricePerKm,
+                              double pricePerKg, double pricePerCubicMeter,
+                              double dangerousSurcharge, double fragileSurcharge, double oversizeSurcharge) {
+        core.updateServiceTypePricing(operator(), serviceTypeId, basePrice, pricePerKm, pricePerKg,
+                pricePerCubicMeter, dangerousSurcharge, fragileSurcharge, oversizeSurcharge);
+    }
+
     /* ========== ParcelApi ========== */
     @Override
     public Parcel createParcel(Customer sender, ServiceType serviceType,
@@ -183,7 +282,7 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
                                boolean dangerous, boolean fragile, boolean international) {
 
         return core.createParcel(
-                currentUser,
+                operator(),
                 sender,
                 serviceType,
                 weightKg, lengthCm, widthCm, heightCm,
@@ -192,10 +291,27 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         );
     }
 
+    @Override
+    public Parcel createParcel(Customer sender, ServiceType serviceType,
+                               double weightKg, double lengthCm, double widthCm, double heightCm,
+                               double declaredValue, String description,
+                               boolean dangerous, boolean fragile, boolean international,
+                               String destination) {
+        return core.createParcel(operator(), sender, serviceType,
+                weightKg, lengthCm, widthCm, heightCm,
+                declaredValue, description,
+                dangerous, fragile, international, destination);
+    }
+
+    @Override
+    public Parcel[] createParcels(List<ParcelSpec> specs) {
+        return core.createParcels(operator(), specs);
+    }
+
     @Override
     public Parcel getByTrackingNumber(String trackingNumber) {
         // 使用 Query 的 search 來取得（Core 既有：searchByTrackingNumber(User,String)）
-        return core.searchByTrackingNumber(currentUser, trackingNumber);
+        return core.searchByTrackingNumber(operator(), TrackingNumberAllocator.parse(trackingNumber));
     }
 
     /* ========== TrackingApi ========== */
@@ -204,17 +320,23 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
                                  String location, String truckId, String warehouseId,
                                  String description, ExceptionType exceptionTypeOrNull) {
 
-        core.addTrackingEvent(currentUser, trackingNo, type, location, truckId, warehouseId, description, exceptionTypeOrNull);
+        core.addTrackingEvent(operator(), TrackingNumberAllocator.parse(trackingNo), type,
+                location, truckId, warehouseId, description, exceptionTypeOrNull);
+    }
+
+    @Override
+    public BatchResult addTrackingEvents(List<EventSpec> events) {
+        return core.addTrackingEvents(operator(), events);
     }
 
     @Override
     public TrackingEvent getCurrentStatus(String trackingNo) {
-        return core.getCurrentStatus(currentUser, trackingNo);
+        return core.getCurrentStatus(operator(), TrackingNumberAllocator.parse(trackingNo));
     }
 
     @Override
     public List<TrackingEvent> getHistory(String trackingNo) {
-        return core.getHistory(currentUser, trackingNo);
+        return core.getHistory(operator(), TrackingNumberAllocator.parse(trackingNo));
     }
 
     /* ========== BillingApi ========== */
@@ -223,6 +345,17 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         return core.calculateCharge(parcel, distanceKm);
     }
 
+    @Override
+    public double quote(ServiceType serviceType, double weightKg, double lengthCm, double widthCm, double heightCm,
+                        double distanceKm, boolean dangerous, boolean fragile) {
+        return core.quote(serviceType, weightKg, lengthCm, widthCm, heightCm, distanceKm, dangerous, fragile);
+    }
+
+    @Override
+    public QuoteCache.Stats getQuoteStats() {
+        return core.quoteStats();
+    }
+
     @Override
     public BillingRecord generateBillingRecord(Customer customer, LocalDate start, LocalDate end,
                                                Map<String, Double> distanceByTrackingNo, PaymentMethod preferredPaymentMethod) {
@@ -234,25 +367,54 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         return core.getBillingHistoryForCustomer(customerId);
     }
 
+    @Override
+    public BillingPage getBillingHistory(long customerId, LocalDate from, LocalDate to, String cursor, int limit) {
+        return core.getBillingHistory(operator(), customerId, from, to, cursor, limit);
+    }
+
+    @Override
+    public void setFinalDistance(String trackingNo, double distanceKm) {
+        core.setFinalDistance(operator(), TrackingNumberAllocator.parse(trackingNo), distanceKm);
+    }
+
+    @Override
+    public PeriodBalance getCurrentBalance(long customerId, YearMonth period) {
+        return core.currentBalance(operator(), customerId, period);
+    }
+
     /* ========== QueryApi ========== */
     @Override
     public Parcel searchByTrackingNumber(String trackingNo) {
-        return core.searchByTrackingNumber(currentUser, trackingNo);
+        return core.searchByTrackingNumber(operator(), TrackingNumberAllocator.parse(trackingNo));
     }
 
     @Override
     public List<Parcel> searchByCustomer(long customerId) {
-        return core.searchByCustomer(currentUser, customerId);
+        return core.searchByCustomer(operator(), customerId);
     }
 
     @Override
     public List<Parcel> searchByDateRange(LocalDate start, LocalDate end) {
-        return core.searchByDateRange(currentUser, start, end);
+        return core.searchByDateRange(operator(), start, end);
     }
 
     /* =======================
      * Helpers
      * ======================= */
+
+    /**
+     * 本次呼叫的操作者：session 檢視由 token 解析（過期丟 SecurityException），否則為 currentUser。
+     */
+    private User operator() {
+        return sessionToken == null ? currentUser : sessions.resolve(sessionToken);
+    }
+
+    private void requireShared() {
+        if (sessionToken != null) {
+            throw new IllegalStateException("session 檢視不可再登入，請改用 openSession");
+        }
+    }
+
     private String normalizeUsername(String username) {
         if (username == null) throw new IllegalArgumentException("username is null");
         String u = username.trim();
@@ -264,14 +426,4 @@ public class LogisticsApiImpl implements AuthApi, CustomerApi, ServiceTypeApi, P
         if (password == null) throw new IllegalArgumentException("password is null");
         if (password.trim().length() < 6) throw new IllegalArgumentException("password 長度需至少 6");
     }
-
-    private String hashPassword(String rawPassword) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(digest);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("SHA-256 not available", e);
-        }
-    }
 }
@@ -0,0 +1,104 @@
+package logistics.api.impl;
+
+import logistics.model.User;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 登入 session 表：token -> 使用者，閒置超過 TTL 即失效。
+ *
+ * token 為 32 bytes 的 SecureRandom 亂數（URL-safe Base64），不含任何使用者資訊。
+ * 每次成功解析都會把到期時間往後延（滑動到期）。過期的 session 在解析時直接移除；
+ * 其餘沒人再用的 session 由 open 順帶清掃，每個 TTL 週期最多掃一次，不需要背景執行緒。
+ */
+public final class SessionTable {
+
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+
+    private static final int TOKEN_BYTES = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final class Session {
+        final User user;
+        volatile long expiresAt;
+
+        Session(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final AtomicLong nextSweep;
+
+    public SessionTable(Duration ttl) {
+        this(ttl, System::nanoTime);
+    }
+
+    /**
+     * @param clock 單調遞增的奈秒時鐘（測試可注入）
+     */
+    SessionTable(Duration ttl, LongSupplier clock) {
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("session TTL 需大於 0");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.nextSweep = new AtomicLong(clock.getAsLong() + ttlNanos);
+    }
+
+    /**
+     * 建立 session 並回傳 token。
+     */
+    public String open(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("user is null");
+        }
+        long now = clock.getAsLong();
+        sweepIfDue(now);
+        byte[] raw = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        sessions.put(token, new Session(user, now + ttlNanos));
+        return token;
+    }
+
+    /**
+     * 取得 token 對應的使用者並延長到期時間；token 不存在或已過期時丟 SecurityException。
+     */
+    public User resolve(String token) {
+        Session s = token == null ? null : sessions.get(token);
+        long now = clock.getAsLong();
+        if (s == null || now - s.expiresAt >= 0) {
+            if (s != null) sessions.remove(token, s);
+            throw new SecurityException("session 不存在或已過期，請重新登入");
+        }
+        s.expiresAt = now + ttlNanos;
+        return s.user;
+    }
+
+    /**
+     * 結束 session（登出）；token 不存在時不做事。
+     */
+    public void close(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + ttlNanos)) return;
+        sessions.entrySet().removeIf(e -> now - e.getValue().expiresAt >= 0);
+    }
+}
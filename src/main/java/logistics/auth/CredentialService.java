@@ -0,0 +1,195 @@
+package logistics.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * 帳密驗證排程：讓登入尖峰（例如換班時大量司機同時登入）不拖垮其他請求。
+ *
+ * - 耗時的 KDF 只在固定大小的驗證執行緒池上跑，佇列有上限；滿了就直接拒絕（fail fast），
+ *   不讓等待時間無限拉長
+ * - 同一帳號、同一密碼同時有多個驗證時只算一次，其餘等同一個結果（in-flight 去重）
+ * - 驗證成功後短時間內的重複登入只比對快取，不重算 KDF
+ *
+ * 快取與去重都不保存明碼：以本程序啟動時隨機產生的 HMAC 金鑰對 (帳號, 密碼) 算出指紋，
+ * 快取項目同時記住當時的 passwordHash，密碼一改舊項目就不再相符。
+ */
+public final class CredentialService {
+
+    public static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(5);
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private static final String HMAC = "HmacSHA256";
+
+    private static final class Holder {
+        static final CredentialService DEFAULT = new CredentialService(new Pbkdf2PasswordVerifier(),
+                Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, DEFAULT_CACHE_TTL);
+    }
+
+    private static final class Verified {
+        final String storedHash;
+        final byte[] fingerprint;
+        final long expiresAt;
+
+        Verified(String storedHash, byte[] fingerprint, long expiresAt) {
+            this.storedHash = storedHash;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final PasswordVerifier verifier;
+    private final ThreadPoolExecutor pool;
+    private final long cacheTtlNanos;
+    private final LongSupplier clock;
+    private final Map<String, Verified> verified = new ConcurrentHashMap<>();           // key = username
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * @param threads       同時執行 KDF 的執行緒數（建議不超過 CPU 數）
+     * @param queueCapacity 等待驗證的上限，超過時登入直接失敗
+     * @param cacheTtl      驗證成功後免重算的時間（0 表示不快取）
+     */
+    public CredentialService(PasswordVerifier verifier, int threads, int queueCapacity, Duration cacheTtl) {
+        this(verifier, threads, queueCapacity, cacheTtl, System::nanoTime);
+    }
+
+    CredentialService(PasswordVerifier verifier, int threads, int queueCapacity, Duration cacheTtl,
+                      LongSupplier clock) {
+        if (verifier == null) {
+            throw new IllegalArgumentException("verifier is null");
+        }
+        if (threads <= 0 || queueCapacity <= 0 || cacheTtl == null || cacheTtl.isNegative()) {
+            throw new IllegalArgumentException("threads / queueCapacity 需大於 0，cacheTtl 不可為負");
+        }
+        this.verifier = verifier;
+        this.cacheTtlNanos = cacheTtl.toNanos();
+        this.clock = clock;
+        AtomicInteger n = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "credential-verify-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec spec = new SecretKeySpec(key, HMAC);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance(HMAC);
+                m.init(spec);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC + " not available", e);
+            }
+        });
+    }
+
+    /**
+     * 全程序共用的預設實例：PBKDF2（{@link Pbkdf2PasswordVerifier#DEFAULT_ITERATIONS} 次）、CPU 數量的驗證執行緒。
+     */
+    public static CredentialService defaultService() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * 產生新密碼的雜湊（註冊用，在呼叫端執行緒上算）。
+     */
+    public String hash(String rawPassword) {
+        return verifier.hash(rawPassword);
+    }
+
+    /**
+     * 驗證帳密，阻塞到有結果為止。
+     *
+     * @throws IllegalStateException 驗證佇列已滿（登入尖峰時的保護，呼叫端可稍後重試）
+     */
+    public boolean verify(String username, String rawPassword, String storedHash) {
+        try {
+            return verifyAsync(username, rawPassword, storedHash).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * 同 {@link #verify}，但不阻塞：快取命中時回傳已完成的 future，否則與同一帳密的進行中驗證共用結果。
+     */
+    public CompletableFuture<Boolean> verifyAsync(String username, String rawPassword, String storedHash) {
+        if (storedHash == null || rawPassword == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        byte[] fp = fingerprint(username, rawPassword);
+        long now = clock.getAsLong();
+        Verified v = verified.get(username);
+        if (v != null) {
+            if (now - v.expiresAt < 0 && v.storedHash.equals(storedHash) && MessageDigest.isEqual(v.fingerprint, fp)) {
+                return CompletableFuture.completedFuture(true);
+            }
+            if (now - v.expiresAt >= 0) verified.remove(username, v);
+        }
+
+        String key = username + '\0' + Base64.getEncoder().encodeToString(fp) + '\0' + storedHash;
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return running;
+        }
+        try {
+            pool.execute(() -> {
+                boolean ok;
+                try {
+                    ok = verifier.verify(rawPassword, storedHash);
+                } catch (RuntimeException e) {
+                    inFlight.remove(key, mine);
+                    mine.completeExceptionally(e);
+                    return;
+                }
+                if (ok && cacheTtlNanos > 0) {
+                    verified.put(username, new Verified(storedHash, fp, clock.getAsLong() + cacheTtlNanos));
+                }
+                // 先移出進行中表再完成：拿到結果的呼叫端之後再驗證一定重新排程（或命中快取）
+                inFlight.remove(key, mine);
+                mine.complete(ok);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(new IllegalStateException("登入人數過多，請稍後再試", e));
+        }
+        return mine;
+    }
+
+    /**
+     * 清除某帳號的驗證快取（改密碼或停用帳號時呼叫）。
+     */
+    public void invalidate(String username) {
+        verified.remove(username);
+    }
+
+    private byte[] fingerprint(String username, String rawPassword) {
+        Mac m = mac.get();
+        m.update(username.getBytes(StandardCharsets.UTF_8));
+        m.update((byte) 0);
+        return m.doFinal(rawPassword.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,17 @@
+package logistics.auth;
+
+/**
+ * 密碼雜湊與驗證（可替換的演算法）。
+ *
+ * hash 產生的字串即保存於 User / 帳號資料的 passwordHash；verify 須能辨認自己產生的格式，
+ * 實作可另外接受舊格式以便沿用既有資料。兩者都是刻意耗時的運算，呼叫端應交給 {@link CredentialService} 排程。
+ */
+public interface PasswordVerifier {
+
+    String hash(String rawPassword);
+
+    /**
+     * 比對明碼與保存的雜湊；格式無法辨認時回傳 false。
+     */
+    boolean verify(String rawPassword, String storedHash);
+}
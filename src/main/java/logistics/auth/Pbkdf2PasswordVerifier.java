@@ -0,0 +1,101 @@
+package logistics.auth;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256 密碼雜湊，每個密碼各自隨機 salt，迭代次數可調。
+ *
+ * 保存格式：pbkdf2-sha256$迭代次數$salt(Base64)$hash(Base64)。迭代次數寫在雜湊裡，
+ * 調高成本後舊雜湊仍以當初的次數驗證。
+ * 不含 '$' 的舊格式（未加 salt 的 SHA-256，Base64）仍可驗證，讓既有帳號、快照與 WAL 繼續可用。
+ */
+public final class Pbkdf2PasswordVerifier implements PasswordVerifier {
+
+    public static final int DEFAULT_ITERATIONS = 210_000;
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public Pbkdf2PasswordVerifier() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param iterations 新雜湊的迭代次數（成本），越大越慢
+     */
+    public Pbkdf2PasswordVerifier(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations 需大於 0");
+        }
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public String hash(String rawPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder b64 = Base64.getEncoder();
+        return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$"
+                + b64.encodeToString(derive(rawPassword, salt, iterations));
+    }
+
+    @Override
+    public boolean verify(String rawPassword, String storedHash) {
+        if (rawPassword == null || storedHash == null) return false;
+        if (!storedHash.startsWith(PREFIX)) {
+            return storedHash.indexOf('$') < 0 && MessageDigest.isEqual(
+                    legacySha256(rawPassword).getBytes(StandardCharsets.US_ASCII),
+                    storedHash.getBytes(StandardCharsets.US_ASCII));
+        }
+        String[] parts = storedHash.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) return false;
+        try {
+            int n = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return n > 0 && MessageDigest.isEqual(expected, derive(rawPassword, salt, n));
+        } catch (IllegalArgumentException e) {   // 次數或 Base64 格式錯誤
+            return false;
+        }
+    }
+
+    private static byte[] derive(String rawPassword, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * 舊版格式：SHA-256 後 Base64（無 salt）。
+     */
+    static String legacySha256(String rawPassword) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
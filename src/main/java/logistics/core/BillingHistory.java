@@ -0,0 +1,125 @@
+package logistics.core;
+
+import logistics.model.BillingPage;
+import logistics.model.BillingRecord;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 已開立的帳單，依客戶與帳單期間建索引。
+ *
+ * 每位客戶一個跳躍串列，鍵為（期間起日, 帳單序號），查一位客戶某段期間的帳單只走該客戶的那一段，
+ * 不會碰到其他客戶或範圍外的帳單；另有序號 → 帳單的對照，回放時用來去重、分頁時用來定位游標。
+ * 帳單不會被移除（刪除客戶後歷史仍保留）。
+ */
+final class BillingHistory {
+
+    private static final class Key implements Comparable<Key> {
+        final long startDay;   // 期間起日的 epoch day
+        final long seq;
+
+        Key(long startDay, long seq) {
+            this.startDay = startDay;
+            this.seq = seq;
+        }
+
+        static Key of(BillingRecord r) {
+            return new Key(r.getPeriodStart().toEpochDay(), Mutations.billingSeq(r));
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = Long.compare(startDay, o.startDay);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final Map<Long, BillingRecord> bySeq = new ConcurrentHashMap<>();
+    private final Map<Long, ConcurrentSkipListMap<Key, BillingRecord>> byCustomer = new ConcurrentHashMap<>();
+
+    /**
+     * 加入一張帳單；同一序號已存在時不做事並回傳 false（WAL 回放可能重複）。
+     */
+    boolean add(BillingRecord r) {
+        if (bySeq.putIfAbsent(Mutations.billingSeq(r), r) != null) return false;
+        byCustomer.computeIfAbsent(r.getCustomer().id, k -> new ConcurrentSkipListMap<>()).put(Key.of(r), r);
+        return true;
+    }
+
+    /**
+     * 全部帳單（順序不定），寫快照用。
+     */
+    Collection<BillingRecord> all() {
+        return Collections.unmodifiableCollection(bySeq.values());
+    }
+
+    /**
+     * 客戶的全部帳單，依期間起日、序號由舊到新。
+     */
+    List<BillingRecord> of(long customerId) {
+        NavigableMap<Key, BillingRecord> own = byCustomer.get(customerId);
+        return own == null ? new ArrayList<>() : new ArrayList<>(own.values());
+    }
+
+    /**
+     * 客戶期間起日在 [from, to] 的帳單，由新到舊取一頁。
+     *
+     * @param from   起日下限（含）；null 表示不限
+     * @param to     起日上限（含）；null 表示不限
+     * @param cursor 上一頁的 {@link BillingPage#getNextCursor()}；null 表示第一頁
+     * @throws IllegalArgumentException limit 不是正數，或游標不是這位客戶的帳單編號
+     */
+    BillingPage page(long customerId, LocalDate from, LocalDate to, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit 需大於 0：" + limit);
+        }
+        ConcurrentSkipListMap<Key, BillingRecord> own = byCustomer.get(customerId);
+        Key after = cursor == null ? null : cursorKey(customerId, cursor);
+        if (own == null) return new BillingPage(new ArrayList<>(), null);
+
+        Key lo = from == null ? null : new Key(from.toEpochDay(), Long.MIN_VALUE);
+        Key hi = to == null ? null : new Key(to.toEpochDay(), Long.MAX_VALUE);
+        boolean hiInclusive = true;
+        if (after != null && (hi == null || after.compareTo(hi) < 0)) {
+            hi = after;
+            hiInclusive = false;
+        }
+        NavigableMap<Key, BillingRecord> range = own;
+        if (lo != null) range = range.tailMap(lo, true);
+        if (hi != null) range = range.headMap(hi, hiInclusive);
+
+        List<BillingRecord> records = new ArrayList<>(Math.min(limit, 64));
+        String next = null;
+        for (BillingRecord r : range.descendingMap().values()) {
+            if (records.size() == limit) {
+                next = records.get(limit - 1).getId();
+                break;
+            }
+            records.add(r);
+        }
+        return new BillingPage(records, next);
+    }
+
+    private Key cursorKey(long customerId, String cursor) {
+        BillingRecord r = null;
+        if (cursor.length() > 1 && cursor.charAt(0) == 'B') {
+            try {
+                r = bySeq.get(Long.parseLong(cursor.substring(1)));
+            } catch (NumberFormatException ignored) {
+                // 下面統一回報
+            }
+        }
+        if (r == null || r.getCustomer().id != customerId) {
+            throw new IllegalArgumentException("無效的分頁游標：" + cursor);
+        }
+        return Key.of(r);
+    }
+}
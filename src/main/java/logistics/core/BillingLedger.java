@@ -0,0 +1,157 @@
+package logistics.core;
+
+import logistics.enums.PaymentMethod;
+import logistics.model.Money;
+import logistics.model.Parcel;
+import logistics.model.PeriodBalance;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 每位客戶、每個月份（依寄件日）的運費累計：件數、總額、各付款方式的金額。
+ *
+ * 包裹登錄時計入、最終距離確定時修正差額，查詢時直接讀累計值，不必重掃包裹。
+ * 累計值不寫進 WAL 或快照：重啟時由包裹的登錄與距離紀錄的回放重建。
+ * 金額一律以分為單位的 long 累加，與帳單明細的合計逐分相同。
+ *
+ * 某客戶整個月份都已開出帳單後，該月即「結帳」（{@link #close}）：之後調價、距離修正都不再改動它，
+ * 累計與已開出的帳單保持一致。未結帳的月份另依服務類型記著其中的包裹，調價時只重算這些包裹，
+ * 不必掃描全部歷史包裹；結帳時這份清單即釋放。
+ */
+final class BillingLedger {
+
+    private static final PaymentMethod[] METHODS = PaymentMethod.values();
+
+    private static final class Account {
+        long count;
+        long total;
+        final long[] byMethod = new long[METHODS.length];
+        // 未結帳時：服務類型 id → 該月包裹；結帳後為 null
+        Map<Long, Queue<Parcel>> openParcels = new ConcurrentHashMap<>();
+    }
+
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<Long, Account> open = new ConcurrentHashMap<>();   // 未結帳的月份
+
+    /**
+     * 計入一件包裹（已結帳的月份照樣計入件數與金額，只是不再追蹤該包裹）。
+     */
+    void add(long customerId, LocalDate shipDate, PaymentMethod pm, Parcel p, long amountCents) {
+        long key = key(customerId, shipDate);
+        Account a = account(key);
+        synchronized (a) {
+            a.count++;
+            a.total += amountCents;
+            a.byMethod[pm.ordinal()] += amountCents;
+            if (a.openParcels != null) {
+                a.openParcels.computeIfAbsent(p.serviceType.getId(), k -> new ConcurrentLinkedQueue<>()).add(p);
+            }
+        }
+    }
+
+    /**
+     * 修正已計入包裹的金額（件數不變）。
+     *
+     * @return false 表示該月已結帳，沒有修正
+     */
+    boolean adjust(long customerId, LocalDate shipDate, PaymentMethod pm, long deltaCents) {
+        Account a = account(key(customerId, shipDate));
+        synchronized (a) {
+            if (a.openParcels == null) return false;
+            a.total += deltaCents;
+            a.byMethod[pm.ordinal()] += deltaCents;
+            return true;
+        }
+    }
+
+    /**
+     * 結帳：之後不再修正這個月份的累計。重複呼叫無作用。
+     */
+    void close(long customerId, YearMonth period) {
+        long key = key(customerId, period);
+        Account a = account(key);
+        synchronized (a) {
+            a.openParcels = null;
+        }
+        open.remove(key);
+    }
+
+    boolean isClosed(long customerId, YearMonth period) {
+        Account a = accounts.get(key(customerId, period));
+        if (a == null) return false;
+        synchronized (a) {
+            return a.openParcels == null;
+        }
+    }
+
+    /**
+     * 未結帳月份中某服務類型的包裹（快照，可在迭代時修正累計）。
+     */
+    List<Parcel> openParcels(long serviceTypeId) {
+        List<Parcel> out = new ArrayList<>();
+        for (Account a : open.values()) {
+            Map<Long, Queue<Parcel>> byType;
+            synchronized (a) {
+                byType = a.openParcels;
+            }
+            Queue<Parcel> q = byType == null ? null : byType.get(serviceTypeId);
+            if (q != null) out.addAll(q);
+        }
+        return out;
+    }
+
+    /**
+     * 未結帳月份中的全部包裹。
+     */
+    List<Parcel> openParcels() {
+        List<Parcel> out = new ArrayList<>();
+        for (Account a : open.values()) {
+            Map<Long, Queue<Parcel>> byType;
+            synchronized (a) {
+                byType = a.openParcels;
+            }
+            if (byType != null) byType.values().forEach(out::addAll);
+        }
+        return out;
+    }
+
+    PeriodBalance balance(long customerId, YearMonth period) {
+        Account a = accounts.get(key(customerId, period));
+        Map<PaymentMethod, Double> byMethod = new EnumMap<>(PaymentMethod.class);
+        if (a == null) {
+            return new PeriodBalance(customerId, period, 0, 0L, byMethod);
+        }
+        synchronized (a) {
+            for (int i = 0; i < METHODS.length; i++) {
+                if (a.byMethod[i] != 0) byMethod.put(METHODS[i], Money.toAmount(a.byMethod[i]));
+            }
+            return new PeriodBalance(customerId, period, a.count, a.total, byMethod);
+        }
+    }
+
+    // 新建的帳戶先登記為未結帳；close 之後才移出
+    private Account account(long key) {
+        return accounts.computeIfAbsent(key, k -> {
+            Account a = new Account();
+            open.put(k, a);
+            return a;
+        });
+    }
+
+    // 客戶 id 放高位、月份序號（年 * 12 + 月 - 1）放低 24 位
+    private static long key(long customerId, LocalDate shipDate) {
+        return (customerId << 24) | (shipDate.getYear() * 12L + shipDate.getMonthValue() - 1);
+    }
+
+    private static long key(long customerId, YearMonth period) {
+        return (customerId << 24) | (period.getYear() * 12L + period.getMonthValue() - 1);
+    }
+}
@@ -0,0 +1,276 @@
+package logistics.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 快照中尚未載入記憶體的包裹：直接 memory-map 快照檔，查詢時才解碼成 Parcel。
+ *
+ * 快照的包裹索引為依追蹤編號排序的固定長度紀錄（見 {@link Snapshots}），以二分搜尋找單一包裹。
+ * 另有依寄件日、依 (寄件客戶, 寄件日) 排序的兩個排列，日期/客戶掃描以二分搜尋找到起點後只走過
+ * 區間內的項目；較舊的快照沒有排列，只能循序走過整個索引。
+ * 經過各貨車、各倉庫的包裹編號（倒排）也在檔案中，依代碼查詢時只解碼列出的包裹。
+ * 檔案以 1 GB 為單位分段 map，頁面由作業系統在用到時才讀入。
+ */
+final class ColdParcels implements Closeable {
+
+    static final int INDEX_RECORD = 32;   // long trackingId, long entry 位置, long senderId, long 寄件日 epochDay
+    static final int ORDER_RECORD = 8;    // long 包裹索引中的位置
+    static final int TRUCKS = 0;
+    static final int WAREHOUSES = 1;
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long indexAt;
+    private final long count;
+    private final long byShipDayAt;     // 沒有排列時為 -1
+    private final long bySenderDayAt;
+    // 貨車、倉庫的倒排目錄：代碼 → {編號起始位置, 筆數}；較舊的快照沒有，為 null
+    private List<Map<String, long[]>> postings;
+    private final AtomicLongArray loaded;   // 已解碼的項目（bitset）
+    private final AtomicLong remaining;
+
+    /**
+     * @param indexAt       索引起點，須為 INDEX_RECORD 的倍數，讓每筆索引紀錄都落在同一個 chunk 內
+     * @param byShipDayAt   依寄件日的排列起點；-1 表示沒有（兩個排列須同時有或同時沒有）
+     * @param bySenderDayAt 依 (寄件客戶, 寄件日) 的排列起點
+     */
+    ColdParcels(Path file, long indexAt, long count, long byShipDayAt, long bySenderDayAt) throws IOException {
+        if (indexAt % INDEX_RECORD != 0 || byShipDayAt % ORDER_RECORD > 0 || bySenderDayAt % ORDER_RECORD > 0) {
+            throw new IOException("快照索引未對齊：" + indexAt);
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        int n = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        this.chunks = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = (long) i << CHUNK_BITS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+        }
+        this.indexAt = indexAt;
+        this.count = count;
+        this.byShipDayAt = byShipDayAt;
+        this.bySenderDayAt = bySenderDayAt;
+        this.loaded = new AtomicLongArray((int) ((count + 63) >>> 6));
+        this.remaining = new AtomicLong(count);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long size() {
+        return count;
+    }
+
+    /**
+     * 尚未解碼的項目數；為 0 時所有包裹都已在記憶體中。
+     */
+    long remaining() {
+        return remaining.get();
+    }
+
+    /* ========= 索引 ========= */
+
+    long trackingIdAt(long i) {
+        return getLong(indexAt + i * INDEX_RECORD);
+    }
+
+    long senderAt(long i) {
+        return getLong(indexAt + i * INDEX_RECORD + 16);
+    }
+
+    long shipDayAt(long i) {
+        return getLong(indexAt + i * INDEX_RECORD + 24);
+    }
+
+    /**
+     * 二分搜尋追蹤編號，回傳索引位置；不存在回傳 -1。
+     */
+    long find(long trackingId) {
+        long lo = 0;
+        long hi = count - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long id = trackingIdAt(mid);
+            if (id < trackingId) {
+                lo = mid + 1;
+            } else if (id > trackingId) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 第 i 筆包裹的 entry 內容（不含長度前綴）。跨 chunk 的 entry 會複製到 heap。
+     */
+    ByteBuffer entry(long i) throws IOException {
+        long at = getLong(indexAt + i * INDEX_RECORD + 8);
+        int len = getInt(at);
+        long start = at + 4;
+        int chunk = (int) (start >>> CHUNK_BITS);
+        int off = (int) (start & (CHUNK_SIZE - 1));
+        if (off + (long) len <= chunks[chunk].capacity()) {
+            return chunks[chunk].slice(off, len);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(len);
+        while (copy.hasRemaining()) {
+            channel.read(copy, start + copy.position());
+        }
+        return copy.flip();
+    }
+
+    /* ========= 依寄件日 / 寄件客戶的排列 ========= */
+
+    /**
+     * 是否有排列；沒有時掃描只能循序走過整個索引。
+     */
+    boolean ordered() {
+        return byShipDayAt >= 0;
+    }
+
+    /**
+     * 依寄件日排列的第 k 筆在包裹索引中的位置。
+     */
+    long byShipDay(long k) {
+        return getLong(byShipDayAt + k * ORDER_RECORD);
+    }
+
+    /**
+     * 依 (寄件客戶, 寄件日) 排列的第 k 筆在包裹索引中的位置。
+     */
+    long bySenderDay(long k) {
+        return getLong(bySenderDayAt + k * ORDER_RECORD);
+    }
+
+    /**
+     * 依寄件日排列中第一筆寄件日 &gt;= day 的位置；都比 day 早時回傳 size()。
+     */
+    long firstByShipDay(long day) {
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (shipDayAt(byShipDay(mid)) < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 依 (寄件客戶, 寄件日) 排列中第一筆 &gt;= (senderId, day) 的位置；都比它小時回傳 size()。
+     */
+    long firstBySenderDay(long senderId, long day) {
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long i = bySenderDay(mid);
+            long s = senderAt(i);
+            if (s < senderId || (s == senderId && shipDayAt(i) < day)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* ========= 貨車 / 倉庫倒排 ========= */
+
+    /**
+     * 載入時設定一次，之後才把本物件交給 core。
+     */
+    void setPostings(Map<String, long[]> trucks, Map<String, long[]> warehouses) {
+        postings = List.of(trucks, warehouses);
+    }
+
+    boolean hasPostings() {
+        return postings != null;
+    }
+
+    /**
+     * @param kind {@link #TRUCKS} 或 {@link #WAREHOUSES}
+     */
+    Set<String> postingNames(int kind) {
+        return postings.get(kind).keySet();
+    }
+
+    /**
+     * 經過該貨車/倉庫的包裹追蹤編號（依編號排序）；沒有這個代碼時回傳空陣列。
+     */
+    long[] postings(int kind, String name) {
+        long[] at = postings.get(kind).get(name);
+        if (at == null) return new long[0];
+        long[] ids = new long[(int) at[1]];
+        for (int k = 0; k < ids.length; k++) {
+            ids[k] = getLong(at[0] + (long) k * ORDER_RECORD);
+        }
+        return ids;
+    }
+
+    /* ========= 已解碼標記 ========= */
+
+    boolean isLoaded(long i) {
+        return (loaded.get((int) (i >>> 6)) & (1L << i)) != 0;
+    }
+
+    void markLoaded(long i) {
+        int w = (int) (i >>> 6);
+        long bit = 1L << i;
+        for (;;) {
+            long cur = loaded.get(w);
+            if ((cur & bit) != 0) return;
+            if (loaded.compareAndSet(w, cur, cur | bit)) {
+                remaining.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /* ========= helpers ========= */
+
+    private long getLong(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & (CHUNK_SIZE - 1)));
+    }
+
+    private int getInt(long pos) {
+        int chunk = (int) (pos >>> CHUNK_BITS);
+        int off = (int) (pos & (CHUNK_SIZE - 1));
+        if (off + 4 <= chunks[chunk].capacity()) {
+            return chunks[chunk].getInt(off);
+        }
+        int v = 0;
+        for (int k = 0; k < 4; k++) {
+            long p = pos + k;
+            v = (v << 8) | (chunks[(int) (p >>> CHUNK_BITS)].get((int) (p & (CHUNK_SIZE - 1))) & 0xFF);
+        }
+        return v;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
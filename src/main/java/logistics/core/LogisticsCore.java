@@ -1,39 +1,524 @@
 package logistics.core;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
+import logistics.auth.CredentialService;
 import logistics.enums.*;
+import logistics.geo.DistanceService;
 import logistics.model.*;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import logistics.persist.FsyncPolicy;
+import logistics.persist.WriteAheadLog;
+import logistics.store.LongParcelMap;
+import logistics.store.ParcelColumns;
+import logistics.store.QuoteCache;
+import logistics.store.SymbolTable;
+import logistics.store.TrackingEventLog;
 
 
 /**
  * 系統核心：負責客戶管理、服務類型、包裹、追蹤、計費、查詢與權限控制
+ *
+ * 執行緒安全：序號為 AtomicLong，主資料與索引皆為 concurrent 容器；
+ * 同一包裹的事件附加以條紋鎖（依追蹤編號分段）序列化，不同包裹之間互不阻塞，讀取不加鎖。
+ *
+ * 持久化：以 {@link #open(Path, int, FsyncPolicy)} 建立時，每個異動先寫進 WAL 再套用到記憶體，
+ * 並可定期寫快照（{@link #snapshot()}）後截斷 WAL；啟動時載入最新快照再回放其後的 WAL。
+ * 直接 new 出來的 core 只存在記憶體。
  */
-public class LogisticsCore {
-    
+public class LogisticsCore implements Closeable {
+
+    /** 出帳時沒有指定、也還沒記錄最終距離的包裹所用的暫定距離（公里） */
+    public static final double PROVISIONAL_DISTANCE_KM = 10.0;
 
-    private long customerSeq = 1;
-    private long serviceTypeSeq = 1;
-    private long billingSeq = 1;
-    private long trackingSeq = 100000000L;
+    private final AtomicLong customerSeq = new AtomicLong(1);
+    private final AtomicLong serviceTypeSeq = new AtomicLong(1);
+    private final AtomicLong billingSeq = new AtomicLong(1);
+    private final TrackingNumberAllocator trackingNumbers;
 
     // 簡單 in-memory 儲存
-    Map<Long, Customer> customers = new HashMap<>();
-    Map<Long, ServiceType> serviceTypes = new HashMap<>();
-    Map<String, Parcel> parcels = new HashMap<>();
-    List<BillingRecord> billingRecords = new ArrayList<>();
+    Map<Long, Customer> customers = new ConcurrentHashMap<>();
+    // 已刪除的客戶：其包裹/帳單/帳號仍參照它們，快照與回放需要找得到
+    Map<Long, Customer> deletedCustomers = new ConcurrentHashMap<>();
+    Map<Long, ServiceType> serviceTypes = new ConcurrentHashMap<>();
+    // 各服務類型的費率表；只有 applyPricing 會換，ServiceType 對外唯讀
+    private final Map<Long, AtomicReference<Tariff>> pricing = new ConcurrentHashMap<>();
+    // key = 追蹤編號的數字形式（TrackingNumberAllocator.parse）
+    LongParcelMap parcels = new LongParcelMap();
+    final BillingHistory billingHistory = new BillingHistory();
+
+    // 次要索引：customerId -> 該客戶的包裹（依建立順序）
+    Map<Long, Queue<Parcel>> parcelsByCustomer = new ConcurrentHashMap<>();
+    // 次要索引：寄件日（PICKED_UP 事件日期）-> 當日包裹，供日期區間查詢/計費走 subMap
+    NavigableMap<LocalDate, Queue<Parcel>> parcelsByShipDate = new ConcurrentSkipListMap<>();
+    // 倒排索引：truckId / warehouseId 的字典代碼 -> 曾經過的包裹（每件只出現一次）
+    Map<Integer, Set<Parcel>> parcelsByTruckId = new ConcurrentHashMap<>();
+    Map<Integer, Set<Parcel>> parcelsByWarehouseId = new ConcurrentHashMap<>();
+    // 欄式副本：計費/統計的大量掃描用
+    ParcelColumns parcelColumns = new ParcelColumns();
+    // 每位客戶每月的運費累計，包裹登錄時計入
+    final BillingLedger ledger = new BillingLedger();
+    // 寄件人入口的報價快取
+    private volatile QuoteCache quotes = new QuoteCache();
+    // 離線距離服務（null 表示沒有，未指定距離的包裹用暫定距離）
+    private volatile DistanceService distances;
+    // 追蹤事件存放於 off-heap 日誌，Parcel 只留最後一筆事件的位置
+    final TrackingEventLog eventLog;
+
+    // 包裹事件附加用的條紋鎖（數量為 2 的次方）
+    private static final int PARCEL_LOCK_STRIPES = 256;
+    private final Object[] parcelLocks = new Object[PARCEL_LOCK_STRIPES];
+
+    // 異動日誌（null 表示不持久化）；回放完成後才接上
+    private volatile WriteAheadLog wal;
+    private static final long NOT_LOGGED = -1L;
+    static final long NOT_ACCRUED = Long.MIN_VALUE;     // registerParcel：沒有保存的已計入金額
+    private static final int PROVISIONAL_BATCH = 4096;  // 換距離服務時每筆 WAL 紀錄最多帶幾件包裹
+    private Path dataDir;
+    // 異動在「寫 WAL 到套用完成」之間持有讀鎖；快照只在讀取 LSN 的瞬間取寫鎖，
+    // 確保該 LSN 之前的紀錄都已反映在記憶體中
+    private final ReentrantReadWriteLock checkpointGate = new ReentrantReadWriteLock();
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotter;
+    private volatile Throwable lastSnapshotFailure;
+    private static final System.Logger SNAPSHOT_LOG = System.getLogger(LogisticsCore.class.getName());
+    // 啟動時載入的快照中、尚未解碼的包裹（null 表示沒有）；查詢或掃描用到時才變成 Parcel
+    volatile ColdParcels cold;
+    private final Set<Long> coldSendersLoaded = ConcurrentHashMap.newKeySet();
+
+    public LogisticsCore() {
+        this(0);
+    }
+
+    /**
+     * 不持久化的 core：追蹤事件放在 heap 上的事件日誌（{@link TrackingEventLog#inMemory()}），不建立暫存檔。
+     *
+     * @param nodeId 節點代碼（0~999），寫入追蹤編號前綴；多個 core 各用不同 nodeId 即可互不重號
+     */
+    public LogisticsCore(int nodeId) {
+        this(nodeId, TrackingEventLog.inMemory());
+    }
+
+    /**
+     * @param eventLog 追蹤事件的存放處；由 core 擁有，close 時一併關閉
+     */
+    public LogisticsCore(int nodeId, TrackingEventLog eventLog) {
+        this.trackingNumbers = new TrackingNumberAllocator(nodeId);
+        this.eventLog = eventLog;
+        for (int i = 0; i < parcelLocks.length; i++) {
+            parcelLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * 開啟 dataDir 下的持久化 core：載入最新快照、回放其後的 WAL 重建狀態，之後的異動都會先寫進 WAL。
+     *
+     * @param policy WAL 的落盤策略（GROUP 為 group commit，addTrackingEvent 只多一次緩衝複製）
+     */
+    public static LogisticsCore open(Path dataDir, int nodeId, FsyncPolicy policy) {
+        Path eventDir = dataDir.resolve("events");
+        LogisticsCore core = null;
+        try {
+            Files.createDirectories(eventDir);
+            Files.deleteIfExists(dataDir.resolve(SNAPSHOT_TEMP));
+            // 事件日誌只是 off-heap 快取，內容由快照與 WAL 重建
+            core = new LogisticsCore(nodeId,
+                    new TrackingEventLog(eventDir, TrackingEventLog.DEFAULT_SEGMENT_SIZE));
+            core.dataDir = dataDir;
+            long fromLsn = 0;
+            List<Path> snapshots = snapshotFiles(dataDir);
+            if (!snapshots.isEmpty()) {
+                // 只有最新的快照有用；包裹留在 map 起來的檔案裡，不在這裡解碼
+                fromLsn = Snapshots.load(core, snapshots.get(snapshots.size() - 1));
+                for (Path old : snapshots.subList(0, snapshots.size() - 1)) {
+                    Files.deleteIfExists(old);
+                }
+            }
+            WriteAheadLog wal = WriteAheadLog.open(dataDir.resolve("wal"), policy,
+                    WriteAheadLog.DEFAULT_GROUP_COMMIT_MILLIS, WriteAheadLog.DEFAULT_SEGMENT_BYTES, fromLsn);
+            wal.replay(fromLsn, new Mutations.Replayer(core));
+            core.wal = wal;
+            return core;
+        } catch (IOException e) {
+            if (core != null) {
+                try {
+                    core.eventLog.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException("無法開啟資料目錄：" + dataDir, e);
+        }
+    }
+
+    /**
+     * 關閉 WAL（寫完緩衝中的紀錄）與事件日誌。
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService s = snapshotter;
+        if (s != null) {
+            s.shutdown();
+            try {
+                s.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        WriteAheadLog w = wal;
+        wal = null;
+        try {
+            if (w != null) w.close();
+        } finally {
+            try {
+                ColdParcels c = cold;
+                if (c != null) c.close();
+            } finally {
+                eventLog.close();
+            }
+        }
+    }
+
+    private long log(Mutations.Writer w) {
+        return wal.append(w.bytes(), 0, w.length());
+    }
+
+    /**
+     * 進入「寫 WAL + 套用」區段；未持久化時不加鎖，回傳 null。
+     */
+    private Lock enterMutation() {
+        if (wal == null) return null;
+        Lock l = checkpointGate.readLock();
+        l.lock();
+        return l;
+    }
+
+    private static void exitMutation(Lock l) {
+        if (l != null) l.unlock();
+    }
+
+    /**
+     * 依落盤策略等待紀錄寫入（ALWAYS 才會等）；未持久化時不做事。
+     */
+    private void commit(long lsn) {
+        WriteAheadLog w = wal;
+        if (w != null && lsn != NOT_LOGGED) w.commit(lsn);
+    }
+
+    private static void advance(AtomicLong seq, long usedId) {
+        seq.accumulateAndGet(usedId + 1, Math::max);
+    }
+
+    /* ========= 快照 ========= */
+
+    private static final String SNAPSHOT_TEMP = "snapshot.tmp";
+
+    /**
+     * 寫出完整狀態快照並截斷其之前的 WAL，回傳快照涵蓋到的 LSN。
+     * 擷取期間寫入照常進行，只有讀取 LSN 的瞬間會等正在套用中的異動完成。
+     */
+    public long snapshot() {
+        WriteAheadLog w = wal;
+        if (w == null) {
+            throw new IllegalStateException("非持久化的 core 不支援快照");
+        }
+        synchronized (snapshotLock) {
+            long lsn;
+            checkpointGate.writeLock().lock();
+            try {
+                lsn = w.endLsn();
+            } finally {
+                checkpointGate.writeLock().unlock();
+            }
+            // 快照宣稱涵蓋 lsn 之前的紀錄，這些紀錄須先落盤：GROUP/NEVER 下若當機時還在緩衝中，
+            // 重啟後日誌結尾會落在快照 LSN 之前
+            w.flush();
+            try {
+                Path tmp = dataDir.resolve(SNAPSHOT_TEMP);
+                Snapshots.write(this, tmp, lsn);
+                Path file = dataDir.resolve(String.format("snapshot-%020d.snap", lsn));
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // 啟動時載入的快照可能還有包裹沒解碼，保留到下次啟動再刪
+                ColdParcels c = cold;
+                for (Path old : snapshotFiles(dataDir)) {
+                    if (!old.equals(file) && (c == null || !old.equals(c.file()))) {
+                        Files.deleteIfExists(old);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("快照寫入失敗", e);
+            }
+            w.truncateBefore(lsn);
+            return lsn;
+        }
+    }
+
+    /**
+     * 在背景執行緒每隔 interval 寫一次快照；close 時停止。
+     * 失敗時記錄完整例外並保留在 {@link #lastSnapshotFailure()}，下次排程照常再試。
+     */
+    public synchronized void startSnapshots(Duration interval) {
+        if (wal == null) {
+            throw new IllegalStateException("非持久化的 core 不支援快照");
+        }
+        if (snapshotter != null) {
+            throw new IllegalStateException("定期快照已啟動");
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "core-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long millis = interval.toMillis();
+        snapshotter.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+                lastSnapshotFailure = null;
+            } catch (RuntimeException | Error e) {
+                // 這次失敗不影響下一次；WAL 沒被截斷，資料仍完整，但會一直變長，所以要讓人看得到
+                lastSnapshotFailure = e;
+                SNAPSHOT_LOG.log(System.Logger.Level.ERROR, "定期快照失敗，WAL 暫不截斷", e);
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 最近一次定期快照的失敗原因；之後又成功過或沒有失敗時為 null。
+     * 持續不為 null 表示 WAL 沒有被截斷，應檢查資料目錄（空間、權限）。
+     */
+    public Throwable lastSnapshotFailure() {
+        return lastSnapshotFailure;
+    }
+
+    private static List<Path> snapshotFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            list.filter(p -> {
+                String n = p.getFileName().toString();
+                return n.startsWith("snapshot-") && n.endsWith(".snap");
+            }).forEach(files::add);
+        }
+        files.sort(null);   // 檔名中的 LSN 補零到固定長度，字典序即 LSN 順序
+        return files;
+    }
+
+    /* ========= 快照中的冷資料 ========= */
+
+    /**
+     * 依追蹤編號取得包裹：先查記憶體，再查快照中尚未解碼者；都沒有回傳 null。
+     */
+    Parcel lookupParcel(long trackingId) {
+        Parcel p = parcels.get(trackingId);
+        if (p != null) return p;
+        ColdParcels c = cold;
+        if (c == null) return null;
+        long i = c.find(trackingId);
+        return i < 0 ? null : materialize(c, i);
+    }
+
+    boolean parcelExists(long trackingId) {
+        if (parcels.containsKey(trackingId)) return true;
+        ColdParcels c = cold;
+        return c != null && c.find(trackingId) >= 0;
+    }
+
+    /**
+     * 把快照中的第 i 筆包裹解碼並登錄到記憶體與各索引；同一包裹只會解碼一次。
+     */
+    private Parcel materialize(ColdParcels c, long i) {
+        long trackingId = c.trackingIdAt(i);
+        synchronized (lockFor(trackingId)) {
+            Parcel p = parcels.get(trackingId);
+            if (p == null) {
+                ByteBuffer b;
+                try {
+                    b = c.entry(i);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("快照讀取失敗", e);
+                }
+                p = Mutations.getParcel(b, this);
+                int n = b.getInt();
+                List<TrackingEvent> events = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) {
+                    events.add(Mutations.getEvent(b));
+                }
+                // v2 快照沒有最終距離，較早的 v3 快照沒有收件地址，v6 以前沒有暫定距離與已計入金額
+                if (b.hasRemaining()) p.finalDistanceKm = b.getDouble();
+                if (b.hasRemaining()) p.destination = Mutations.getString(b);
+                long accrued = NOT_ACCRUED;
+                if (b.hasRemaining()) {
+                    p.provisionalDistanceKm = b.getDouble();
+                    accrued = b.getLong();
+                }
+                registerParcel(trackingId, p, events, accrued);
+                trackingNumbers.advancePast(trackingId);
+            }
+            c.markLoaded(i);
+            return p;
+        }
+    }
+
+    /**
+     * 掃描類查詢前呼叫：把快照中符合寄件客戶與寄件日區間的包裹解碼進記憶體，之後照常走記憶體索引。
+     * 以快照中依寄件日、依 (寄件客戶, 寄件日) 的排列二分搜尋起點，只走過區間內的項目；
+     * 較舊的快照沒有排列時才循序走過整個索引。
+     *
+     * @param senderId 寄件客戶；ParcelColumns.ALL_SENDERS 表示全部
+     * @param from     寄件日下限（含），null 表示不限
+     * @param to       寄件日上限（含），null 表示不限
+     */
+    private void loadCold(long senderId, LocalDate from, LocalDate to) {
+        ColdParcels c = cold;
+        if (c == null || c.remaining() == 0) return;
+        boolean wholeSender = from == null && to == null && senderId != ParcelColumns.ALL_SENDERS;
+        if (wholeSender && coldSendersLoaded.contains(senderId)) return;
+        long lo = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long hi = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        long n = c.size();
+        if (!c.ordered()) {
+            for (long i = 0; i < n; i++) {
+                if (c.isLoaded(i)) continue;
+                if (senderId != ParcelColumns.ALL_SENDERS && c.senderAt(i) != senderId) continue;
+                long day = c.shipDayAt(i);
+                if (day < lo || day > hi) continue;
+                materialize(c, i);
+            }
+        } else if (senderId == ParcelColumns.ALL_SENDERS) {
+            for (long k = c.firstByShipDay(lo); k < n; k++) {
+                long i = c.byShipDay(k);
+                if (c.shipDayAt(i) > hi) break;
+                if (!c.isLoaded(i)) materialize(c, i);
+            }
+        } else {
+            for (long k = c.firstBySenderDay(senderId, lo); k < n; k++) {
+                long i = c.bySenderDay(k);
+                if (c.senderAt(i) != senderId || c.shipDayAt(i) > hi) break;
+                if (!c.isLoaded(i)) materialize(c, i);
+            }
+        }
+        if (wholeSender) coldSendersLoaded.add(senderId);
+    }
+
+    /**
+     * 換距離服務前呼叫：把快照中寄件月份尚未結帳的包裹解碼進來，讓它們也以新的距離重算。
+     * 依 (寄件客戶, 寄件日) 的排列走過索引，同一客戶同一月份只查一次是否已結帳。
+     */
+    private void loadColdOpenPeriods() {
+        ColdParcels c = cold;
+        if (c == null || c.remaining() == 0) return;
+        long lastSender = 0;
+        YearMonth lastMonth = null;
+        boolean closed = false;
+        for (long k = 0, n = c.size(); k < n; k++) {
+            long i = c.ordered() ? c.bySenderDay(k) : k;
+            if (c.isLoaded(i)) continue;
+            long sender = c.senderAt(i);
+            YearMonth month = YearMonth.from(LocalDate.ofEpochDay(c.shipDayAt(i)));
+            if (lastMonth == null || sender != lastSender || !month.equals(lastMonth)) {
+                closed = ledger.isClosed(sender, month);
+                lastSender = sender;
+                lastMonth = month;
+            }
+            if (!closed) materialize(c, i);
+        }
+    }
+
+    /**
+     * 依貨車/倉庫查詢前呼叫：只解碼快照倒排中列在該代碼下的包裹。
+     * 較舊的快照沒有倒排，事件要解碼才知道經過哪些貨車/倉庫，只能全部解碼。
+     *
+     * @param kind ColdParcels.TRUCKS 或 ColdParcels.WAREHOUSES
+     */
+    private void loadColdPostings(int kind, String name) {
+        ColdParcels c = cold;
+        if (c == null || c.remaining() == 0 || name == null) return;
+        if (!c.hasPostings()) {
+            loadCold(ParcelColumns.ALL_SENDERS, null, null);
+            return;
+        }
+        for (long trackingId : c.postings(kind, name)) {
+            long i = c.find(trackingId);
+            if (i >= 0 && !c.isLoaded(i)) materialize(c, i);
+        }
+    }
+
+    /**
+     * 快照保存的序號：customerSeq、serviceTypeSeq、billingSeq、追蹤編號的下一個序號。
+     */
+    long[] sequences() {
+        return new long[]{customerSeq.get(), serviceTypeSeq.get(), billingSeq.get(),
+                trackingNumbers.nextSequence()};
+    }
+
+    void restoreSequences(long[] s) {
+        customerSeq.accumulateAndGet(s[0], Math::max);
+        serviceTypeSeq.accumulateAndGet(s[1], Math::max);
+        billingSeq.accumulateAndGet(s[2], Math::max);
+        trackingNumbers.advanceTo(s[3]);
+    }
 
     /* ========= 客戶管理 [1,2,3] ========= */
     public Customer createCustomer(String name, String address, String phone, String email,
                                    CustomerType type, BillingPreference preference) {
-        long id = customerSeq++;
+        long id = customerSeq.getAndIncrement();
         Customer c = new Customer(id, name, address, phone, email, type, preference);
-        customers.put(id, c);
+        long lsn;
+        Lock gate = enterMutation();
+        try {
+            lsn = wal == null ? NOT_LOGGED : log(Mutations.createCustomer(c));
+            applyCreateCustomer(c);
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return c;
+    }
+
+    void applyCreateCustomer(Customer c) {
+        // 回放時可能已由快照載入（含已刪除者），保留既有物件
+        if (!deletedCustomers.containsKey(c.id)) {
+            customers.putIfAbsent(c.id, c);
+        }
+        advance(customerSeq, c.id);
+    }
+
+    void restoreCustomer(Customer c, boolean deleted) {
+        (deleted ? deletedCustomers : customers).put(c.id, c);
+        advance(customerSeq, c.id);
+    }
+
+    /**
+     * 依 id 找客戶（含已刪除者），供快照載入/回放還原參照；找不到表示資料不一致。
+     */
+    Customer knownCustomer(long id) {
+        Customer c = customers.get(id);
+        if (c == null) c = deletedCustomers.get(id);
+        if (c == null) {
+            throw new IllegalStateException("參照不存在的客戶：" + id);
+        }
         return c;
     }
 
@@ -48,47 +533,256 @@ public class LogisticsCore {
                                          double pricePerCubicMeter,
                                          double dangerousSurcharge, double fragileSurcharge,
                                          double oversizeSurcharge) {
-        long id = serviceTypeSeq++;
-        ServiceType st = new ServiceType(id, name, packageType, minWeightKg, maxWeightKg, speed,
-                basePrice, pricePerKm, pricePerKg, pricePerCubicMeter,
-                dangerousSurcharge, fragileSurcharge, oversizeSurcharge);
-        serviceTypes.put(id, st);
+        long id = serviceTypeSeq.getAndIncrement();
+        AtomicReference<Tariff> tariff = new AtomicReference<>(new Tariff(basePrice, pricePerKm, pricePerKg,
+                pricePerCubicMeter, dangerousSurcharge, fragileSurcharge, oversizeSurcharge));
+        ServiceType st = new ServiceType(id, name, packageType, minWeightKg, maxWeightKg, speed, tariff);
+        long lsn;
+        Lock gate = enterMutation();
+        try {
+            lsn = wal == null ? NOT_LOGGED : log(Mutations.createServiceType(st));
+            applyCreateServiceType(st, tariff);
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
         return st;
     }
 
-    /* ========= 包裹建立 [7,8] ========= */
-    private String generateTrackingNumber() {
-        return "T" + (trackingSeq++);
+    /**
+     * tariff 必須是 st 建構時拿到的那一個 reference，之後調價才會反映在 st 上。
+     */
+    void applyCreateServiceType(ServiceType st, AtomicReference<Tariff> tariff) {
+        if (serviceTypes.putIfAbsent(st.getId(), st) == null) {
+            pricing.put(st.getId(), tariff);
+        }
+        advance(serviceTypeSeq, st.getId());
+    }
+
+    /**
+     * 調整服務類型的定價（只有管理員可以）。
+     *
+     * 新價格之後的報價、計費都生效：報價快取中該服務類型的項目全部失效；
+     * 尚未結帳月份中該服務類型包裹的客戶月累計改以新價格重算（快照中還沒解碼的包裹解碼時就用新價格），
+     * 已開出整月帳單的月份維持原金額。
+     */
+    public void updateServiceTypePricing(User operator, long serviceTypeId,
+                                         double basePrice, double pricePerKm, double pricePerKg,
+                                         double pricePerCubicMeter,
+                                         double dangerousSurcharge, double fragileSurcharge,
+                                         double oversizeSurcharge) {
+        if (operator == null || operator.getRole() != Role.ADMIN) {
+            throw new SecurityException("只有管理員可調整定價");
+        }
+        if (serviceTypes.get(serviceTypeId) == null) {
+            throw new IllegalArgumentException("找不到服務類型：" + serviceTypeId);
+        }
+        Tariff tariff = new Tariff(basePrice, pricePerKm, pricePerKg, pricePerCubicMeter,
+                dangerousSurcharge, fragileSurcharge, oversizeSurcharge);
+        long lsn;
+        Lock gate = enterMutation();
+        try {
+            lsn = wal == null ? NOT_LOGGED : log(Mutations.updatePricing(serviceTypeId, tariff));
+            applyPricing(serviceTypeId, tariff);
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+    }
+
+    void applyPricing(long serviceTypeId, Tariff tariff) {
+        ServiceType st = serviceTypes.get(serviceTypeId);
+        if (st == null) return;
+        // 同一服務類型的調價互斥，避免兩次調價的重算交錯
+        synchronized (st) {
+            pricing.get(serviceTypeId).set(tariff);
+            quotes.invalidate(serviceTypeId);
+            for (Parcel p : ledger.openParcels(serviceTypeId)) {
+                reaccrue(p);
+            }
+        }
     }
 
+    /* ========= 包裹建立 [7,8] ========= */
     public Parcel createParcel(User operator, Customer sender, ServiceType st,
                                double weightKg, double lengthCm, double widthCm, double heightCm,
                                double declaredValue, String description,
                                boolean dangerous, boolean fragile, boolean international) {
+        return createParcel(operator, sender, st, weightKg, lengthCm, widthCm, heightCm,
+                declaredValue, description, dangerous, fragile, international, null);
+    }
+
+    /**
+     * 同上，另帶收件地址（設定了距離服務時，出帳與月累計依寄件地址到收件地址的距離計價）。
+     */
+    public Parcel createParcel(User operator, Customer sender, ServiceType st,
+                               double weightKg, double lengthCm, double widthCm, double heightCm,
+                               double declaredValue, String description,
+                               boolean dangerous, boolean fragile, boolean international,
+                               String destination) {
 
         if (!canCreateParcel(operator, sender)) {
             throw new SecurityException("沒有建立包裹的權限");
         }
+        // 寄件客戶與服務類型須是本 core 建立的（WAL 只記 id，回放時要找得到）
+        requireCustomer(sender);
+        if (serviceTypes.get(st.getId()) != st) {
+            throw new IllegalArgumentException("找不到服務類型：" + st.getId());
+        }
 
-        String trackingNo = generateTrackingNumber();
+        long trackingId = trackingNumbers.nextId();
+        String trackingNo = TrackingNumberAllocator.format(trackingId);
         Parcel p = new Parcel(trackingNo, sender, st,
                 weightKg, lengthCm, widthCm, heightCm,
                 declaredValue, description,
                 dangerous, fragile, international);
+        p.destination = destination;
+        p.provisionalDistanceKm = provisionalDistance(p);
+
+        LocalDateTime now = LocalDateTime.now();
+        long lsn;
+        Lock gate = enterMutation();
+        try {
+            lsn = wal == null ? NOT_LOGGED : log(Mutations.createParcel(trackingId, p, now));
+            registerParcel(trackingId, p, Collections.singletonList(pickedUpEvent(p, now)), NOT_ACCRUED);
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return p;
+    }
+
+    /**
+     * 批次建立包裹（例如電商一次上傳的整份託運清單），全部成功或全部不建立。
+     *
+     * 先單趟檢查整批：權限與寄件客戶每遇到不同寄件客戶才檢查一次（一份清單通常只有一位），
+     * 服務類型須已登錄且重量落在其 min/max 內；任一筆不符就丟例外，不配發編號也不寫 WAL。
+     * 通過後一次租下整段追蹤編號，所有包裹共用同一個 PICKED_UP 時間，
+     * 只進出一次 checkpoint gate、只等一次落盤。
+     *
+     * @return 與 specs 同順序的包裹
+     */
+    public Parcel[] createParcels(User operator, List<ParcelSpec> specs) {
+        int n = specs.size();
+        Customer checkedSender = null;
+        ServiceType checkedType = null;
+        for (int i = 0; i < n; i++) {
+            ParcelSpec s = specs.get(i);
+            if (s.sender != checkedSender) {
+                if (!canCreateParcel(operator, s.sender)) {
+                    throw new SecurityException("沒有建立包裹的權限");
+                }
+                requireCustomer(s.sender);
+                checkedSender = s.sender;
+            }
+            ServiceType st = s.serviceType;
+            if (st != checkedType) {
+                if (serviceTypes.get(st.getId()) != st) {
+                    throw new IllegalArgumentException("找不到服務類型：" + st.getId());
+                }
+                checkedType = st;
+            }
+            if (!(s.weightKg >= st.getMinWeightKg() && s.weightKg <= st.getMaxWeightKg())) {
+                throw new IllegalArgumentException("第 " + i + " 筆重量 " + s.weightKg + " kg 超出服務類型 "
+                        + st.getName() + " 的範圍 " + st.getMinWeightKg() + "~" + st.getMaxWeightKg() + " kg");
+            }
+        }
+
+        long[] trackingIds = trackingNumbers.nextIds(n);
+        Parcel[] out = new Parcel[n];
+        for (int i = 0; i < n; i++) {
+            ParcelSpec s = specs.get(i);
+            out[i] = new Parcel(TrackingNumberAllocator.format(trackingIds[i]), s.sender, s.serviceType,
+                    s.weightKg, s.lengthCm, s.widthCm, s.heightCm,
+                    s.declaredValue, s.description,
+                    s.dangerous, s.fragile, s.international);
+            out[i].destination = s.destination;
+            out[i].provisionalDistanceKm = provisionalDistance(out[i]);
+        }
 
-        TrackingEvent event = new TrackingEvent(
+        LocalDateTime now = LocalDateTime.now();
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            if (wal != null) {
+                for (int i = 0; i < n; i++) {
+                    lsn = log(Mutations.createParcel(trackingIds[i], out[i], now));
+                }
+            }
+            TrackingEvent pickedUp = null;
+            for (int i = 0; i < n; i++) {
+                Parcel p = out[i];
+                if (pickedUp == null || !Objects.equals(pickedUp.getLocation(), p.sender.address)) {
+                    pickedUp = pickedUpEvent(p, now);
+                }
+                registerParcel(trackingIds[i], p, Collections.singletonList(pickedUp), NOT_ACCRUED);
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return out;
+    }
+
+    /**
+     * 回放用：登錄日誌中的新包裹（寫入 PICKED_UP 事件並更新各索引），並讓之後配發的編號越過它。
+     * 即時建立的編號本來就是本節點配發的，不走這裡，免得每件都去動共享的序號計數器。
+     */
+    void applyCreateParcel(long trackingId, Parcel p, LocalDateTime now) {
+        registerParcel(trackingId, p, Collections.singletonList(pickedUpEvent(p, now)), NOT_ACCRUED);
+        trackingNumbers.advancePast(trackingId);
+    }
+
+    private static TrackingEvent pickedUpEvent(Parcel p, LocalDateTime now) {
+        return new TrackingEvent(
                 TrackingEventType.PICKED_UP,
-                LocalDateTime.now(),
-                sender.address,
+                now,
+                p.sender.address,
                 null,
                 null,
                 "Package created and picked up",
                 null
         );
-        p.addEvent(event);   // 改用方法
+    }
 
-        parcels.put(trackingNo, p);
-        return p;
+    /**
+     * 登錄包裹與其既有事件（第一筆為 PICKED_UP，其日期即寄件日）並更新各索引；快照載入也走這裡。
+     * 運費以最終距離（尚未確定時用暫定距離）計入寄件客戶當月的累計。
+     *
+     * @param accruedCents 快照保存的已計入金額；NOT_ACCRUED 表示依目前的費率與距離計算。
+     *                     已結帳的月份保留這個金額（與當初開出的帳單一致），未結帳的月份再以目前費率重算
+     */
+    void registerParcel(long trackingId, Parcel p, List<TrackingEvent> events, long accruedCents) {
+        p.attachEventLog(eventLog);
+        for (TrackingEvent e : events) {
+            p.addEvent(e);   // 改用方法
+            indexEvent(p, e);
+        }
+        LocalDate shipDate = events.get(0).getTimestamp().toLocalDate();
+
+        p.columnRow = parcelColumns.append(p, shipDate);
+        if (Double.isNaN(p.provisionalDistanceKm)) {
+            p.provisionalDistanceKm = provisionalDistance(p);   // 較早的 WAL 紀錄與快照沒有暫定距離
+        }
+        Tariff tariff = p.serviceType.getTariff();
+        boolean restored = accruedCents != NOT_ACCRUED;
+        p.accruedCents = restored ? accruedCents : Money.toCents(calculateCharge(p, accrualDistance(p)));
+        ledger.add(p.sender.id, shipDate, accrualMethod(p.sender), p, p.accruedCents);
+        parcels.putIfAbsent(trackingId, p);
+        if (restored || p.serviceType.getTariff() != tariff) {
+            // 快照之後可能調過價；或計入後、登錄前剛好調價，調價的重算可能沒掃到這一件
+            reaccrue(p);
+        }
+        if (!deletedCustomers.containsKey(p.sender.id)) {   // 已刪除客戶的包裹（例如快照中較晚解碼的）不進查詢索引
+            parcelsByCustomer.computeIfAbsent(p.sender.id, k -> new ConcurrentLinkedQueue<>()).add(p);
+            parcelsByShipDate.computeIfAbsent(shipDate, k -> new ConcurrentLinkedQueue<>()).add(p);
+        }
+    }
+
+    private void requireCustomer(Customer c) {
+        if (customers.get(c.id) != c) {
+            throw new IllegalArgumentException("找不到客戶：" + c.id);
+        }
     }
 
     private boolean canCreateParcel(User operator, Customer sender) {
@@ -111,8 +805,18 @@ public class LogisticsCore {
                                  TrackingEventType type,
                                  String location, String truckId, String warehouseId,
                                  String description, ExceptionType exceptionType) {
-        Parcel p = parcels.get(trackingNo);
-        if (p == null) throw new IllegalArgumentException("找不到包裹：" + trackingNo);
+        addTrackingEvent(operator, TrackingNumberAllocator.parse(trackingNo), type,
+                location, truckId, warehouseId, description, exceptionType);
+    }
+
+    /**
+     * 同上，追蹤編號已在 API 層 parse 成數字形式。
+     */
+    public void addTrackingEvent(User operator, long trackingId,
+                                 TrackingEventType type,
+                                 String location, String truckId, String warehouseId,
+                                 String description, ExceptionType exceptionType) {
+        Parcel p = findParcel(trackingId);
 
         if (!canUpdateTracking(operator, type)) {
             throw new SecurityException("沒有新增此類追蹤事件的權限");
@@ -127,7 +831,142 @@ public class LogisticsCore {
                 description,
                 exceptionType
         );
-        p.addEvent(e);   // 改用方法
+        // 在鎖內寫日誌，讓同一包裹事件在 WAL 與記憶體中的順序一致；等待落盤則在鎖外
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            synchronized (lockFor(trackingId)) {
+                if (wal != null) lsn = log(Mutations.addTrackingEvent(trackingId, p.getEventCount(), e));
+                p.addEvent(e);   // 改用方法
+                indexEvent(p, e);
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+    }
+
+    /**
+     * 批次新增追蹤事件（例如分揀中心掃描器的一波掃描），逐筆回報失敗，單筆失敗不中止整批。
+     *
+     * 整批共用一個時間；權限依 (操作者角色, 事件類型) 只判斷一次。
+     * 事件依追蹤編號分組，每件包裹只查一次、只取一次條紋鎖，同一包裹的事件保留輸入順序；
+     * 整批只進出一次 checkpoint gate、只等一次落盤。
+     */
+    public BatchResult addTrackingEvents(User operator, List<EventSpec> specs) {
+        int n = specs.size();
+        BatchResult result = new BatchResult(n);
+        byte[] allowed = new byte[TrackingEventType.values().length];   // 0 = 尚未判斷，1 = 允許，-1 = 拒絕
+
+        // 分組：組號依首次出現順序配發，同組項目以 next 串成鏈（-1 結尾）
+        Map<Long, Integer> groupOf = new HashMap<>();
+        long[] groupIds = new long[n];
+        int[] head = new int[n];
+        int[] tail = new int[n];
+        int[] next = new int[n];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            EventSpec s = specs.get(i);
+            try {
+                if (s.type == null) {
+                    throw new IllegalArgumentException("追蹤事件類型不可為 null");
+                }
+                int t = s.type.ordinal();
+                if (allowed[t] == 0) {
+                    allowed[t] = canUpdateTracking(operator, s.type) ? (byte) 1 : (byte) -1;
+                }
+                if (allowed[t] < 0) {
+                    throw new SecurityException("沒有新增此類追蹤事件的權限");
+                }
+                long trackingId = TrackingNumberAllocator.parse(s.trackingNumber);
+                next[i] = -1;
+                Integer g = groupOf.putIfAbsent(trackingId, groups);
+                if (g == null) {
+                    groupIds[groups] = trackingId;
+                    head[groups] = i;
+                    tail[groups] = i;
+                    groups++;
+                } else {
+                    next[tail[g]] = i;
+                    tail[g] = i;
+                }
+            } catch (RuntimeException ex) {
+                result.fail(i, ex);
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            for (int g = 0; g < groups; g++) {
+                long trackingId = groupIds[g];
+                Parcel p = lookupParcel(trackingId);
+                if (p == null) {
+                    IllegalArgumentException missing = new IllegalArgumentException(
+                            "找不到包裹：" + TrackingNumberAllocator.format(trackingId));
+                    for (int i = head[g]; i >= 0; i = next[i]) {
+                        result.fail(i, missing);
+                    }
+                    continue;
+                }
+                synchronized (lockFor(trackingId)) {
+                    for (int i = head[g]; i >= 0; i = next[i]) {
+                        EventSpec s = specs.get(i);
+                        TrackingEvent e = new TrackingEvent(s.type, now, s.location, s.truckId,
+                                s.warehouseId, s.description, s.exceptionType);
+                        if (wal != null) lsn = log(Mutations.addTrackingEvent(trackingId, p.getEventCount(), e));
+                        p.addEvent(e);
+                        indexEvent(p, e);
+                    }
+                }
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return result;
+    }
+
+    /**
+     * 回放用：index 為事件在該包裹的序號，已存在（快照已包含）時略過。
+     */
+    void applyTrackingEvent(long trackingId, int index, TrackingEvent e) {
+        Parcel p = findParcel(trackingId);
+        synchronized (lockFor(trackingId)) {
+            if (index < p.getEventCount()) return;
+            p.addEvent(e);
+            indexEvent(p, e);
+        }
+    }
+
+    /**
+     * 依追蹤編號取得條紋鎖：同一包裹的附加序列化，不同包裹多半落在不同 stripe。
+     */
+    private Object lockFor(long trackingId) {
+        long h = trackingId * 0x9E3779B97F4A7C15L;
+        return parcelLocks[(int) (h >>> 56) & (PARCEL_LOCK_STRIPES - 1)];
+    }
+
+    Parcel findParcel(long trackingId) {
+        TrackingNumberAllocator.requireValidId(trackingId);
+        Parcel p = lookupParcel(trackingId);
+        if (p == null) {
+            throw new IllegalArgumentException("找不到包裹：" + TrackingNumberAllocator.format(trackingId));
+        }
+        return p;
+    }
+
+    /**
+     * 將事件的 truckId / warehouseId 登錄到倒排索引。
+     */
+    private void indexEvent(Parcel p, TrackingEvent e) {
+        if (e.getTruckCode() != SymbolTable.NONE) {
+            parcelsByTruckId.computeIfAbsent(e.getTruckCode(), k -> ConcurrentHashMap.newKeySet()).add(p);
+        }
+        if (e.getWarehouseCode() != SymbolTable.NONE) {
+            parcelsByWarehouseId.computeIfAbsent(e.getWarehouseCode(), k -> ConcurrentHashMap.newKeySet()).add(p);
+        }
     }
 
     private boolean canUpdateTracking(User user, TrackingEventType type) {
@@ -155,18 +994,25 @@ public class LogisticsCore {
     /* ========= 追蹤查詢 [12,13,14,21] ========= */
 
     public TrackingEvent getCurrentStatus(User viewer, String trackingNo) {
-        Parcel p = getParcelWithAccessCheck(viewer, trackingNo);
+        return getCurrentStatus(viewer, TrackingNumberAllocator.parse(trackingNo));
+    }
+
+    public TrackingEvent getCurrentStatus(User viewer, long trackingId) {
+        Parcel p = getParcelWithAccessCheck(viewer, trackingId);
         return p.getCurrentStatus();
     }
 
     public List<TrackingEvent> getHistory(User viewer, String trackingNo) {
-        Parcel p = getParcelWithAccessCheck(viewer, trackingNo);
+        return getHistory(viewer, TrackingNumberAllocator.parse(trackingNo));
+    }
+
+    public List<TrackingEvent> getHistory(User viewer, long trackingId) {
+        Parcel p = getParcelWithAccessCheck(viewer, trackingId);
         return p.getEvents();
     }
 
-    private Parcel getParcelWithAccessCheck(User viewer, String trackingNo) {
-        Parcel p = parcels.get(trackingNo);
-        if (p == null) throw new IllegalArgumentException("找不到包裹：" + trackingNo);
+    private Parcel getParcelWithAccessCheck(User viewer, long trackingId) {
+        Parcel p = findParcel(trackingId);
         if (viewer == null) throw new SecurityException("未登入");
 
         if (viewer.getRole() == Role.CUSTOMER) {
@@ -179,81 +1025,78 @@ public class LogisticsCore {
     }
 
     public Parcel searchByTrackingNumber(User viewer, String trackingNo) {
-        return getParcelWithAccessCheck(viewer, trackingNo);
+        return searchByTrackingNumber(viewer, TrackingNumberAllocator.parse(trackingNo));
+    }
+
+    public Parcel searchByTrackingNumber(User viewer, long trackingId) {
+        return getParcelWithAccessCheck(viewer, trackingId);
     }
 
     public List<Parcel> searchByCustomer(User viewer, long customerId) {
-        List<Parcel> result = new ArrayList<>();
-        for (Parcel p : parcels.values()) {
-            if (p.sender.id == customerId) {
-                if (viewer.getRole() == Role.CUSTOMER) {
-                    Customer cp = viewer.getCustomerProfile();
-                    if (cp == null || cp.id != customerId) {
-                        continue;
-                    }
-                }
-                result.add(p);
+        // 權限只檢查一次：客戶角色只能查自己的包裹
+        if (viewer.getRole() == Role.CUSTOMER) {
+            Customer cp = viewer.getCustomerProfile();
+            if (cp == null || cp.id != customerId) {
+                return new ArrayList<>();
             }
         }
-        return result;
+        loadCold(customerId, null, null);
+        Queue<Parcel> own = parcelsByCustomer.get(customerId);
+        return own == null ? new ArrayList<>() : new ArrayList<>(own);
     }
 
     public List<Parcel> searchByDateRange(User viewer, LocalDate from, LocalDate to) {
         List<Parcel> result = new ArrayList<>();
-        for (Parcel p : parcels.values()) {
-            if (!p.hasEvents()) continue;
-            List<TrackingEvent> events = p.getEvents();
-            LocalDate date = events.get(0).getTimestamp().toLocalDate();  // ★ 用 getter
-
-            if ((date.isEqual(from) || date.isAfter(from)) &&
-                    (date.isEqual(to) || date.isBefore(to))) {
-
-                if (viewer.getRole() == Role.CUSTOMER) {
-                    Customer cp = viewer.getCustomerProfile();
-                    if (cp == null || cp.id != p.sender.id) {
-                        continue;
-                    }
-                }
+        boolean customerView = viewer.getRole() == Role.CUSTOMER;
+        Customer cp = viewer.getCustomerProfile();
+        if (customerView && cp == null) return result;
+        loadCold(customerView ? cp.id : ParcelColumns.ALL_SENDERS, from, to);
+
+        for (Queue<Parcel> bucket : shipDateRange(from, to).values()) {
+            for (Parcel p : bucket) {
+                if (customerView && cp.id != p.sender.id) continue;
                 result.add(p);
             }
         }
         return result;
     }
 
+    /**
+     * 寄件日在 [from, to]（含頭尾）內的日期桶；from 晚於 to 時回傳空 map。
+     */
+    private NavigableMap<LocalDate, Queue<Parcel>> shipDateRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) return Collections.emptyNavigableMap();
+        return parcelsByShipDate.subMap(from, true, to, true);
+    }
+
     public List<Parcel> searchByTruckId(User viewer, String truckId) {
-        List<Parcel> result = new ArrayList<>();
-        for (Parcel p : parcels.values()) {
-            for (TrackingEvent e : p.getEvents()) {
-                if (truckId != null && truckId.equals(e.getTruckId())) {  // ★ 用 getter
-                    if (viewer.getRole() == Role.CUSTOMER) {
-                        Customer cp = viewer.getCustomerProfile();
-                        if (cp == null || cp.id != p.sender.id) {
-                            break;
-                        }
-                    }
-                    result.add(p);
-                    break;
-                }
-            }
-        }
-        return result;
+        loadColdPostings(ColdParcels.TRUCKS, truckId);
+        int code = SymbolTable.shared().lookup(truckId);
+        if (code == SymbolTable.NONE) return new ArrayList<>();
+        return visibleParcels(viewer, parcelsByTruckId.get(code));
     }
 
     public List<Parcel> searchByWarehouseId(User viewer, String warehouseId) {
+        loadColdPostings(ColdParcels.WAREHOUSES, warehouseId);
+        int code = SymbolTable.shared().lookup(warehouseId);
+        if (code == SymbolTable.NONE) return new ArrayList<>();
+        return visibleParcels(viewer, parcelsByWarehouseId.get(code));
+    }
+
+    /**
+     * 倒排索引查詢結果套用權限：客戶角色只保留自己的包裹。
+     */
+    private List<Parcel> visibleParcels(User viewer, Set<Parcel> posting) {
         List<Parcel> result = new ArrayList<>();
-        for (Parcel p : parcels.values()) {
-            for (TrackingEvent e : p.getEvents()) {
-                if (warehouseId != null && warehouseId.equals(e.getWarehouseId())) { // ★ 用 getter
-                    if (viewer.getRole() == Role.CUSTOMER) {
-                        Customer cp = viewer.getCustomerProfile();
-                        if (cp == null || cp.id != p.sender.id) {
-                            break;
-                        }
-                    }
-                    result.add(p);
-                    break;
-                }
-            }
+        if (posting == null) return result;
+        if (viewer.getRole() != Role.CUSTOMER) {
+            result.addAll(posting);
+            return result;
+        }
+        Customer cp = viewer.getCustomerProfile();
+        if (cp == null) return result;
+        for (Parcel p : posting) {
+            if (p.sender.id == cp.id) result.add(p);
         }
         return result;
     }
@@ -261,55 +1104,433 @@ public class LogisticsCore {
     /* ========= 計費 [16,17,18,19] ========= */
 
 public double calculateCharge(Parcel p, double distanceKm) {
-    ServiceType st = p.serviceType;         // 這行先暫時保留 public，之後你也可以改成 getter
-    double volume = p.getVolumeCubicMeter();
-
-    double amount = st.getBasePrice()
-            + st.getPricePerKm() * distanceKm
-            + st.getPricePerKg() * p.weightKg
-            + st.getPricePerCubicMeter() * volume;
+    // 係數取自服務類型編譯好的費率表；大量計價請用 Tariff.charges 或 ParcelColumns.charges
+    return p.serviceType.getTariff().charge(p.weightKg, p.lengthCm, p.widthCm, p.heightCm,
+            distanceKm, Tariff.flags(p));
+}
 
-    if (p.dangerousGoods) {
-        amount += st.getDangerousSurcharge();
+    /**
+     * 寄件前的運費試算（寄件人入口）。重量、材積、距離無條件進位到報價快取的級距後計價，
+     * 同一級距的報價直接取快取；實際出帳仍以包裹的實際數值計算。
+     */
+    public double quote(ServiceType st, double weightKg, double lengthCm, double widthCm, double heightCm,
+                        double distanceKm, boolean dangerous, boolean fragile) {
+        if (serviceTypes.get(st.getId()) != st) {
+            throw new IllegalArgumentException("找不到服務類型：" + st.getId());
+        }
+        if (!(weightKg >= st.getMinWeightKg() && weightKg <= st.getMaxWeightKg())) {
+            throw new IllegalArgumentException("重量 " + weightKg + " kg 超出服務類型 " + st.getName()
+                    + " 的範圍 " + st.getMinWeightKg() + "~" + st.getMaxWeightKg() + " kg");
+        }
+        if (!(lengthCm >= 0 && widthCm >= 0 && heightCm >= 0 && distanceKm >= 0)) {
+            throw new IllegalArgumentException("尺寸與距離不可為負");
+        }
+        double volume = (lengthCm / 100.0) * (widthCm / 100.0) * (heightCm / 100.0);
+        return quotes.quote(st, weightKg, volume, distanceKm,
+                Tariff.flags(dangerous, fragile, lengthCm, widthCm, heightCm));
     }
-    if (p.fragile) {
-        amount += st.getFragileSurcharge();
+
+    /**
+     * 報價快取的命中率等統計。
+     */
+    public QuoteCache.Stats quoteStats() {
+        return quotes.stats();
     }
-    boolean oversize = p.lengthCm > 100 || p.widthCm > 100 || p.heightCm > 100;
-    if (oversize) {
-        amount += st.getOversizeSurcharge();
+
+    /**
+     * 換一個報價快取（調整級距或容量用），舊的快取內容捨棄。
+     */
+    public void setQuoteCache(QuoteCache quotes) {
+        if (quotes == null) {
+            throw new IllegalArgumentException("quotes is null");
+        }
+        this.quotes = quotes;
     }
-    return amount;
-}
 
 
     public BillingRecord generateBillingRecord(Customer customer,
                                                LocalDate start, LocalDate end,
                                                Map<String, Double> distanceByTracking,
                                                PaymentMethod defaultPaymentMethod) {
-        String id = "B" + (billingSeq++);
+        requireCustomer(customer);
+        long seq = billingSeq.getAndIncrement();
+        String id = "B" + seq;
         BillingRecord record = new BillingRecord(id, customer, start, end);
 
-        for (Parcel p : parcels.values()) {
-            if (p.sender.id != customer.id) continue;
-            if (!p.hasEvents()) continue;
+        loadCold(customer.id, start, end);
+        List<Parcel> billed = new ArrayList<>();
+        for (Queue<Parcel> bucket : shipDateRange(start, end).values()) {
+            for (Parcel p : bucket) {
+                if (p.sender.id == customer.id) billed.add(p);
+            }
+        }
+
+        // 運費改在欄式資料上批次計算
+        int n = billed.size();
+        int[] rows = new int[n];
+        double[] distances = new double[n];
+        for (int i = 0; i < n; i++) {
+            Parcel p = billed.get(i);
+            rows[i] = p.columnRow;
+            distances[i] = billingDistance(p, distanceByTracking);
+        }
+        double[] amounts = new double[n];
+        parcelColumns.charges(rows, distances, amounts);
+
+        PaymentMethod pm = determinePaymentMethodForParcel(customer, defaultPaymentMethod);
+        for (int i = 0; i < n; i++) {
+            record.addItem(new BillingItem(billed.get(i), amounts[i], pm));
+        }
 
-            List<TrackingEvent> events = p.getEvents();
-            LocalDate shipDate = events.get(0).getTimestamp().toLocalDate(); // ★ 用 getter
-            if (shipDate.isBefore(start) || shipDate.isAfter(end)) continue;
+        long lsn;
+        Lock gate = enterMutation();
+        try {
+            lsn = wal == null ? NOT_LOGGED : log(Mutations.generateBillingRecord(record));
+            applyBillingRecord(record);
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return record;
+    }
+
+    /**
+     * 一次為所有客戶出帳（例如月結）：只掃一遍期間內的包裹、依寄件客戶分組，
+     * 運費在 ForkJoinPool 上分段平行計算，每位在期間內有寄件的客戶產生一張帳單。
+     *
+     * 帳單依客戶 id 排序，序號一次預留一段連續的 billingSeq，所以同一批帳單的編號連續且與客戶順序一致；
+     * 整批只進出一次 checkpoint gate、只等一次落盤。已刪除客戶的包裹不出帳。
+     */
+    public List<BillingRecord> runBilling(LocalDate start, LocalDate end,
+                                          Map<String, Double> distanceByTracking,
+                                          PaymentMethod defaultPaymentMethod) {
+        return runBilling(start, end, distanceByTracking, defaultPaymentMethod, ForkJoinPool.commonPool());
+    }
+
+    public List<BillingRecord> runBilling(LocalDate start, LocalDate end,
+                                          Map<String, Double> distanceByTracking,
+                                          PaymentMethod defaultPaymentMethod, ForkJoinPool pool) {
+        loadCold(ParcelColumns.ALL_SENDERS, start, end);
+        Map<Long, List<Parcel>> bySender = new HashMap<>();
+        for (Queue<Parcel> bucket : shipDateRange(start, end).values()) {
+            for (Parcel p : bucket) {
+                if (customers.get(p.sender.id) != p.sender) continue;
+                bySender.computeIfAbsent(p.sender.id, k -> new ArrayList<>()).add(p);
+            }
+        }
+        long[] senders = new long[bySender.size()];
+        int k = 0;
+        for (Long id : bySender.keySet()) {
+            senders[k++] = id;
+        }
+        Arrays.sort(senders);
 
-            double distance = distanceByTracking.getOrDefault(p.trackingNumber, 10.0);
-            double amount = calculateCharge(p, distance);
+        // 攤平成一個陣列，offsets[j] 為第 j 位客戶的第一件
+        int[] offsets = new int[senders.length + 1];
+        for (int j = 0; j < senders.length; j++) {
+            offsets[j + 1] = offsets[j] + bySender.get(senders[j]).size();
+        }
+        int n = offsets[senders.length];
+        Parcel[] billed = new Parcel[n];
+        for (int j = 0; j < senders.length; j++) {
+            List<Parcel> list = bySender.get(senders[j]);
+            for (int i = 0; i < list.size(); i++) {
+                billed[offsets[j] + i] = list.get(i);
+            }
+        }
+        double[] amounts = new double[n];
+        pool.invoke(new ChargeTask(billed, distanceByTracking, new int[n], new double[n], amounts, 0, n));
 
+        long first = billingSeq.getAndAdd(senders.length);
+        List<BillingRecord> records = new ArrayList<>(senders.length);
+        for (int j = 0; j < senders.length; j++) {
+            Customer customer = billed[offsets[j]].sender;
+            BillingRecord record = new BillingRecord("B" + (first + j), customer, start, end);
             PaymentMethod pm = determinePaymentMethodForParcel(customer, defaultPaymentMethod);
+            for (int i = offsets[j]; i < offsets[j + 1]; i++) {
+                record.addItem(new BillingItem(billed[i], amounts[i], pm));
+            }
+            records.add(record);
+        }
+
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            for (BillingRecord record : records) {
+                if (wal != null) lsn = log(Mutations.generateBillingRecord(record));
+                applyBillingRecord(record);
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+        return records;
+    }
+
+    /**
+     * 出帳的運費計算：把 [from, to) 對半切到夠小後，查距離並在欄式資料上批次計算。
+     */
+    private final class ChargeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 4096;
 
-           BillingItem item = new BillingItem(p, amount, pm);
-            record.addItem(item);
+        private final Parcel[] parcels;
+        private final Map<String, Double> distanceByTracking;
+        private final int[] rows;
+        private final double[] distances;
+        private final double[] out;
+        private final int from;
+        private final int to;
 
+        ChargeTask(Parcel[] parcels, Map<String, Double> distanceByTracking,
+                   int[] rows, double[] distances, double[] out, int from, int to) {
+            this.parcels = parcels;
+            this.distanceByTracking = distanceByTracking;
+            this.rows = rows;
+            this.distances = distances;
+            this.out = out;
+            this.from = from;
+            this.to = to;
         }
 
-        billingRecords.add(record);
-        return record;
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChargeTask(parcels, distanceByTracking, rows, distances, out, from, mid),
+                        new ChargeTask(parcels, distanceByTracking, rows, distances, out, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                Parcel p = parcels[i];
+                rows[i] = p.columnRow;
+                distances[i] = billingDistance(p, distanceByTracking);
+            }
+            parcelColumns.charges(rows, distances, out, from, to);
+        }
+    }
+
+    /**
+     * 出帳距離：呼叫端指定的優先，其次是已記錄的最終距離，都沒有時用暫定距離。
+     */
+    private double billingDistance(Parcel p, Map<String, Double> distanceByTracking) {
+        Double km = distanceByTracking.get(p.trackingNumber);
+        return km != null ? km : accrualDistance(p);
+    }
+
+    /**
+     * 記錄包裹的最終計費距離（例如送達後依實際路線算出），並把寄件客戶當月累計修正為以此距離計算的運費；
+     * 之後出帳時，沒有另外指定距離的包裹就用這個距離。可重複設定，以最後一次為準。
+     */
+    public void setFinalDistance(User operator, String trackingNo, double distanceKm) {
+        setFinalDistance(operator, TrackingNumberAllocator.parse(trackingNo), distanceKm);
+    }
+
+    public void setFinalDistance(User operator, long trackingId, double distanceKm) {
+        if (operator == null || (operator.getRole() != Role.ADMIN
+                && operator.getRole() != Role.CUSTOMER_SERVICE && operator.getRole() != Role.DRIVER)) {
+            throw new SecurityException("沒有設定計費距離的權限");
+        }
+        if (!(distanceKm >= 0) || Double.isInfinite(distanceKm)) {
+            throw new IllegalArgumentException("距離需為非負的有限值：" + distanceKm);
+        }
+        Parcel p = findParcel(trackingId);
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            synchronized (lockFor(trackingId)) {
+                if (wal != null) lsn = log(Mutations.setFinalDistance(trackingId, distanceKm));
+                correctAccrual(p, distanceKm);
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+    }
+
+    /**
+     * 回放用：重複套用同一距離時差額為 0。
+     */
+    void applyFinalDistance(long trackingId, double distanceKm) {
+        Parcel p = findParcel(trackingId);
+        synchronized (lockFor(trackingId)) {
+            correctAccrual(p, distanceKm);
+        }
+    }
+
+    // 呼叫端持有該包裹的條紋鎖
+    private void correctAccrual(Parcel p, double distanceKm) {
+        p.finalDistanceKm = distanceKm;
+        accrue(p);
+    }
+
+    // 以目前的距離與費率重算已計入的運費，累計只修正差額（已結帳的月份不動）；呼叫端持有該包裹的條紋鎖
+    private void accrue(Parcel p) {
+        long cents = Money.toCents(calculateCharge(p, accrualDistance(p)));
+        if (cents == p.accruedCents) return;
+        if (ledger.adjust(p.sender.id, parcelColumns.shipDate(p.columnRow), accrualMethod(p.sender),
+                cents - p.accruedCents)) {
+            p.accruedCents = cents;
+        }
+    }
+
+    /**
+     * 調價後重算一件包裹的累計。
+     */
+    private void reaccrue(Parcel p) {
+        synchronized (lockFor(TrackingNumberAllocator.parse(p.trackingNumber))) {
+            accrue(p);
+        }
+    }
+
+    /**
+     * 沒有指定距離時的計費距離：已記錄的最終距離，其次是包裹的暫定距離。
+     */
+    private double accrualDistance(Parcel p) {
+        double km = p.finalDistanceKm;
+        return Double.isNaN(km) ? p.provisionalDistanceKm : km;
+    }
+
+    /**
+     * 暫定距離：距離服務查到的寄件地址到收件地址距離，查不到或沒有距離服務時用 PROVISIONAL_DISTANCE_KM。
+     * 建立包裹時決定並寫進 WAL，之後只在換距離服務時改變（同樣寫進 WAL），回放不必重查距離服務。
+     */
+    private double provisionalDistance(Parcel p) {
+        DistanceService ds = distances;
+        if (ds != null && p.destination != null) {
+            double km = ds.distanceKm(p.sender.address, p.destination);
+            if (!Double.isNaN(km)) return km;
+        }
+        return PROVISIONAL_DISTANCE_KM;
+    }
+
+    /**
+     * 設定離線距離服務（null 表示不使用）。未結帳月份中還沒有最終距離的包裹（含快照中尚未解碼者），
+     * 暫定距離改以新的距離服務查詢，月累計跟著重算；改變的暫定距離寫進 WAL。已結帳的月份不動。
+     */
+    public void setDistanceService(DistanceService distances) {
+        long lsn = NOT_LOGGED;
+        Lock gate = enterMutation();
+        try {
+            this.distances = distances;
+            loadColdOpenPeriods();
+            List<Parcel> changed = new ArrayList<>();
+            List<Double> kms = new ArrayList<>();
+            for (Parcel p : ledger.openParcels()) {
+                if (!Double.isNaN(p.finalDistanceKm)) continue;
+                double km = provisionalDistance(p);
+                if (km != p.provisionalDistanceKm) {
+                    changed.add(p);
+                    kms.add(km);
+                }
+            }
+            if (wal != null) {
+                long[] ids = new long[changed.size()];
+                double[] km = new double[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = TrackingNumberAllocator.parse(changed.get(i).trackingNumber);
+                    km[i] = kms.get(i);
+                }
+                for (int from = 0; from < ids.length; from += PROVISIONAL_BATCH) {
+                    int to = Math.min(ids.length, from + PROVISIONAL_BATCH);
+                    lsn = log(Mutations.setProvisionalDistances(ids, km, from, to));
+                }
+            }
+            for (int i = 0; i < changed.size(); i++) {
+                Parcel p = changed.get(i);
+                synchronized (lockFor(TrackingNumberAllocator.parse(p.trackingNumber))) {
+                    p.provisionalDistanceKm = kms.get(i);
+                    accrue(p);
+                }
+            }
+        } finally {
+            exitMutation(gate);
+        }
+        commit(lsn);
+    }
+
+    /**
+     * 回放用：套用換距離服務時寫下的暫定距離。
+     */
+    void applyProvisionalDistance(long trackingId, double distanceKm) {
+        Parcel p = findParcel(trackingId);
+        synchronized (lockFor(trackingId)) {
+            p.provisionalDistanceKm = distanceKm;
+            accrue(p);
+        }
+    }
+
+    /**
+     * 客戶某月（依寄件日）目前累計的件數與運費，直接讀累計值，不重掃包裹。
+     * 重啟後第一次查某客戶時，會先把該客戶還在快照裡的包裹解碼進來。
+     *
+     * @throws SecurityException 客戶角色查詢他人的累計
+     */
+    public PeriodBalance currentBalance(User viewer, long customerId, YearMonth period) {
+        if (viewer == null) {
+            throw new IllegalArgumentException("viewer is null");
+        }
+        if (viewer.getRole() == Role.CUSTOMER) {
+            Customer cp = viewer.getCustomerProfile();
+            if (cp == null || cp.id != customerId) {
+                throw new SecurityException("客戶只能查詢自己的累計運費");
+            }
+        }
+        if (customers.get(customerId) == null) {
+            throw new IllegalArgumentException("找不到客戶：" + customerId);
+        }
+        loadCold(customerId, null, null);
+        return ledger.balance(customerId, period);
+    }
+
+    /**
+     * 累計用的付款方式：出帳時才由呼叫端指定付款方式的客戶，先記在月結帳戶。
+     */
+    private PaymentMethod accrualMethod(Customer customer) {
+        return determinePaymentMethodForParcel(customer, PaymentMethod.MONTHLY_ACCOUNT);
+    }
+
+    /**
+     * 回放用：先把帳單期間內還在快照裡的包裹解碼計入（出帳當時也是先解碼再出帳），再加入帳單並結帳，
+     * 結帳時的累計才與當時相同。快照中的帳單不走這裡：它們在包裹擷取前就已結帳，包裹保存的金額即結帳時的金額。
+     */
+    void replayBillingRecord(BillingRecord record) {
+        loadCold(record.getCustomer().id, record.getPeriodStart(), record.getPeriodEnd());
+        applyBillingRecord(record);
+    }
+
+    /**
+     * 加入帳單索引；同一編號已存在時（WAL 回放重複）不做事。
+     */
+    void applyBillingRecord(BillingRecord record) {
+        if (billingHistory.add(record)) {
+            advance(billingSeq, Mutations.billingSeq(record));
+            closeCoveredMonths(record);
+        }
+    }
+
+    /**
+     * 帳單期間完整涵蓋的月份結帳，之後調價或修正距離不再改動這些月份的累計。
+     */
+    private void closeCoveredMonths(BillingRecord record) {
+        LocalDate start = record.getPeriodStart();
+        YearMonth first = YearMonth.from(start);
+        if (start.getDayOfMonth() != 1) first = first.plusMonths(1);
+        YearMonth last = YearMonth.from(record.getPeriodEnd());
+        if (!record.getPeriodEnd().equals(last.atEndOfMonth())) last = last.minusMonths(1);
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            ledger.close(record.getCustomer().id, m);
+        }
+    }
+
+    /**
+     * 寄件日在 [from, to] 的包裹統計（件數、總重、總材積、特殊處理件數），直接掃欄式資料。
+     *
+     * @param customerId 寄件客戶；傳 ParcelColumns.ALL_SENDERS 表示全部客戶
+     */
+    public ParcelColumns.Summary summarizeShipments(long customerId, LocalDate from, LocalDate to) {
+        loadCold(customerId, from, to);
+        return parcelColumns.summarize(customerId, from, to);
     }
 
     private PaymentMethod determinePaymentMethodForParcel(Customer customer,
@@ -339,27 +1560,102 @@ public double calculateCharge(Parcel p, double distanceKm) {
         throw new SecurityException("只有管理員或客服可刪除顧客");
     }
 
+    long lsn = NOT_LOGGED;
+    Lock gate = enterMutation();
+    try {
+        Customer removed = customers.remove(customerId);
+        if (removed == null) {
+            throw new IllegalArgumentException("找不到 customerId=" + customerId);
+        }
+        // 先移除再寫日誌：同時刪除同一客戶時只有一方會寫進 WAL
+        if (wal != null) {
+            try {
+                lsn = log(Mutations.deleteCustomer(customerId));
+            } catch (RuntimeException e) {
+                customers.put(customerId, removed);
+                throw e;
+            }
+        }
+        deletedCustomers.put(customerId, removed);
+        dropCustomerParcels(customerId);
+    } finally {
+        exitMutation(gate);
+    }
+    commit(lsn);
+}
+
+void applyDeleteCustomer(long customerId) {
     Customer removed = customers.remove(customerId);
-    if (removed == null) {
-        throw new IllegalArgumentException("找不到 customerId=" + customerId);
+    if (removed != null) deletedCustomers.put(customerId, removed);
+    dropCustomerParcels(customerId);
+}
+
+/**
+ * 把已刪除客戶的包裹移出客戶索引與寄件日索引（只動該客戶寄件日所在的日期桶）。
+ */
+private void dropCustomerParcels(long customerId) {
+    Queue<Parcel> own = parcelsByCustomer.remove(customerId);
+    if (own == null) return;
+    Set<LocalDate> shipDates = new HashSet<>();
+    for (Parcel p : own) {
+        shipDates.add(parcelColumns.shipDate(p.columnRow));
+    }
+    for (LocalDate d : shipDates) {
+        Queue<Parcel> bucket = parcelsByShipDate.get(d);
+        if (bucket != null) bucket.removeIf(p -> p.sender.id == customerId);
     }
 }
 
 
-   public List<BillingRecord> getBillingHistoryForCustomer(long customerId) {
-    List<BillingRecord> list = new ArrayList<>();
-    for (BillingRecord br : billingRecords) {
-        if (br.getCustomer().id == customerId) {
-            list.add(br);
+/**
+ * 客戶的全部帳單，依帳單期間起日、編號由舊到新。
+ */
+public List<BillingRecord> getBillingHistoryForCustomer(long customerId) {
+    return billingHistory.of(customerId);
+}
+
+/**
+ * 客戶帳單歷史的一頁（由新到舊），只走該客戶的帳單索引。客戶角色只能查自己的帳單，查他人時回傳空頁。
+ *
+ * @param from   帳單期間起日下限（含）；null 表示不限
+ * @param to     帳單期間起日上限（含）；null 表示不限
+ * @param cursor 上一頁的 nextCursor；null 表示第一頁
+ * @param limit  每頁張數
+ * @throws IllegalArgumentException limit 不是正數、from 晚於 to，或游標無效
+ */
+public BillingPage getBillingHistory(User viewer, long customerId, LocalDate from, LocalDate to,
+                                     String cursor, int limit) {
+    if (viewer == null) {
+        throw new IllegalArgumentException("viewer is null");
+    }
+    if (from != null && to != null && from.isAfter(to)) {
+        throw new IllegalArgumentException("from 晚於 to：" + from + " > " + to);
+    }
+    if (viewer.getRole() == Role.CUSTOMER) {
+        Customer cp = viewer.getCustomerProfile();
+        if (cp == null || cp.id != customerId) {
+            return new BillingPage(new ArrayList<>(), null);
         }
     }
-    return list;
+    return billingHistory.page(customerId, from, to, cursor, limit);
 }
 // 簡單 in-memory 帳號系統
-Map<String, User> usersByUsername = new HashMap<>();
+Map<String, User> usersByUsername = new ConcurrentHashMap<>();
+// 密碼雜湊/驗證（KDF 在驗證執行緒池上跑）
+private volatile CredentialService credentials = CredentialService.defaultService();
 
 /* ========= 認證/帳號 [Auth] ========= */
 
+/**
+ * 替換密碼雜湊/驗證的實作（例如調整 KDF 成本或驗證執行緒數）；既有帳號的雜湊須仍能被新實作驗證。
+ */
+public void setCredentialService(CredentialService credentials) {
+    if (credentials == null) {
+        throw new IllegalArgumentException("credentials is null");
+    }
+    this.credentials = credentials;
+}
+
 /**
  * 註冊帳號（保存密碼雜湊）。
  * - username 必須唯一
@@ -379,14 +1675,33 @@ public User registerUser(String username, String rawPassword, Role role, Custome
         throw new IllegalArgumentException("CUSTOMER 角色必須綁定 customerProfile");
     }
 
-    String hash = hashPassword(rawPassword);
+    String hash = credentials.hash(rawPassword);
     User user = new User(u, hash, role, role == Role.CUSTOMER ? customerProfileOrNull : null);
-    usersByUsername.put(u, user);
+    long lsn = NOT_LOGGED;
+    Lock gate = enterMutation();
+    try {
+        if (usersByUsername.putIfAbsent(u, user) != null) {
+            throw new IllegalArgumentException("username 已存在：" + u);
+        }
+        // 搶到 username 的一方才寫日誌，回放時的勝出者與現在一致
+        if (wal != null) {
+            try {
+                lsn = log(Mutations.registerUser(user));
+            } catch (RuntimeException e) {
+                usersByUsername.remove(u, user);
+                throw e;
+            }
+        }
+    } finally {
+        exitMutation(gate);
+    }
+    commit(lsn);
     return user;
 }
 
 /**
  * 登入：成功回傳 User；失敗丟例外。
+ * 驗證交給 CredentialService（有上限的執行緒池、同帳密去重、短暫快取）；驗證佇列滿時丟 IllegalStateException。
  */
 public User login(String username, String rawPassword) {
     String u = normalizeUsername(username);
@@ -401,8 +1716,7 @@ public User login(String username, String rawPassword) {
         throw new SecurityException("帳號未設密碼，禁止登入");
     }
 
-    String actualHash = hashPassword(rawPassword);
-    if (!expectedHash.equals(actualHash)) {
+    if (!credentials.verify(u, rawPassword, expectedHash)) {
         throw new SecurityException("密碼錯誤");
     }
     return user;
@@ -421,17 +1735,4 @@ private void validatePassword(String rawPassword) {
     if (p.length() < 6) throw new IllegalArgumentException("password 長度需至少 6");
 }
 
-/**
- * 以 SHA-256 雜湊密碼，並使用 Base64 儲存（in-memory demo 用）。
- */
-private String hashPassword(String rawPassword) {
-    try {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] digest = md.digest(rawPassword.getBytes(StandardCharsets.UTF_8));
-        return Base64.getEncoder().encodeToString(digest);
-    } catch (NoSuchAlgorithmException e) {
-        throw new IllegalStateException("SHA-256 not available", e);
-    }
-}
-
 }
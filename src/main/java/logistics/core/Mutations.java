@@ -0,0 +1,425 @@
+package logistics.core;
+
+import logistics.enums.*;
+import logistics.model.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * LogisticsCore 異動紀錄的編碼與回放（WAL 的 payload 格式）；快照的各筆資料也沿用同一套欄位編碼。
+ *
+ * 每筆紀錄第一個 byte 為類型，其後欄位依類型固定排列；字串為 int 長度 + UTF-8（-1 表示 null），
+ * 列舉存 ordinal（-1 表示 null），時間存 UTC epoch second + nano。
+ * 地點/貨車/倉庫存字串而不是 SymbolTable 代碼，因為代碼只在同一個 JVM 內有效。
+ *
+ * 回放必須可重複套用：快照是在寫入持續進行時擷取的，快照 LSN 之後的紀錄可能已經包含在快照裡。
+ * 建立類紀錄以 id 判斷是否已存在；追蹤事件帶著它在該包裹的序號，序號小於現有事件數就略過。
+ */
+final class Mutations {
+
+    static final byte CREATE_CUSTOMER = 1;
+    static final byte CREATE_SERVICE_TYPE = 2;
+    static final byte CREATE_PARCEL = 3;
+    static final byte ADD_TRACKING_EVENT = 4;
+    static final byte GENERATE_BILLING_RECORD = 5;
+    static final byte DELETE_CUSTOMER = 6;
+    static final byte REGISTER_USER = 7;
+    static final byte SET_FINAL_DISTANCE = 8;
+    static final byte UPDATE_PRICING = 9;
+    static final byte SET_PROVISIONAL_DISTANCES = 10;
+
+    private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+
+    private Mutations() {
+    }
+
+    /* ========= WAL 紀錄 ========= */
+
+    static Writer createCustomer(Customer c) {
+        return putCustomer(begin(CREATE_CUSTOMER), c);
+    }
+
+    static Writer createServiceType(ServiceType st) {
+        return putServiceType(begin(CREATE_SERVICE_TYPE), st);
+    }
+
+    /**
+     * 收件地址、暫定距離依序放在最後：較早的紀錄沒有這些欄位，回放時讀到底就是 null / 重新決定。
+     */
+    static Writer createParcel(long trackingId, Parcel p, LocalDateTime pickedUpAt) {
+        return putParcel(begin(CREATE_PARCEL), trackingId, p).putTimestamp(pickedUpAt).putString(p.destination)
+                .putDouble(p.provisionalDistanceKm);
+    }
+
+    /**
+     * @param index 此事件在該包裹的序號（第一筆 PICKED_UP 為 0）
+     */
+    static Writer addTrackingEvent(long trackingId, int index, TrackingEvent e) {
+        return putEvent(begin(ADD_TRACKING_EVENT).putLong(trackingId).putInt(index), e);
+    }
+
+    static Writer generateBillingRecord(BillingRecord r) {
+        return putBillingRecord(begin(GENERATE_BILLING_RECORD), r);
+    }
+
+    static Writer deleteCustomer(long customerId) {
+        return begin(DELETE_CUSTOMER).putLong(customerId);
+    }
+
+    static Writer registerUser(User u) {
+        return putUser(begin(REGISTER_USER), u);
+    }
+
+    static Writer setFinalDistance(long trackingId, double distanceKm) {
+        return begin(SET_FINAL_DISTANCE).putLong(trackingId).putDouble(distanceKm);
+    }
+
+    /**
+     * ids[from, to) 與對應的新暫定距離。
+     */
+    static Writer setProvisionalDistances(long[] ids, double[] distanceKm, int from, int to) {
+        Writer w = begin(SET_PROVISIONAL_DISTANCES).putInt(to - from);
+        for (int i = from; i < to; i++) {
+            w.putLong(ids[i]).putDouble(distanceKm[i]);
+        }
+        return w;
+    }
+
+    static Writer updatePricing(long serviceTypeId, Tariff t) {
+        return putTariff(begin(UPDATE_PRICING).putLong(serviceTypeId), t);
+    }
+
+    private static Writer begin(byte type) {
+        return WRITER.get().reset().putByte(type);
+    }
+
+    /* ========= 欄位編碼 ========= */
+
+    static Writer putCustomer(Writer w, Customer c) {
+        return w.putLong(c.id)
+                .putString(c.name)
+                .putString(c.address)
+                .putString(c.phone)
+                .putString(c.email)
+                .putEnum(c.type)
+                .putEnum(c.billingPreference);
+    }
+
+    static Writer putServiceType(Writer w, ServiceType st) {
+        w.putLong(st.getId())
+                .putString(st.getName())
+                .putEnum(st.getPackageType())
+                .putDouble(st.getMinWeightKg())
+                .putDouble(st.getMaxWeightKg())
+                .putEnum(st.getSpeed());
+        return putTariff(w, st.getTariff());   // 只讀一次，調價同時進行也不會寫出新舊混合的價格
+    }
+
+    static Writer putTariff(Writer w, Tariff t) {
+        return w.putDouble(t.basePrice)
+                .putDouble(t.pricePerKm)
+                .putDouble(t.pricePerKg)
+                .putDouble(t.pricePerCubicMeter)
+                .putDouble(t.dangerousSurcharge)
+                .putDouble(t.fragileSurcharge)
+                .putDouble(t.oversizeSurcharge);
+    }
+
+    /**
+     * 包裹本身的欄位（不含事件）。
+     */
+    static Writer putParcel(Writer w, long trackingId, Parcel p) {
+        int flags = (p.dangerousGoods ? 1 : 0) | (p.fragile ? 2 : 0) | (p.international ? 4 : 0);
+        return w.putLong(trackingId)
+                .putLong(p.sender.id)
+                .putLong(p.serviceType.getId())
+                .putDouble(p.weightKg)
+                .putDouble(p.lengthCm)
+                .putDouble(p.widthCm)
+                .putDouble(p.heightCm)
+                .putDouble(p.declaredValue)
+                .putString(p.description)
+                .putByte(flags);
+    }
+
+    static Writer putEvent(Writer w, TrackingEvent e) {
+        return w.putEnum(e.getType())
+                .putTimestamp(e.getTimestamp())
+                .putString(e.getLocation())
+                .putString(e.getTruckId())
+                .putString(e.getWarehouseId())
+                .putString(e.getDescription())
+                .putEnum(e.getExceptionType());
+    }
+
+    static Writer putBillingRecord(Writer w, BillingRecord r) {
+        w.putLong(billingSeq(r))
+                .putLong(r.getCustomer().id)
+                .putLong(r.getPeriodStart().toEpochDay())
+                .putLong(r.getPeriodEnd().toEpochDay())
+                .putInt(r.getItems().size());
+        for (BillingItem item : r.getItems()) {
+            w.putLong(TrackingNumberAllocator.parse(item.getTrackingNumber()))
+                    .putDouble(item.getAmount())
+                    .putEnum(item.getPaymentMethod());
+        }
+        return w;
+    }
+
+    static Writer putUser(Writer w, User u) {
+        Customer profile = u.getCustomerProfile();
+        return w.putString(u.getUsername())
+                .putString(u.getPasswordHash())
+                .putEnum(u.getRole())
+                .putLong(profile == null ? -1 : profile.id);
+    }
+
+    /**
+     * 帳單編號 "B" + 序號 中的序號。
+     */
+    static long billingSeq(BillingRecord r) {
+        return Long.parseLong(r.getId().substring(1));
+    }
+
+    /**
+     * 可重複使用的編碼緩衝；內容在下一次 reset 前有效。
+     */
+    static final class Writer {
+        private byte[] buf = new byte[256];
+        private int len;
+
+        Writer reset() {
+            len = 0;
+            return this;
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        int length() {
+            return len;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, len + n)];
+                System.arraycopy(buf, 0, grown, 0, len);
+                buf = grown;
+            }
+        }
+
+        Writer putByte(int v) {
+            ensure(1);
+            buf[len++] = (byte) v;
+            return this;
+        }
+
+        Writer putInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[len++] = (byte) (v >>> shift);
+            }
+            return this;
+        }
+
+        Writer putLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[len++] = (byte) (v >>> shift);
+            }
+            return this;
+        }
+
+        Writer putDouble(double v) {
+            return putLong(Double.doubleToRawLongBits(v));
+        }
+
+        Writer putEnum(Enum<?> v) {
+            return putByte(v == null ? -1 : v.ordinal());
+        }
+
+        Writer putString(String s) {
+            if (s == null) return putInt(-1);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            putInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        Writer putTimestamp(LocalDateTime t) {
+            return putLong(t.toEpochSecond(ZoneOffset.UTC)).putInt(t.getNano());
+        }
+    }
+
+    /* ========= 欄位解碼 ========= */
+
+    static Customer getCustomer(ByteBuffer b) {
+        return new Customer(b.getLong(), getString(b), getString(b), getString(b), getString(b),
+                getEnum(b, CustomerType.values()), getEnum(b, BillingPreference.values()));
+    }
+
+    /**
+     * 讀回服務類型；費率表放進 tariff，交給 core 保管，之後調價才換得掉。
+     */
+    static ServiceType getServiceType(ByteBuffer b, AtomicReference<Tariff> tariff) {
+        long id = b.getLong();
+        String name = getString(b);
+        PackageType packageType = getEnum(b, PackageType.values());
+        double minWeightKg = b.getDouble();
+        double maxWeightKg = b.getDouble();
+        DeliverySpeed speed = getEnum(b, DeliverySpeed.values());
+        tariff.set(getTariff(b));
+        return new ServiceType(id, name, packageType, minWeightKg, maxWeightKg, speed, tariff);
+    }
+
+    /**
+     * 讀回 putParcel 的欄位；追蹤編號以 Parcel.trackingNumber 的文字形式帶回。
+     */
+    static Parcel getParcel(ByteBuffer b, LogisticsCore core) {
+        long trackingId = b.getLong();
+        Customer sender = core.knownCustomer(b.getLong());
+        ServiceType st = core.serviceTypes.get(b.getLong());
+        double weight = b.getDouble();
+        double length = b.getDouble();
+        double width = b.getDouble();
+        double height = b.getDouble();
+        double declared = b.getDouble();
+        String description = getString(b);
+        int flags = b.get();
+        return new Parcel(TrackingNumberAllocator.format(trackingId), sender, st,
+                weight, length, width, height, declared, description,
+                (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0);
+    }
+
+    static Tariff getTariff(ByteBuffer b) {
+        return new Tariff(b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble(),
+                b.getDouble(), b.getDouble(), b.getDouble());
+    }
+
+    static TrackingEvent getEvent(ByteBuffer b) {
+        return new TrackingEvent(getEnum(b, TrackingEventType.values()), getTimestamp(b),
+                getString(b), getString(b), getString(b), getString(b),
+                getEnum(b, ExceptionType.values()));
+    }
+
+    static BillingRecord getBillingRecord(ByteBuffer b, LogisticsCore core) {
+        long seq = b.getLong();
+        Customer customer = core.knownCustomer(b.getLong());
+        LocalDate start = LocalDate.ofEpochDay(b.getLong());
+        LocalDate end = LocalDate.ofEpochDay(b.getLong());
+        BillingRecord record = new BillingRecord("B" + seq, customer, start, end);
+        int n = b.getInt();
+        for (int i = 0; i < n; i++) {
+            // 包裹可能還在快照裡沒解碼，等第一次 getParcel 才取
+            long trackingId = b.getLong();
+            record.addItem(new BillingItem(TrackingNumberAllocator.format(trackingId),
+                    () -> core.findParcel(trackingId), b.getDouble(), getEnum(b, PaymentMethod.values())));
+        }
+        return record;
+    }
+
+    static User getUser(ByteBuffer b, LogisticsCore core) {
+        String username = getString(b);
+        String hash = getString(b);
+        Role role = getEnum(b, Role.values());
+        long customerId = b.getLong();
+        return new User(username, hash, role, customerId < 0 ? null : core.knownCustomer(customerId));
+    }
+
+    static String getString(ByteBuffer b) {
+        int n = b.getInt();
+        if (n < 0) return null;
+        byte[] bytes = new byte[n];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static <E extends Enum<E>> E getEnum(ByteBuffer b, E[] values) {
+        int ordinal = b.get();
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    static LocalDateTime getTimestamp(ByteBuffer b) {
+        long second = b.getLong();
+        return LocalDateTime.ofEpochSecond(second, b.getInt(), ZoneOffset.UTC);
+    }
+
+    /* ========= 回放 ========= */
+
+    /**
+     * 依序套用 WAL 紀錄到 core（可接在快照載入之後）。
+     */
+    static final class Replayer implements Consumer<ByteBuffer> {
+        private final LogisticsCore core;
+
+        Replayer(LogisticsCore core) {
+            this.core = core;
+        }
+
+        @Override
+        public void accept(ByteBuffer b) {
+            byte type = b.get();
+            switch (type) {
+                case CREATE_CUSTOMER:
+                    core.applyCreateCustomer(getCustomer(b));
+                    break;
+                case CREATE_SERVICE_TYPE: {
+                    AtomicReference<Tariff> tariff = new AtomicReference<>();
+                    core.applyCreateServiceType(getServiceType(b, tariff), tariff);
+                    break;
+                }
+                case CREATE_PARCEL: {
+                    Parcel p = getParcel(b, core);
+                    long trackingId = TrackingNumberAllocator.parse(p.trackingNumber);
+                    LocalDateTime pickedUpAt = getTimestamp(b);
+                    if (b.hasRemaining()) p.destination = getString(b);
+                    if (b.hasRemaining()) p.provisionalDistanceKm = b.getDouble();
+                    if (!core.parcelExists(trackingId)) {
+                        core.applyCreateParcel(trackingId, p, pickedUpAt);
+                    }
+                    break;
+                }
+                case ADD_TRACKING_EVENT: {
+                    long trackingId = b.getLong();
+                    int index = b.getInt();
+                    core.applyTrackingEvent(trackingId, index, getEvent(b));
+                    break;
+                }
+                case GENERATE_BILLING_RECORD: {
+                    core.replayBillingRecord(getBillingRecord(b, core));   // 已存在的帳單編號會略過
+                    break;
+                }
+                case DELETE_CUSTOMER:
+                    core.applyDeleteCustomer(b.getLong());
+                    break;
+                case REGISTER_USER: {
+                    User u = getUser(b, core);
+                    core.usersByUsername.putIfAbsent(u.getUsername(), u);
+                    break;
+                }
+                case SET_FINAL_DISTANCE:
+                    core.applyFinalDistance(b.getLong(), b.getDouble());
+                    break;
+                case UPDATE_PRICING:
+                    core.applyPricing(b.getLong(), getTariff(b));
+                    break;
+                case SET_PROVISIONAL_DISTANCES:
+                    for (int i = 0, n = b.getInt(); i < n; i++) {
+                        core.applyProvisionalDistance(b.getLong(), b.getDouble());
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("未知的 WAL 紀錄類型：" + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package logistics.core;
+
+import logistics.model.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LogisticsCore 的完整狀態快照。
+ *
+ * 檔案格式：
+ * <pre>
+ *   header  int magic, int version, long WAL LSN（此 LSN 之前的異動都已包含在快照中）
+ *   entries 每筆為 int 長度 + 內容（欄位編碼同 {@link Mutations}），依擷取順序分段寫入；
+ *           包裹 entry 為包裹欄位、事件數、各事件，最後是最終計費距離（v3 起，NaN 表示未確定）、收件地址，
+ *           以及暫定距離與已計入客戶月累計的金額（v6 起；已結帳月份的累計靠它與帳單保持一致）
+ *   index   包裹索引，起點對齊 32 bytes；每筆 32 bytes（追蹤編號、entry 位置、寄件客戶、寄件日），
+ *           依追蹤編號排序且不重複
+ *   orders  v4 起：包裹索引的兩個排列，每筆 8 bytes（包裹索引中的位置），
+ *           一個依 (寄件日, 位置) 排序、一個依 (寄件客戶, 寄件日, 位置) 排序，供日期/客戶掃描二分搜尋
+ *   postings v5 起：經過各貨車、各倉庫的包裹追蹤編號，每個代碼一段依編號排序的 long；
+ *           之後是貨車、倉庫兩段目錄 entry（代碼字串、該段起始位置、筆數）
+ *   footer  各段的 (起始位置, 筆數)，依載入順序：客戶、服務類型、包裹、帳號、帳單、包裹索引，
+ *           v4 起再加上兩個排列，v5 起再加上倒排編號、貨車目錄、倉庫目錄；
+ *           接著是 customerSeq、serviceTypeSeq、billingSeq、追蹤編號的下一個序號
+ *   trailer long footer 位置
+ * </pre>
+ *
+ * 載入時只解碼客戶、服務類型、帳號與帳單（帳單明細的包裹延後取得）與貨車/倉庫目錄；包裹區、索引與
+ * 倒排編號直接 memory-map 成 {@link ColdParcels}，查到或掃到時才解碼。
+ *
+ * 擷取時不停止寫入，所以要先擷取「參照別人」的資料再擷取「被參照」的資料：
+ * 帳單 → 帳號 → 包裹 → 服務類型 → 客戶。這樣快照裡任何一筆參照到的對象，一定也在快照中；
+ * 載入時再依 footer 反過來的順序讀回。擷取期間新增的異動 LSN 都不小於快照 LSN，會在回放時補上
+ * （已包含者由 {@link Mutations.Replayer} 略過）。
+ * 包裹區先複製上一份快照中還沒解碼過的 entry（原封不動），再寫記憶體中的包裹；兩者之間被解碼的包裹
+ * 會出現兩次，建索引時保留後寫的那份。
+ */
+final class Snapshots {
+
+    private static final int MAGIC = 0x4C534E50;   // "LSNP"
+    private static final int VERSION = 6;
+    private static final int MIN_VERSION = 2;   // v2 的包裹 entry 沒有最終距離，v3 以前沒有排列，v4 以前沒有倒排，照樣可載入
+    private static final int HEADER = 16;
+
+    private static final int CUSTOMERS = 0;
+    private static final int SERVICE_TYPES = 1;
+    private static final int PARCELS = 2;
+    private static final int USERS = 3;
+    private static final int BILLING = 4;
+    private static final int PARCEL_INDEX = 5;
+    private static final int BY_SHIP_DAY = 6;
+    private static final int BY_SENDER_DAY = 7;
+    private static final int POSTING_IDS = 8;
+    private static final int TRUCKS = 9;
+    private static final int WAREHOUSES = 10;
+    private static final int SECTIONS = 11;
+    private static final int V3_SECTIONS = 6;
+    private static final int V4_SECTIONS = 8;
+
+    private Snapshots() {
+    }
+
+    /* ========= 寫入 ========= */
+
+    /**
+     * 把 core 目前的狀態寫到 file 並 fsync；lsn 須在開始擷取前取得。
+     */
+    static void write(LogisticsCore core, Path file, long lsn) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file.toFile());
+             SectionWriter out = new SectionWriter(new BufferedOutputStream(fos, 1 << 20))) {
+            out.writeHeader(lsn);
+            Mutations.Writer w = new Mutations.Writer();
+
+            out.begin(BILLING);
+            for (BillingRecord r : core.billingHistory.all()) {
+                out.entry(Mutations.putBillingRecord(w.reset(), r));
+            }
+
+            out.begin(USERS);
+            for (User u : core.usersByUsername.values()) {
+                out.entry(Mutations.putUser(w.reset(), u));
+            }
+
+            out.begin(PARCELS);
+            ParcelIndex index = new ParcelIndex();
+            Postings trucks = new Postings();
+            Postings warehouses = new Postings();
+            ColdParcels cold = core.cold;
+            if (cold != null) {
+                // 上一份快照的倒排整份沿用：其中的包裹不是原封複製就是已在記憶體中，貨車/倉庫只增不減
+                boolean carried = cold.hasPostings();
+                if (carried) {
+                    trucks.addAll(cold, ColdParcels.TRUCKS);
+                    warehouses.addAll(cold, ColdParcels.WAREHOUSES);
+                }
+                for (long i = 0, n = cold.size(); i < n; i++) {
+                    if (cold.isLoaded(i)) continue;
+                    long trackingId = cold.trackingIdAt(i);
+                    index.add(trackingId, out.position(), cold.senderAt(i), cold.shipDayAt(i));
+                    ByteBuffer entry = cold.entry(i);
+                    if (!carried) {
+                        // 較舊的快照沒有倒排：這一次解碼事件補上
+                        ByteBuffer b = entry.duplicate();
+                        Mutations.getParcel(b, core);
+                        for (int k = 0, m = b.getInt(); k < m; k++) {
+                            TrackingEvent e = Mutations.getEvent(b);
+                            trucks.add(e.getTruckId(), trackingId);
+                            warehouses.add(e.getWarehouseId(), trackingId);
+                        }
+                    }
+                    out.rawEntry(entry);
+                }
+            }
+            core.parcels.forEach(p -> {
+                // 事件清單取自同一個鏈頭，是一致的前綴
+                List<TrackingEvent> events = p.getEvents();
+                long trackingId = TrackingNumberAllocator.parse(p.trackingNumber);
+                index.add(trackingId, out.position(), p.sender.id,
+                        events.get(0).getTimestamp().toLocalDate().toEpochDay());
+                Mutations.putParcel(w.reset(), trackingId, p).putInt(events.size());
+                for (TrackingEvent e : events) {
+                    Mutations.putEvent(w, e);
+                    trucks.add(e.getTruckId(), trackingId);
+                    warehouses.add(e.getWarehouseId(), trackingId);
+                }
+                w.putDouble(p.finalDistanceKm).putString(p.destination)
+                        .putDouble(p.provisionalDistanceKm).putLong(p.accruedCents);
+                out.uncheckedEntry(w);
+            });
+
+            out.begin(SERVICE_TYPES);
+            for (ServiceType st : core.serviceTypes.values()) {
+                out.entry(Mutations.putServiceType(w.reset(), st));
+            }
+
+            // 先看現有客戶再看已刪除者：擷取期間被刪除的客戶至少會出現在其中一邊，兩邊都有時以已刪除為準
+            out.begin(CUSTOMERS);
+            Map<Long, Customer> captured = new LinkedHashMap<>(core.customers);
+            Set<Long> deleted = core.deletedCustomers.keySet();
+            for (Customer c : core.deletedCustomers.values()) {
+                captured.put(c.id, c);
+            }
+            for (Customer c : captured.values()) {
+                out.entry(Mutations.putCustomer(w.reset().putByte(deleted.contains(c.id) ? 1 : 0), c));
+            }
+
+            index.write(out);
+            out.begin(POSTING_IDS);
+            Map<String, long[]> truckDir = trucks.writeIds(out);
+            Map<String, long[]> warehouseDir = warehouses.writeIds(out);
+            out.begin(TRUCKS);
+            for (Map.Entry<String, long[]> e : truckDir.entrySet()) {
+                out.entry(w.reset().putString(e.getKey()).putLong(e.getValue()[0]).putLong(e.getValue()[1]));
+            }
+            out.begin(WAREHOUSES);
+            for (Map.Entry<String, long[]> e : warehouseDir.entrySet()) {
+                out.entry(w.reset().putString(e.getKey()).putLong(e.getValue()[0]).putLong(e.getValue()[1]));
+            }
+            out.writeFooter(core.sequences());
+            out.flush();
+            fos.getChannel().force(true);
+        }
+    }
+
+    /**
+     * 分段寫入並記錄各段位置；entry 以 int 長度開頭。
+     */
+    private static final class SectionWriter implements AutoCloseable {
+        private final OutputStream out;
+        private final byte[] scratch = new byte[8];
+        private final long[] offsets = new long[SECTIONS];
+        private final long[] counts = new long[SECTIONS];
+        private int section = -1;
+        private long pos;
+
+        SectionWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeHeader(long lsn) throws IOException {
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            writeLong(lsn);
+        }
+
+        void begin(int section) {
+            this.section = section;
+            offsets[section] = pos;
+        }
+
+        long position() {
+            return pos;
+        }
+
+        void entry(Mutations.Writer w) throws IOException {
+            writeInt(w.length());
+            out.write(w.bytes(), 0, w.length());
+            pos += w.length();
+            counts[section]++;
+        }
+
+        void rawEntry(ByteBuffer b) throws IOException {
+            int len = b.remaining();
+            writeInt(len);
+            byte[] bytes = new byte[len];
+            b.get(bytes);
+            out.write(bytes);
+            pos += len;
+            counts[section]++;
+        }
+
+        void align(int boundary) throws IOException {
+            while (pos % boundary != 0) {
+                out.write(0);
+                pos++;
+            }
+        }
+
+        void record(long a, long b, long c, long d) throws IOException {
+            writeLong(a);
+            writeLong(b);
+            writeLong(c);
+            writeLong(d);
+            counts[section]++;
+        }
+
+        void word(long v) throws IOException {
+            writeLong(v);
+            counts[section]++;
+        }
+
+        void uncheckedEntry(Mutations.Writer w) {
+            try {
+                entry(w);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeFooter(long[] sequences) throws IOException {
+            long footer = pos;
+            for (int i = 0; i < SECTIONS; i++) {
+                writeLong(offsets[i]);
+                writeLong(counts[i]);
+            }
+            for (long s : sequences) {
+                writeLong(s);
+            }
+            writeLong(footer);
+        }
+
+        private void writeInt(int v) throws IOException {
+            for (int i = 0; i < 4; i++) {
+                scratch[i] = (byte) (v >>> (24 - 8 * i));
+            }
+            out.write(scratch, 0, 4);
+            pos += 4;
+        }
+
+        private void writeLong(long v) throws IOException {
+            for (int i = 0; i < 8; i++) {
+                scratch[i] = (byte) (v >>> (56 - 8 * i));
+            }
+            out.write(scratch, 0, 8);
+            pos += 8;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /* ========= 載入 ========= */
+
+    /**
+     * 把快照載入到剛建立（尚未有資料）的 core，回傳快照的 WAL LSN。
+     */
+    static long load(LogisticsCore core, Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = read(ch, 0, HEADER);
+            int magic = head.getInt();
+            int version = head.getInt();
+            if (magic != MAGIC || version < MIN_VERSION || version > VERSION) {
+                throw new IOException("不是可辨識的快照檔：" + file);
+            }
+            long lsn = head.getLong();
+
+            long footerAt = read(ch, ch.size() - 8, 8).getLong();
+            int sections = version >= 5 ? SECTIONS : version == 4 ? V4_SECTIONS : V3_SECTIONS;
+            ByteBuffer footer = read(ch, footerAt, sections * 16 + 4 * 8);
+            long[] offsets = new long[SECTIONS];
+            long[] counts = new long[SECTIONS];
+            for (int i = 0; i < sections; i++) {
+                offsets[i] = footer.getLong();
+                counts[i] = footer.getLong();
+            }
+
+            EntryReader in = new EntryReader(ch, offsets[CUSTOMERS]);
+            for (long i = 0; i < counts[CUSTOMERS]; i++) {
+                ByteBuffer b = in.next();
+                boolean deleted = b.get() != 0;
+                core.restoreCustomer(Mutations.getCustomer(b), deleted);
+            }
+            in = new EntryReader(ch, offsets[SERVICE_TYPES]);
+            for (long i = 0; i < counts[SERVICE_TYPES]; i++) {
+                AtomicReference<Tariff> tariff = new AtomicReference<>();
+                core.applyCreateServiceType(Mutations.getServiceType(in.next(), tariff), tariff);
+            }
+            if (counts[PARCEL_INDEX] > 0) {
+                // v3 以前沒有排列，掃描時退回循序走過索引；下一份快照就會補上
+                boolean ordered = version >= 4;
+                ColdParcels cold = new ColdParcels(file, offsets[PARCEL_INDEX], counts[PARCEL_INDEX],
+                        ordered ? offsets[BY_SHIP_DAY] : -1, ordered ? offsets[BY_SENDER_DAY] : -1);
+                if (version >= 5) {
+                    // 目錄只有代碼數那麼多筆；各代碼的編號留在檔案裡，查詢時才讀
+                    cold.setPostings(directory(ch, offsets[TRUCKS], counts[TRUCKS]),
+                            directory(ch, offsets[WAREHOUSES], counts[WAREHOUSES]));
+                }
+                core.cold = cold;
+            }
+            in = new EntryReader(ch, offsets[USERS]);
+            for (long i = 0; i < counts[USERS]; i++) {
+                User u = Mutations.getUser(in.next(), core);
+                core.usersByUsername.putIfAbsent(u.getUsername(), u);
+            }
+            in = new EntryReader(ch, offsets[BILLING]);
+            for (long i = 0; i < counts[BILLING]; i++) {
+                core.applyBillingRecord(Mutations.getBillingRecord(in.next(), core));
+            }
+
+            long[] sequences = new long[4];
+            for (int i = 0; i < sequences.length; i++) {
+                sequences[i] = footer.getLong();
+            }
+            core.restoreSequences(sequences);
+            return lsn;
+        }
+    }
+
+    private static Map<String, long[]> directory(FileChannel ch, long at, long count) throws IOException {
+        Map<String, long[]> dir = new HashMap<>();
+        EntryReader in = new EntryReader(ch, at);
+        for (long i = 0; i < count; i++) {
+            ByteBuffer b = in.next();
+            String name = Mutations.getString(b);
+            dir.put(name, new long[]{b.getLong(), b.getLong()});
+        }
+        return dir;
+    }
+
+    /**
+     * 寫快照時收集的貨車或倉庫倒排：代碼 → 經過的包裹追蹤編號（可重複，寫出前排序去重）。
+     */
+    private static final class Postings {
+        private final Map<String, long[]> ids = new HashMap<>();   // [0] 為筆數，之後是編號
+
+        void add(String name, long trackingId) {
+            if (name == null) return;
+            long[] a = ids.get(name);
+            if (a == null) {
+                a = new long[8];
+                ids.put(name, a);
+            } else if (a[0] + 1 == a.length) {
+                a = Arrays.copyOf(a, a.length * 2);
+                ids.put(name, a);
+            }
+            a[(int) ++a[0]] = trackingId;
+        }
+
+        void addAll(ColdParcels cold, int kind) {
+            for (String name : cold.postingNames(kind)) {
+                for (long id : cold.postings(kind, name)) {
+                    add(name, id);
+                }
+            }
+        }
+
+        /**
+         * 寫出各代碼排序去重後的編號，回傳目錄：代碼 → {起始位置, 筆數}。
+         */
+        Map<String, long[]> writeIds(SectionWriter out) throws IOException {
+            Map<String, long[]> dir = new LinkedHashMap<>();
+            for (Map.Entry<String, long[]> e : ids.entrySet()) {
+                long[] a = e.getValue();
+                int n = (int) a[0];
+                Arrays.sort(a, 1, n + 1);
+                long at = out.position();
+                long written = 0;
+                for (int k = 1; k <= n; k++) {
+                    if (k > 1 && a[k] == a[k - 1]) continue;
+                    out.word(a[k]);
+                    written++;
+                }
+                dir.put(e.getKey(), new long[]{at, written});
+            }
+            return dir;
+        }
+    }
+
+    /**
+     * 寫快照時收集的包裹索引；寫出前依追蹤編號排序，重複者保留後寫的，再寫出依寄件日、
+     * 依 (寄件客戶, 寄件日) 的兩個排列。
+     */
+    private static final class ParcelIndex {
+        private long[] ids = new long[1024];
+        private long[] offsets = new long[1024];
+        private long[] senders = new long[1024];
+        private long[] days = new long[1024];
+        private int size;
+
+        void add(long id, long offset, long sender, long day) {
+            if (size == ids.length) {
+                int cap = size * 2;
+                ids = Arrays.copyOf(ids, cap);
+                offsets = Arrays.copyOf(offsets, cap);
+                senders = Arrays.copyOf(senders, cap);
+                days = Arrays.copyOf(days, cap);
+            }
+            ids[size] = id;
+            offsets[size] = offset;
+            senders[size] = sender;
+            days[size] = day;
+            size++;
+        }
+
+        void write(SectionWriter out) throws IOException {
+            int[] order = identity(size);
+            sort(order, 0, size - 1, (a, b) -> ids[a] < ids[b] || (ids[a] == ids[b] && a < b));
+            // 同一編號排在一起且寫入順序遞增，只留最後一份；留下的順序即包裹索引中的位置
+            int m = 0;
+            for (int k = 0; k < size; k++) {
+                if (k + 1 < size && ids[order[k + 1]] == ids[order[k]]) continue;
+                order[m++] = order[k];
+            }
+            out.align(ColdParcels.INDEX_RECORD);
+            out.begin(PARCEL_INDEX);
+            for (int k = 0; k < m; k++) {
+                int i = order[k];
+                out.record(ids[i], offsets[i], senders[i], days[i]);
+            }
+
+            int[] byDay = identity(m);
+            sort(byDay, 0, m - 1, (a, b) -> {
+                long da = days[order[a]];
+                long db = days[order[b]];
+                return da < db || (da == db && a < b);
+            });
+            out.begin(BY_SHIP_DAY);
+            for (int k = 0; k < m; k++) {
+                out.word(byDay[k]);
+            }
+
+            int[] bySender = byDay;   // 從寄件日順序出發，同客戶內的比較多半已有序
+            sort(bySender, 0, m - 1, (a, b) -> {
+                long sa = senders[order[a]];
+                long sb = senders[order[b]];
+                if (sa != sb) return sa < sb;
+                long da = days[order[a]];
+                long db = days[order[b]];
+                return da < db || (da == db && a < b);
+            });
+            out.begin(BY_SENDER_DAY);
+            for (int k = 0; k < m; k++) {
+                out.word(bySender[k]);
+            }
+        }
+
+        private static int[] identity(int n) {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = i;
+            }
+            return a;
+        }
+
+        private interface Order {
+            boolean less(int a, int b);
+        }
+
+        /**
+         * 依 less 排序 a（less 須為全序，相等者以位置決勝）。
+         */
+        private static void sort(int[] order, int lo, int hi, Order less) {
+            while (hi - lo > 16) {
+                int p = order[(lo + hi) >>> 1];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (less.less(order[i], p)) i++;
+                    while (less.less(p, order[j])) j--;
+                    if (i <= j) {
+                        int t = order[i];
+                        order[i++] = order[j];
+                        order[j--] = t;
+                    }
+                }
+                // 先遞迴較小的一邊，避免最壞情況的遞迴深度
+                if (j - lo < hi - i) {
+                    sort(order, lo, j, less);
+                    lo = i;
+                } else {
+                    sort(order, i, hi, less);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                int v = order[i];
+                int j = i - 1;
+                while (j >= lo && less.less(v, order[j])) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = v;
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel ch, long at, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, at + buf.position()) < 0) {
+                throw new IOException("快照檔不完整");
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * 從 channel 的某個位置起依序讀 entry，固定大小的緩衝區重複使用（entry 比緩衝大時才放大）。
+     */
+    private static final class EntryReader {
+        private final FileChannel ch;
+        private long filePos;
+        private ByteBuffer buf = ByteBuffer.allocate(1 << 20).limit(0);
+
+        EntryReader(FileChannel ch, long at) {
+            this.ch = ch;
+            this.filePos = at;
+        }
+
+        ByteBuffer next() throws IOException {
+            fill(4);
+            int len = buf.getInt();
+            fill(len);
+            ByteBuffer entry = buf.slice(buf.position(), len);
+            buf.position(buf.position() + len);
+            return entry;
+        }
+
+        private void fill(int need) throws IOException {
+            if (buf.remaining() >= need) return;
+            if (buf.capacity() < need) {
+                buf = ByteBuffer.allocate(need).put(buf);
+            } else {
+                buf.compact();
+            }
+            while (buf.position() < need) {
+                int n = ch.read(buf, filePos);
+                if (n < 0) throw new IOException("快照檔不完整");
+                filePos += n;
+            }
+            buf.flip();
+        }
+    }
+}
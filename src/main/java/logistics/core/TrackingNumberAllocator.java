@@ -0,0 +1,211 @@
+package logistics.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 追蹤編號配發器。
+ *
+ * 格式固定為 "T" + 15 位數字：節點代碼(3) + 序號(11) + 檢查碼(1，Luhn)。
+ * - 每個節點（nodeId）有自己的編號空間，多個 core 不需協調即可各自配發
+ * - 每條執行緒一次租用一段序號（block），平常配發只動 ThreadLocal，不爭用共享計數器
+ * - 固定長度 + 檢查碼讓格式錯誤的編號可在 O(1) 內被拒絕，不必查 map
+ */
+public final class TrackingNumberAllocator {
+
+    public static final int MAX_NODE_ID = 999;
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    static final long SEQ_LIMIT = 100_000_000_000L;   // 11 位序號
+    private static final int DIGITS = 15;
+    private static final int LENGTH = DIGITS + 1;        // 含前綴 T
+
+    private final int nodeId;
+    private final int blockSize;
+    private final AtomicLong nextBlockStart = new AtomicLong(0);
+    private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[]{0, 0}); // [next, end)
+
+    public TrackingNumberAllocator(int nodeId) {
+        this(nodeId, DEFAULT_BLOCK_SIZE);
+    }
+
+    public TrackingNumberAllocator(int nodeId, int blockSize) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId 需介於 0~" + MAX_NODE_ID + "：" + nodeId);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize 需大於 0");
+        }
+        this.nodeId = nodeId;
+        this.blockSize = blockSize;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 配發下一個追蹤編號（從本執行緒租到的 block 取號，用完才去共享計數器租下一段）。
+     */
+    public String next() {
+        return format(nextId());
+    }
+
+    /**
+     * 同 {@link #next()}，但回傳數字形式（即 {@link #parse(String)} 的結果）。
+     */
+    public long nextId() {
+        long[] l = lease.get();
+        if (l[0] == l[1]) {
+            long start = leaseBlock(blockSize);
+            l[0] = start;
+            l[1] = start + blockSize;
+        }
+        return toId(nodeId, l[0]++);
+    }
+
+    /**
+     * 一次配發 count 個連續序號的追蹤編號（數字形式）：直接向共享計數器租一段剛好大小的 block，
+     * 不動本執行緒手上的租約。批次建立包裹用。
+     */
+    public long[] nextIds(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count 不可為負：" + count);
+        }
+        long[] ids = new long[count];
+        if (count == 0) return ids;
+        long start = leaseBlock(count);
+        for (int i = 0; i < count; i++) {
+            ids[i] = toId(nodeId, start + i);
+        }
+        return ids;
+    }
+
+    /**
+     * 回放日誌時呼叫：保證之後配發的序號都大於 id（其他節點的編號不影響本節點）。
+     */
+    void advancePast(long id) {
+        long payload = id / 10;
+        if (payload / SEQ_LIMIT != nodeId) return;
+        advanceTo(payload % SEQ_LIMIT + 1);
+    }
+
+    /**
+     * 下一段 block 的起始序號（已租出的序號都小於它）；快照保存此值。
+     */
+    long nextSequence() {
+        return nextBlockStart.get();
+    }
+
+    void advanceTo(long nextSeq) {
+        nextBlockStart.accumulateAndGet(nextSeq, Math::max);
+    }
+
+    private long leaseBlock(int size) {
+        long start = nextBlockStart.getAndAdd(size);
+        if (start + size > SEQ_LIMIT) {
+            throw new IllegalStateException("節點 " + nodeId + " 的追蹤編號已用盡");
+        }
+        return start;
+    }
+
+    /* ========= 格式 / 驗證 ========= */
+
+    static long toId(int nodeId, long seq) {
+        long payload = nodeId * SEQ_LIMIT + seq;
+        return payload * 10 + checkDigit(payload);
+    }
+
+    /**
+     * 數字形式轉回 "T" + 15 位數字的文字形式。
+     */
+    public static String format(long id) {
+        String digits = Long.toString(id);
+        StringBuilder sb = new StringBuilder(LENGTH).append('T');
+        for (int i = digits.length(); i < DIGITS; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    /**
+     * 格式檢查：長度固定、前綴 T、全為數字且檢查碼正確。長度固定所以是 O(1)。
+     */
+    public static boolean isWellFormed(String trackingNo) {
+        return scan(trackingNo) >= 0;
+    }
+
+    /**
+     * 驗證格式並轉成數字形式（包裹表的 key）；格式錯誤時丟 IllegalArgumentException。
+     */
+    public static long parse(String trackingNo) {
+        long id = scan(trackingNo);
+        if (id < 0) {
+            throw new IllegalArgumentException("追蹤編號格式錯誤：" + trackingNo);
+        }
+        return id;
+    }
+
+    /**
+     * 單趟掃過 15 位數字，同時累加數值與 Luhn 加總；格式錯誤回傳 -1。
+     * 長度固定，所以每一位是否加倍由位置直接決定（payload 最右位在 index 14，偶數 index 加倍）。
+     */
+    private static long scan(String trackingNo) {
+        if (trackingNo == null || trackingNo.length() != LENGTH || trackingNo.charAt(0) != 'T') {
+            return -1;
+        }
+        long id = 0;
+        int sum = 0;
+        for (int i = 1; i < LENGTH; i++) {
+            int d = trackingNo.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            id = id * 10 + d;
+            if (i == LENGTH - 1) break;
+            if ((i & 1) == 0) {
+                d *= 2;
+                if (d > 9) d -= 9;
+            }
+            sum += d;
+        }
+        return (10 - sum % 10) % 10 == id % 10 ? id : -1;
+    }
+
+    /**
+     * 數字形式的格式檢查（API 已先 parse 過的 key 也走這裡）。
+     */
+    public static boolean isValidId(long id) {
+        if (id < 0 || id >= SEQ_LIMIT * (MAX_NODE_ID + 1) * 10) return false;
+        return id % 10 == checkDigit(id / 10);
+    }
+
+    public static void requireValidId(long id) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("追蹤編號格式錯誤：" + id);
+        }
+    }
+
+    /**
+     * 取出編號所屬節點；編號格式錯誤時丟 IllegalArgumentException。
+     */
+    public static int nodeOf(String trackingNo) {
+        return (int) (parse(trackingNo) / 10 / SEQ_LIMIT);
+    }
+
+    /**
+     * Luhn 檢查碼（由右至左，最右一位先加倍）。
+     */
+    static int checkDigit(long payload) {
+        int sum = 0;
+        boolean dbl = true;
+        while (payload > 0) {
+            int d = (int) (payload % 10);
+            if (dbl) {
+                d *= 2;
+                if (d > 9) d -= 9;
+            }
+            sum += d;
+            dbl = !dbl;
+            payload /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,223 @@
+package logistics.geo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 離線距離服務：從本機的區域檔載入，計費時不必逐件呼叫外部地圖服務。
+ *
+ * 區域檔為 UTF-8 文字檔，每行一筆，欄位以逗號分隔，# 開頭為註解：
+ * <pre>
+ *   zone,代碼,緯度,經度,區內距離km,別名1|別名2|...   區域（別名用來比對地址）
+ *   distance,代碼A,代碼B,km                       兩區域間的實際距離，覆蓋由座標推算的值（雙向）
+ *   factor,1.3                                   座標推算時大圓距離乘上的道路係數（預設 1.0）
+ * </pre>
+ *
+ * 載入時就把所有區域兩兩之間的距離算好，存成 n×n 的 double 陣列（n 為區域數），查詢只是一次陣列存取。
+ * 地址對到區域的規則：正規化後（去頭尾空白、英文轉小寫）與別名完全相同者優先，否則取地址中出現的最長別名。
+ * 每個地址只比對一次，結果（含對不到）快取起來；快取滿了之後新地址照常比對但不再快取。
+ */
+public final class DistanceService {
+
+    /** 對不到區域 */
+    public static final int UNKNOWN_ZONE = -1;
+
+    private static final int MAX_CACHED_ADDRESSES = 1 << 20;
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final String[] codes;
+    private final double[] matrix;          // matrix[from * n + to]
+    private final String[] aliases;         // 依長度由長到短
+    private final int[] aliasZone;
+    private final Map<String, Integer> exact = new HashMap<>();
+    private final Map<String, Integer> resolved = new ConcurrentHashMap<>();
+
+    private DistanceService(List<String> codes, List<double[]> coords, Map<Long, Double> overrides,
+                            double factor, List<String> aliasList, List<Integer> aliasZoneList) {
+        int n = codes.size();
+        this.codes = codes.toArray(new String[0]);
+        this.matrix = new double[n * n];
+        for (int a = 0; a < n; a++) {
+            double[] ca = coords.get(a);
+            for (int b = 0; b < n; b++) {
+                double km = a == b ? ca[2] : greatCircleKm(ca[0], ca[1], coords.get(b)[0], coords.get(b)[1]) * factor;
+                matrix[a * n + b] = km;
+            }
+        }
+        overrides.forEach((pair, km) -> {
+            int a = (int) (pair >>> 32), b = (int) (long) pair;
+            matrix[a * n + b] = km;
+            matrix[b * n + a] = km;
+        });
+
+        Integer[] order = new Integer[aliasList.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (x, y) -> aliasList.get(y).length() - aliasList.get(x).length());
+        this.aliases = new String[order.length];
+        this.aliasZone = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            aliases[i] = aliasList.get(order[i]);
+            aliasZone[i] = aliasZoneList.get(order[i]);
+            exact.putIfAbsent(aliases[i], aliasZone[i]);
+        }
+    }
+
+    /**
+     * 讀取區域檔。
+     *
+     * @throws UncheckedIOException  檔案讀取失敗
+     * @throws IllegalArgumentException 格式錯誤（訊息含行號）
+     */
+    public static DistanceService load(Path zonesFile) {
+        List<String> codes = new ArrayList<>();
+        List<double[]> coords = new ArrayList<>();
+        Map<String, Integer> index = new HashMap<>();
+        List<String[]> distanceLines = new ArrayList<>();
+        List<Integer> distanceLineNos = new ArrayList<>();
+        List<String> aliasList = new ArrayList<>();
+        List<Integer> aliasZone = new ArrayList<>();
+        double factor = 1.0;
+
+        try (BufferedReader in = Files.newBufferedReader(zonesFile, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split(",", -1);
+                try {
+                    switch (f[0].trim()) {
+                        case "zone": {
+                            String code = f[1].trim();
+                            if (code.isEmpty() || index.containsKey(code)) {
+                                throw new IllegalArgumentException("區域代碼空白或重複：" + code);
+                            }
+                            index.put(code, codes.size());
+                            codes.add(code);
+                            coords.add(new double[]{Double.parseDouble(f[2].trim()), Double.parseDouble(f[3].trim()),
+                                    Double.parseDouble(f[4].trim())});
+                            aliasList.add(normalize(code));
+                            aliasZone.add(codes.size() - 1);
+                            if (f.length > 5) {
+                                for (String alias : f[5].split("\\|")) {
+                                    String a = normalize(alias);
+                                    if (a.isEmpty()) continue;
+                                    aliasList.add(a);
+                                    aliasZone.add(codes.size() - 1);
+                                }
+                            }
+                            break;
+                        }
+                        case "distance":
+                            distanceLines.add(f);   // 區域可能定義在後面，讀完再處理
+                            distanceLineNos.add(lineNo);
+                            break;
+                        case "factor":
+                            factor = Double.parseDouble(f[1].trim());
+                            break;
+                        default:
+                            throw new IllegalArgumentException("未知的紀錄類型：" + f[0]);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    throw new IllegalArgumentException(zonesFile + " 第 " + lineNo + " 行格式錯誤：" + line, e);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(zonesFile + " 第 " + lineNo + " 行：" + e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("區域檔讀取失敗：" + zonesFile, e);
+        }
+
+        Map<Long, Double> overrides = new HashMap<>();
+        for (int i = 0; i < distanceLines.size(); i++) {
+            String[] f = distanceLines.get(i);
+            Integer a = f.length > 3 ? index.get(f[1].trim()) : null;
+            Integer b = f.length > 3 ? index.get(f[2].trim()) : null;
+            if (a == null || b == null) {
+                throw new IllegalArgumentException(zonesFile + " 第 " + distanceLineNos.get(i) + " 行：找不到區域");
+            }
+            try {
+                overrides.put(((long) a << 32) | b, Double.parseDouble(f[3].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(zonesFile + " 第 " + distanceLineNos.get(i) + " 行格式錯誤", e);
+            }
+        }
+        if ((long) codes.size() * codes.size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(zonesFile + "：區域數 " + codes.size() + " 過多，距離矩陣放不下");
+        }
+        return new DistanceService(codes, coords, overrides, factor, aliasList, aliasZone);
+    }
+
+    public int zoneCount() {
+        return codes.length;
+    }
+
+    public String zoneCode(int zone) {
+        return codes[zone];
+    }
+
+    /**
+     * 地址所在區域；對不到回傳 {@link #UNKNOWN_ZONE}。
+     */
+    public int zoneOf(String address) {
+        if (address == null) return UNKNOWN_ZONE;
+        Integer z = resolved.get(address);
+        if (z != null) return z;
+        int zone = match(normalize(address));
+        if (resolved.size() < MAX_CACHED_ADDRESSES) resolved.putIfAbsent(address, zone);
+        return zone;
+    }
+
+    /**
+     * 兩區域間的距離（公里）；任一區域編號不在範圍內（例如 {@link #UNKNOWN_ZONE}）時回傳 NaN。
+     */
+    public double distanceKm(int fromZone, int toZone) {
+        int n = codes.length;
+        if (fromZone < 0 || fromZone >= n || toZone < 0 || toZone >= n) return Double.NaN;
+        return matrix[fromZone * n + toZone];
+    }
+
+    /**
+     * 兩地址間的距離（公里）；任一地址對不到區域時回傳 NaN。
+     */
+    public double distanceKm(String origin, String destination) {
+        int a = zoneOf(origin);
+        if (a == UNKNOWN_ZONE) return Double.NaN;
+        int b = zoneOf(destination);
+        if (b == UNKNOWN_ZONE) return Double.NaN;
+        return matrix[a * codes.length + b];
+    }
+
+    private int match(String address) {
+        Integer z = exact.get(address);
+        if (z != null) return z;
+        for (int i = 0; i < aliases.length; i++) {   // 由長到短，第一個出現的就是最長的
+            if (address.contains(aliases[i])) return aliasZone[i];
+        }
+        return UNKNOWN_ZONE;
+    }
+
+    private static String normalize(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static double greatCircleKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(h)));
+    }
+}
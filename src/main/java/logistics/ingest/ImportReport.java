@@ -0,0 +1,58 @@
+package logistics.ingest;
+
+import java.util.List;
+
+/**
+ * 匯入進度/結果：進度回呼與最後的回傳都用這個類別（進度回呼的 errors 為空）。
+ */
+public final class ImportReport {
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long lines;       // 已讀的非空白資料列（不含 CSV 標題列）
+    private final long accepted;    // 已套用到 core 的事件
+    private final long rejected;    // 解析失敗 + core 拒絕
+    private final List<String> errors;
+
+    ImportReport(long bytesRead, long totalBytes, long lines, long accepted, long rejected,
+                 List<String> errors) {
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        this.lines = lines;
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.errors = errors;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * 前幾筆失敗的說明（「第 n 行：原因」），最多 {@link TrackingEventImporter#MAX_ERRORS} 筆。
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{bytes=" + bytesRead + "/" + totalBytes + ", lines=" + lines
+                + ", accepted=" + accepted + ", rejected=" + rejected + "}";
+    }
+}
@@ -0,0 +1,468 @@
+package logistics.ingest;
+
+import logistics.core.LogisticsCore;
+import logistics.enums.ExceptionType;
+import logistics.enums.TrackingEventType;
+import logistics.model.BatchResult;
+import logistics.model.EventSpec;
+import logistics.model.User;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 合作物流商追蹤事件檔（CSV / JSONL）的串流匯入。
+ *
+ * 記憶體用量固定：檔案經 FileChannel 以固定大小的緩衝區讀入，逐行解析成 {@link EventSpec}，
+ * 湊滿一批後放進有界佇列，由單一套用執行緒呼叫 {@link LogisticsCore#addTrackingEvents}；
+ * 佇列滿了讀檔端就等待（背壓），所以同時在記憶體中的事件最多 (maxPendingBatches + 2) 批。
+ * 只有一條套用執行緒，同一包裹的事件依檔案順序套用。
+ *
+ * 欄位（CSV 依此順序，JSONL 以同名 key）：
+ * trackingNumber, type, location, truckId, warehouseId, description, exceptionType。
+ * CSV 可有標題列（第一欄為 trackingNumber），欄位可用雙引號包起來（"" 表示引號），空欄為 null；
+ * 尾端的選填欄位可省略。JSONL 每行一個平面物件，值為字串或 null，未知的 key 忽略。
+ *
+ * 格式錯誤、列舉值不存在、超過長度上限的行與 core 拒絕的事件都計入 rejected，不中止匯入。
+ */
+public final class TrackingEventImporter {
+
+    public enum Format {
+        CSV, JSONL;
+
+        /**
+         * 依副檔名判斷（.csv / .jsonl / .ndjson）。
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".csv")) return CSV;
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) return JSONL;
+            throw new IllegalArgumentException("無法由副檔名判斷匯入格式：" + file);
+        }
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_PENDING_BATCHES = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+    public static final int MAX_ERRORS = 100;
+
+    private static final String[] FIELDS = {
+            "trackingNumber", "type", "location", "truckId", "warehouseId", "description", "exceptionType"};
+
+    private final LogisticsCore core;
+    private final User operator;
+    private final int batchSize;
+    private final int maxPendingBatches;
+    private final int bufferSize;
+
+    public TrackingEventImporter(LogisticsCore core, User operator) {
+        this(core, operator, DEFAULT_BATCH_SIZE, DEFAULT_MAX_PENDING_BATCHES, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param batchSize         每次呼叫 addTrackingEvents 的事件數
+     * @param maxPendingBatches 解析完成、等待套用的批次上限（背壓）
+     * @param bufferSize        讀檔緩衝區大小（bytes）
+     */
+    public TrackingEventImporter(LogisticsCore core, User operator,
+                                 int batchSize, int maxPendingBatches, int bufferSize) {
+        if (batchSize <= 0 || maxPendingBatches <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("batchSize / maxPendingBatches / bufferSize 需大於 0");
+        }
+        this.core = core;
+        this.operator = operator;
+        this.batchSize = batchSize;
+        this.maxPendingBatches = maxPendingBatches;
+        this.bufferSize = bufferSize;
+    }
+
+    public ImportReport importFile(Path file) throws IOException {
+        return importFile(file, Format.of(file), null);
+    }
+
+    /**
+     * 匯入整個檔案，完成（或套用端失敗）後才回傳。
+     *
+     * @param progress 每套用完一批呼叫一次（在套用執行緒上），可為 null
+     */
+    public ImportReport importFile(Path file, Format format, Consumer<ImportReport> progress) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Run run = new Run(ch.size(), progress);
+            Thread applier = new Thread(run::applyLoop, "event-import");
+            applier.setDaemon(true);
+            applier.start();
+            try {
+                read(ch, format, run);
+            } finally {
+                run.finish();
+                joinUninterruptibly(applier);
+            }
+            if (run.failure != null) {
+                throw run.failure;
+            }
+            synchronized (run.errors) {
+                return run.report(run.bytesRead, new ArrayList<>(run.errors));
+            }
+        }
+    }
+
+    /* ========= 讀檔 / 切行 ========= */
+
+    private void read(FileChannel ch, Format format, Run run) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+        byte[] line = new byte[256];
+        int len = 0;
+        boolean overlong = false;
+        long lineNo = 0;
+        long pos = 0;
+        boolean first = true;
+        int n;
+        while ((n = ch.read(buf)) >= 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (b != '\n') {
+                    if (len == MAX_LINE_BYTES) {
+                        overlong = true;
+                    } else if (!overlong) {
+                        if (len == line.length) line = Arrays.copyOf(line, Math.min(len * 2, MAX_LINE_BYTES));
+                        line[len++] = b;
+                    }
+                    continue;
+                }
+                lineNo++;
+                handleLine(line, len, overlong, lineNo, first, format, run);
+                first = false;
+                len = 0;
+                overlong = false;
+            }
+            buf.clear();
+            pos += n;
+            run.bytesRead = pos;
+            if (run.failure != null) return;
+        }
+        if (len > 0 || overlong) {
+            handleLine(line, len, overlong, lineNo + 1, first, format, run);
+        }
+        run.flush();
+    }
+
+    private void handleLine(byte[] line, int len, boolean overlong, long lineNo, boolean first,
+                            Format format, Run run) {
+        int start = 0;
+        if (first && len >= 3 && (line[0] & 0xFF) == 0xEF && (line[1] & 0xFF) == 0xBB && (line[2] & 0xFF) == 0xBF) {
+            start = 3;   // UTF-8 BOM
+        }
+        if (len > start && line[len - 1] == '\r') len--;
+        if (overlong) {
+            run.parsed++;
+            run.reject(lineNo, "超過單行長度上限 " + MAX_LINE_BYTES + " bytes");
+            return;
+        }
+        String text = new String(line, start, len - start, StandardCharsets.UTF_8);
+        if (text.isBlank()) return;
+        EventSpec spec;
+        try {
+            String[] f = format == Format.CSV ? parseCsv(text) : parseJson(text);
+            if (format == Format.CSV && first && FIELDS[0].equalsIgnoreCase(f[0])) {
+                return;   // 標題列
+            }
+            spec = toSpec(f);
+        } catch (IllegalArgumentException e) {
+            run.parsed++;
+            run.reject(lineNo, e.getMessage());
+            return;
+        }
+        run.parsed++;
+        run.add(lineNo, spec);
+    }
+
+    /* ========= 解析 ========= */
+
+    private static EventSpec toSpec(String[] f) {
+        if (f[0] == null) {
+            throw new IllegalArgumentException("缺少 trackingNumber");
+        }
+        if (f[1] == null) {
+            throw new IllegalArgumentException("缺少 type");
+        }
+        return new EventSpec(f[0], parseEnum(TrackingEventType.class, f[1]), f[2], f[3], f[4], f[5],
+                f[6] == null ? null : parseEnum(ExceptionType.class, f[6]));
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String v) {
+        try {
+            return Enum.valueOf(type, v.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知的 " + type.getSimpleName() + "：" + v);
+        }
+    }
+
+    /**
+     * 一行 CSV 切成 FIELDS 順序的欄位；空欄與省略的尾端欄位為 null。
+     */
+    static String[] parseCsv(String line) {
+        String[] out = new String[FIELDS.length];
+        StringBuilder sb = new StringBuilder();
+        int col = 0;
+        int i = 0;
+        int n = line.length();
+        while (true) {
+            sb.setLength(0);
+            boolean quoted = false;
+            if (i < n && line.charAt(i) == '"') {
+                quoted = true;
+                i++;
+                while (true) {
+                    if (i >= n) throw new IllegalArgumentException("引號未結束");
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < n && line.charAt(i) == '"') {
+                            sb.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                if (i < n && line.charAt(i) != ',') throw new IllegalArgumentException("引號後應為逗號");
+            } else {
+                while (i < n && line.charAt(i) != ',') sb.append(line.charAt(i++));
+            }
+            if (col == FIELDS.length) throw new IllegalArgumentException("欄位過多（最多 " + FIELDS.length + " 欄）");
+            String v = quoted ? sb.toString() : sb.toString().trim();
+            out[col++] = v.isEmpty() ? null : v;
+            if (i >= n) break;
+            i++;   // 跳過逗號
+        }
+        return out;
+    }
+
+    /**
+     * 一行平面 JSON 物件依 FIELDS 取值；值只接受字串或 null。
+     */
+    static String[] parseJson(String line) {
+        String[] out = new String[FIELDS.length];
+        JsonCursor c = new JsonCursor(line);
+        c.expect('{');
+        if (!c.consume('}')) {
+            do {
+                String key = c.string();
+                c.expect(':');
+                String value = c.consumeLiteral("null") ? null : c.string();
+                int k = Arrays.asList(FIELDS).indexOf(key);
+                if (k >= 0) out[k] = value;
+            } while (c.consume(','));
+            c.expect('}');
+        }
+        c.end();
+        return out;
+    }
+
+    private static final class JsonCursor {
+        private final String s;
+        private int i;
+
+        JsonCursor(String s) {
+            this.s = s;
+        }
+
+        private void skipSpace() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        }
+
+        boolean consume(char c) {
+            skipSpace();
+            if (i < s.length() && s.charAt(i) == c) {
+                i++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) throw new IllegalArgumentException("JSON 格式錯誤：第 " + (i + 1) + " 字元應為 " + c);
+        }
+
+        boolean consumeLiteral(String lit) {
+            skipSpace();
+            if (s.startsWith(lit, i)) {
+                i += lit.length();
+                return true;
+            }
+            return false;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (i >= s.length()) throw new IllegalArgumentException("JSON 字串未結束");
+                char c = s.charAt(i++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (i >= s.length()) throw new IllegalArgumentException("JSON 字串未結束");
+                char e = s.charAt(i++);
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append(e); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (i + 4 > s.length()) throw new IllegalArgumentException("JSON \\u 跳脫不完整");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("JSON \\u 跳脫格式錯誤");
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("JSON 不支援的跳脫字元：\\" + e);
+                }
+            }
+        }
+
+        void end() {
+            skipSpace();
+            if (i != s.length()) throw new IllegalArgumentException("JSON 物件後有多餘內容");
+        }
+    }
+
+    /* ========= 批次 / 背壓 ========= */
+
+    private static final class Batch {
+        final List<EventSpec> specs;
+        final long[] lineNos;
+
+        Batch(int capacity) {
+            this.specs = new ArrayList<>(capacity);
+            this.lineNos = new long[capacity];
+        }
+    }
+
+    private static final Batch END = new Batch(0);
+
+    /**
+     * 一次匯入的狀態：讀檔端（呼叫端執行緒）組批、套用執行緒消化；兩者只經由有界佇列與計數器溝通。
+     */
+    private final class Run {
+        final long totalBytes;
+        final Consumer<ImportReport> progress;
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(maxPendingBatches);
+        final AtomicLong accepted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        volatile long bytesRead;
+        volatile long lines;
+        volatile RuntimeException failure;
+        long parsed;   // 讀檔端專用
+        Batch current;
+
+        Run(long totalBytes, Consumer<ImportReport> progress) {
+            this.totalBytes = totalBytes;
+            this.progress = progress;
+        }
+
+        void add(long lineNo, EventSpec spec) {
+            if (current == null) current = new Batch(batchSize);
+            current.lineNos[current.specs.size()] = lineNo;
+            current.specs.add(spec);
+            if (current.specs.size() == batchSize) flush();
+        }
+
+        void reject(long lineNo, String reason) {
+            rejected.incrementAndGet();
+            synchronized (errors) {
+                if (errors.size() < MAX_ERRORS) errors.add("第 " + lineNo + " 行：" + reason);
+            }
+        }
+
+        void flush() {
+            lines = parsed;
+            if (current != null) {
+                put(current);
+                current = null;
+            }
+        }
+
+        /**
+         * 佇列滿時等待；套用端已失敗就丟棄，讓讀檔端盡快結束。
+         */
+        private void put(Batch b) {
+            try {
+                while (failure == null) {
+                    if (queue.offer(b, 100, TimeUnit.MILLISECONDS)) return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new IllegalStateException("匯入被中斷", e);
+            }
+        }
+
+        void finish() {
+            lines = parsed;
+            put(END);
+        }
+
+        void applyLoop() {
+            try {
+                while (true) {
+                    Batch b = queue.take();
+                    if (b == END) return;
+                    BatchResult r = core.addTrackingEvents(operator, b.specs);
+                    accepted.addAndGet(r.getAccepted());
+                    for (Map.Entry<Integer, RuntimeException> e : r.getFailures().entrySet()) {
+                        reject(b.lineNos[e.getKey()], e.getValue().getMessage());
+                    }
+                    if (progress != null) {
+                        progress.accept(report(bytesRead, List.of()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = new IllegalStateException("匯入被中斷", e);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        ImportReport report(long bytes, List<String> errs) {
+            return new ImportReport(bytes, totalBytes, lines, accepted.get(), rejected.get(), errs);
+        }
+    }
+
+    private static void joinUninterruptibly(Thread t) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                t.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
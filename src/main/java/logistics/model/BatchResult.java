@@ -0,0 +1,53 @@
+package logistics.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 批次操作的結果：逐筆處理，失敗的項目記下原因，不影響同批其他項目。
+ */
+public class BatchResult {
+    private final int total;
+    private final SortedMap<Integer, RuntimeException> failures = new TreeMap<>();
+
+    public BatchResult(int total) {
+        this.total = total;
+    }
+
+    /**
+     * 記錄第 index 筆（輸入順序，從 0 起）的失敗原因；同一筆只保留第一個原因。
+     */
+    public void fail(int index, RuntimeException reason) {
+        failures.putIfAbsent(index, reason);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getAccepted() {
+        return total - failures.size();
+    }
+
+    public int getRejected() {
+        return failures.size();
+    }
+
+    /**
+     * key = 輸入順序，value = 失敗原因（SecurityException / IllegalArgumentException 等）。
+     */
+    public Map<Integer, RuntimeException> getFailures() {
+        return Collections.unmodifiableSortedMap(failures);
+    }
+
+    public boolean isAllAccepted() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{accepted=" + getAccepted() + ", rejected=" + failures.size() + "}";
+    }
+}
@@ -2,24 +2,72 @@ package logistics.model;
 
 import logistics.enums.PaymentMethod;
 
+import java.util.function.Supplier;
+
 public class BillingItem {
-    private Parcel parcel;
-    private double amount;
+    private volatile Parcel parcel;
+    private final String trackingNumber;
+    private final Supplier<Parcel> parcelLoader;   // 由快照載入時，第一次 getParcel 才取回包裹
+    private final long amountCents;                // 以分為單位
     private PaymentMethod paymentMethod;
 
+    /**
+     * @param amount 運費（元），四捨五入到分
+     */
     public BillingItem(Parcel parcel, double amount, PaymentMethod paymentMethod) {
+        this(parcel, Money.toCents(amount), paymentMethod);
+    }
+
+    public BillingItem(Parcel parcel, Money amount, PaymentMethod paymentMethod) {
+        this(parcel, amount.cents(), paymentMethod);
+    }
+
+    private BillingItem(Parcel parcel, long amountCents, PaymentMethod paymentMethod) {
         this.parcel = parcel;
-        this.amount = amount;
+        this.trackingNumber = parcel.trackingNumber;
+        this.parcelLoader = null;
+        this.amountCents = amountCents;
+        this.paymentMethod = paymentMethod;
+    }
+
+    /**
+     * 延後取得包裹：只知道追蹤編號，包裹在第一次 getParcel 時才由 parcelLoader 取回。
+     */
+    public BillingItem(String trackingNumber, Supplier<Parcel> parcelLoader,
+                       double amount, PaymentMethod paymentMethod) {
+        this.trackingNumber = trackingNumber;
+        this.parcelLoader = parcelLoader;
+        this.amountCents = Money.toCents(amount);
         this.paymentMethod = paymentMethod;
     }
 
     // ===== Getter 給 core / demo 用 =====
     public Parcel getParcel() {
-        return parcel;
+        Parcel p = parcel;
+        if (p == null) {
+            p = parcelLoader.get();
+            parcel = p;
+        }
+        return p;
+    }
+
+    /**
+     * 不必取回包裹即可得到追蹤編號。
+     */
+    public String getTrackingNumber() {
+        return trackingNumber;
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toAmount(amountCents);
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public Money getMoney() {
+        return Money.ofCents(amountCents);
     }
 
     public PaymentMethod getPaymentMethod() {
@@ -0,0 +1,37 @@
+package logistics.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 帳單歷史的一頁：由新到舊排列；還有下一頁時 nextCursor 為這頁最後一張帳單的編號，原樣傳回即可取下一頁。
+ */
+public class BillingPage {
+    private final List<BillingRecord> records;
+    private final String nextCursor;
+
+    public BillingPage(List<BillingRecord> records, String nextCursor) {
+        this.records = Collections.unmodifiableList(records);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<BillingRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * 下一頁的游標；已是最後一頁時為 null。
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "BillingPage{records=" + records.size() + ", nextCursor=" + nextCursor + "}";
+    }
+}
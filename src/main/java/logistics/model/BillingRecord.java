@@ -11,6 +11,7 @@ public class BillingRecord {
     private LocalDate periodStart;
     private LocalDate periodEnd;
     private List<BillingItem> items = new ArrayList<>();
+    private long totalCents;   // 明細金額合計（分），addItem 時累加
 
     public BillingRecord(String id, Customer customer, LocalDate periodStart, LocalDate periodEnd) {
         this.id = id;
@@ -40,15 +41,25 @@ public class BillingRecord {
         return Collections.unmodifiableList(items);
     }
 
+    /**
+     * @throws ArithmeticException 合計超出 long 可表示的範圍
+     */
     public void addItem(BillingItem item) {
+        long total = Math.addExact(totalCents, item.getAmountCents());
         items.add(item);
+        totalCents = total;
     }
 
-    // 這裡改成用 item.getAmount()
     public double getTotalAmount() {
-        return items.stream()
-                .mapToDouble(i -> i.getAmount())
-                .sum();
+        return Money.toAmount(totalCents);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public Money getTotal() {
+        return Money.ofCents(totalCents);
     }
 
     @Override
@@ -57,7 +68,7 @@ public class BillingRecord {
                 "id='" + id + '\'' +
                 ", customer=" + customer.name +
                 ", period=" + periodStart + " ~ " + periodEnd +
-                ", total=" + getTotalAmount() +
+                ", total=" + Money.format(totalCents) +
                 ", shipments=" + items.size() +
                 '}';
     }
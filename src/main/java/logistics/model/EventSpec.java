@@ -0,0 +1,29 @@
+package logistics.model;
+
+import logistics.enums.ExceptionType;
+import logistics.enums.TrackingEventType;
+
+/**
+ * 批次新增追蹤事件時的一筆輸入（欄位同 addTrackingEvent 的參數）；時間由 core 填入。
+ */
+public class EventSpec {
+    public final String trackingNumber;
+    public final TrackingEventType type;
+    public final String location;
+    public final String truckId;
+    public final String warehouseId;
+    public final String description;
+    public final ExceptionType exceptionType;   // 若為 EXCEPTION 事件可填
+
+    public EventSpec(String trackingNumber, TrackingEventType type,
+                     String location, String truckId, String warehouseId,
+                     String description, ExceptionType exceptionType) {
+        this.trackingNumber = trackingNumber;
+        this.type = type;
+        this.location = location;
+        this.truckId = truckId;
+        this.warehouseId = warehouseId;
+        this.description = description;
+        this.exceptionType = exceptionType;
+    }
+}
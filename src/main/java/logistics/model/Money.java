@@ -0,0 +1,100 @@
+package logistics.model;
+
+/**
+ * 金額（新台幣元），內部以「分」為單位的 long 儲存，加總不會有浮點誤差。
+ *
+ * 計價公式（{@link Tariff}）仍以 double 計算；算出的運費在成為帳單明細或月累計時才四捨五入到分，
+ * 之後的加減一律以整數進行，溢位時丟出 ArithmeticException 而不是默默繞回。
+ * 熱路徑可直接用 {@link #toCents} / {@link #toAmount} 這兩個靜態方法，不必建立物件。
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * 由元換算，四捨五入到分。
+     */
+    public static Money of(double amount) {
+        return ofCents(toCents(amount));
+    }
+
+    /**
+     * 元換算成分，四捨五入（0.5 分進位）。
+     *
+     * @throws IllegalArgumentException 金額不是有限值或超出 long 可表示的範圍
+     */
+    public static long toCents(double amount) {
+        double scaled = amount * 100.0;
+        if (!(Math.abs(scaled) < 0x1p63)) {
+            throw new IllegalArgumentException("金額無法換算成分：" + amount);
+        }
+        return Math.round(scaled);
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * 以「元.角分」格式輸出，例如 -12.05。
+     */
+    public static String format(long cents) {
+        long whole = Math.abs(cents / 100);       // 先除再取絕對值，Long.MIN_VALUE 也不會溢位
+        long frac = Math.abs(cents % 100);
+        return (cents < 0 ? "-" : "") + whole + (frac < 10 ? ".0" : ".") + frac;
+    }
+
+    public long cents() {
+        return cents;
+    }
+
+    public double toDouble() {
+        return toAmount(cents);
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public Money times(long n) {
+        return ofCents(Math.multiplyExact(cents, n));
+    }
+
+    public boolean isZero() {
+        return cents == 0;
+    }
+
+    @Override
+    public int compareTo(Money o) {
+        return Long.compare(cents, o.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    @Override
+    public String toString() {
+        return format(cents);
+    }
+}
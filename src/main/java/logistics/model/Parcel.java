@@ -1,8 +1,10 @@
 package logistics.model;
 
-import java.util.ArrayList;
+import logistics.store.TrackingEventLog;
+
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Parcel {
     public String trackingNumber; // 唯一追蹤編號
@@ -19,9 +21,20 @@ public class Parcel {
     public boolean dangerousGoods; // 危險物品
     public boolean fragile;        // 易碎品
     public boolean international;  // 國際貨件
+    public String destination;     // 收件地址（可為 null；計費時用來查距離）
+
+    public int columnRow = -1;     // 在 ParcelColumns 的列號（-1 表示未登錄）
 
-    //改成 private，加方法來操作
-    private List<TrackingEvent> events = new ArrayList<>();
+    public volatile double finalDistanceKm = Double.NaN;  // 最終計費距離（NaN 表示尚未確定，計費用暫定距離）
+    public volatile double provisionalDistanceKm = Double.NaN;  // 暫定計費距離（建立時依距離服務決定，由 core 維護）
+    public long accruedCents;      // 目前計入客戶月累計的運費（分；由 core 在該包裹的鎖內維護）
+
+    // 事件存放：接上 TrackingEventLog 時只保留最後一筆的位置，事件在讀取時才解碼；
+    // 未接上（例如直接 new Parcel）時留在 heap，copy-on-write 讓查詢不必與附加事件互鎖
+    private TrackingEventLog eventLog;
+    private volatile long lastEventRef = TrackingEventLog.NO_EVENT;
+    private volatile List<TrackingEvent> events;
+    private volatile int eventCount;
 
     public Parcel(String trackingNumber, Customer sender, ServiceType serviceType,
                   double weightKg, double lengthCm, double widthCm, double heightCm,
@@ -45,23 +58,54 @@ public class Parcel {
         return (lengthCm / 100.0) * (widthCm / 100.0) * (heightCm / 100.0);
     }
 
+    /**
+     * 指定事件日誌；須在加入第一筆事件前呼叫。
+     */
+    public void attachEventLog(TrackingEventLog log) {
+        if (hasEvents()) {
+            throw new IllegalStateException("已有事件的包裹不可再指定事件日誌");
+        }
+        this.eventLog = log;
+    }
+
     public TrackingEvent getCurrentStatus() {
-        if (events.isEmpty()) return null;
+        if (eventLog != null) {
+            long ref = lastEventRef;
+            return ref == TrackingEventLog.NO_EVENT ? null : eventLog.read(ref);
+        }
+        if (events == null || events.isEmpty()) return null;
         return events.get(events.size() - 1);
     }
 
     //只讀用這個
     public List<TrackingEvent> getEvents() {
-        return Collections.unmodifiableList(events);
+        if (eventLog != null) {
+            return eventLog.history(lastEventRef);
+        }
+        return events == null ? Collections.emptyList() : Collections.unmodifiableList(events);
     }
 
-    //加一個方法讓外部可以新增事件
+    //加一個方法讓外部可以新增事件（同一包裹的附加須由呼叫端序列化）
     public void addEvent(TrackingEvent event) {
-        events.add(event);
+        if (eventLog != null) {
+            lastEventRef = eventLog.append(lastEventRef, event);
+        } else {
+            if (events == null) events = new CopyOnWriteArrayList<>();
+            events.add(event);
+        }
+        eventCount++;
+    }
+
+    /**
+     * 已加入的事件數（不必走訪 offset 鏈）。
+     */
+    public int getEventCount() {
+        return eventCount;
     }
 
     public boolean hasEvents() {
-        return !events.isEmpty();
+        if (eventLog != null) return lastEventRef != TrackingEventLog.NO_EVENT;
+        return events != null && !events.isEmpty();
     }
 
     @Override
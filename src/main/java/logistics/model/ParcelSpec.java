@@ -0,0 +1,48 @@
+package logistics.model;
+
+/**
+ * 批次建立包裹時的一筆輸入（欄位同 createParcel 的參數）；追蹤編號與事件由 core 產生。
+ */
+public class ParcelSpec {
+    public final Customer sender;       // 寄件客戶（帳戶）
+    public final ServiceType serviceType;
+
+    public final double weightKg;   // 重量
+    public final double lengthCm;   // 尺寸
+    public final double widthCm;
+    public final double heightCm;
+    public final double declaredValue; // 申報價值
+    public final String description;   // 內容物描述
+
+    public final boolean dangerous;     // 危險物品
+    public final boolean fragile;       // 易碎品
+    public final boolean international; // 國際貨件
+
+    public final String destination;    // 收件地址（可為 null）
+
+    public ParcelSpec(Customer sender, ServiceType serviceType,
+                      double weightKg, double lengthCm, double widthCm, double heightCm,
+                      double declaredValue, String description,
+                      boolean dangerous, boolean fragile, boolean international) {
+        this(sender, serviceType, weightKg, lengthCm, widthCm, heightCm, declaredValue, description,
+                dangerous, fragile, international, null);
+    }
+
+    public ParcelSpec(Customer sender, ServiceType serviceType,
+                      double weightKg, double lengthCm, double widthCm, double heightCm,
+                      double declaredValue, String description,
+                      boolean dangerous, boolean fragile, boolean international, String destination) {
+        this.sender = sender;
+        this.serviceType = serviceType;
+        this.weightKg = weightKg;
+        this.lengthCm = lengthCm;
+        this.widthCm = widthCm;
+        this.heightCm = heightCm;
+        this.declaredValue = declaredValue;
+        this.description = description;
+        this.dangerous = dangerous;
+        this.fragile = fragile;
+        this.international = international;
+        this.destination = destination;
+    }
+}
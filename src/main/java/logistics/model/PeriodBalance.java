@@ -0,0 +1,78 @@
+package logistics.model;
+
+import logistics.enums.PaymentMethod;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 某客戶某月份目前累計的運費（月中的「目前餘額」）。
+ *
+ * 包裹建立時以暫定距離計入，之後確定最終距離時再修正差額；所以月結前查到的是當下的估計值。
+ */
+public class PeriodBalance {
+    private final long customerId;
+    private final YearMonth period;
+    private final long parcelCount;
+    private final long totalCents;
+    private final Map<PaymentMethod, Double> amountByPaymentMethod;
+
+    /**
+     * @param totalCents 總額（分）
+     * @param amountByPaymentMethod 依付款方式的金額（元）
+     */
+    public PeriodBalance(long customerId, YearMonth period, long parcelCount, long totalCents,
+                         Map<PaymentMethod, Double> amountByPaymentMethod) {
+        this.customerId = customerId;
+        this.period = period;
+        this.parcelCount = parcelCount;
+        this.totalCents = totalCents;
+        Map<PaymentMethod, Double> copy = new EnumMap<>(PaymentMethod.class);
+        copy.putAll(amountByPaymentMethod);
+        this.amountByPaymentMethod = Collections.unmodifiableMap(copy);
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public YearMonth getPeriod() {
+        return period;
+    }
+
+    public long getParcelCount() {
+        return parcelCount;
+    }
+
+    public double getTotalAmount() {
+        return Money.toAmount(totalCents);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public Money getTotal() {
+        return Money.ofCents(totalCents);
+    }
+
+    /**
+     * 依付款方式的金額；只含有金額的付款方式。
+     */
+    public Map<PaymentMethod, Double> getAmountByPaymentMethod() {
+        return amountByPaymentMethod;
+    }
+
+    @Override
+    public String toString() {
+        return "PeriodBalance{" +
+                "customerId=" + customerId +
+                ", period=" + period +
+                ", parcels=" + parcelCount +
+                ", total=" + Money.format(totalCents) +
+                ", byPaymentMethod=" + amountByPaymentMethod +
+                '}';
+    }
+}
@@ -3,6 +3,8 @@ package logistics.model;
 import logistics.enums.DeliverySpeed;
 import logistics.enums.PackageType;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 public class ServiceType {
     private long id;
     private String name;
@@ -11,16 +13,9 @@ public class ServiceType {
     private double maxWeightKg;
     private DeliverySpeed speed;
 
-    // 定價規則
-    private double basePrice;
-    private double pricePerKm;
-    private double pricePerKg;
-    private double pricePerCubicMeter;
-
-    // 特殊處理加價
-    private double dangerousSurcharge;
-    private double fragileSurcharge;
-    private double oversizeSurcharge;
+    // 定價規則與特殊處理加價，編譯成費率表；調價時整份換掉，讀取端不會看到新舊混在一起的價格。
+    // 換費率表的是持有這個 reference 的人（LogisticsCore），ServiceType 本身只讀
+    private final AtomicReference<Tariff> pricing;
 
     public ServiceType(long id, String name, PackageType packageType,
                        double minWeightKg, double maxWeightKg,
@@ -29,19 +24,28 @@ public class ServiceType {
                        double pricePerCubicMeter,
                        double dangerousSurcharge, double fragileSurcharge,
                        double oversizeSurcharge) {
+        this(id, name, packageType, minWeightKg, maxWeightKg, speed,
+                new AtomicReference<>(new Tariff(basePrice, pricePerKm, pricePerKg, pricePerCubicMeter,
+                        dangerousSurcharge, fragileSurcharge, oversizeSurcharge)));
+    }
+
+    /**
+     * 費率表由呼叫端持有：之後對 pricing 的 set 就是調價。
+     * LogisticsCore 用這個建構子，調價時先寫 WAL、換掉費率表，再讓報價快取失效、重算未結帳月份。
+     */
+    public ServiceType(long id, String name, PackageType packageType,
+                       double minWeightKg, double maxWeightKg,
+                       DeliverySpeed speed, AtomicReference<Tariff> pricing) {
+        if (pricing == null || pricing.get() == null) {
+            throw new IllegalArgumentException("pricing is null");
+        }
         this.id = id;
         this.name = name;
         this.packageType = packageType;
         this.minWeightKg = minWeightKg;
         this.maxWeightKg = maxWeightKg;
         this.speed = speed;
-        this.basePrice = basePrice;
-        this.pricePerKm = pricePerKm;
-        this.pricePerKg = pricePerKg;
-        this.pricePerCubicMeter = pricePerCubicMeter;
-        this.dangerousSurcharge = dangerousSurcharge;
-        this.fragileSurcharge = fragileSurcharge;
-        this.oversizeSurcharge = oversizeSurcharge;
+        this.pricing = pricing;
     }
 
     // ==== Getter（給 core 用） ====
@@ -70,31 +74,35 @@ public class ServiceType {
     }
 
     public double getBasePrice() {
-        return basePrice;
+        return pricing.get().basePrice;
     }
 
     public double getPricePerKm() {
-        return pricePerKm;
+        return pricing.get().pricePerKm;
     }
 
     public double getPricePerKg() {
-        return pricePerKg;
+        return pricing.get().pricePerKg;
     }
 
     public double getPricePerCubicMeter() {
-        return pricePerCubicMeter;
+        return pricing.get().pricePerCubicMeter;
     }
 
     public double getDangerousSurcharge() {
-        return dangerousSurcharge;
+        return pricing.get().dangerousSurcharge;
     }
 
     public double getFragileSurcharge() {
-        return fragileSurcharge;
+        return pricing.get().fragileSurcharge;
     }
 
     public double getOversizeSurcharge() {
-        return oversizeSurcharge;
+        return pricing.get().oversizeSurcharge;
+    }
+
+    public Tariff getTariff() {
+        return pricing.get();
     }
 
     @Override
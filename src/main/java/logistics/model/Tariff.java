@@ -0,0 +1,111 @@
+package logistics.model;
+
+/**
+ * 服務類型編譯後的費率表：計價用到的係數全部攤成 final 欄位，計算時不再逐一呼叫 ServiceType 的 getter。
+ *
+ * 包裹的危險品 / 易碎 / 超大三個條件先壓成旗標位元（{@link #flags}），超大與否只在登錄時判斷一次。
+ * 附加費以「係數 × 0 或 1」加總而不是分支，單筆與批次的迴圈都沒有條件跳躍，JIT 可以向量化批次版本；
+ * 兩者運算順序與舊的逐項相加相同，結果逐位元一致。
+ */
+public final class Tariff {
+
+    public static final int DANGEROUS = 1;
+    public static final int FRAGILE = 2;
+    public static final int OVERSIZE = 4;
+
+    /** 任一邊超過此長度（公分）即為超大件 */
+    public static final double OVERSIZE_CM = 100;
+
+    public final double basePrice;
+    public final double pricePerKm;
+    public final double pricePerKg;
+    public final double pricePerCubicMeter;
+    public final double dangerousSurcharge;
+    public final double fragileSurcharge;
+    public final double oversizeSurcharge;
+
+    public Tariff(double basePrice, double pricePerKm, double pricePerKg, double pricePerCubicMeter,
+                  double dangerousSurcharge, double fragileSurcharge, double oversizeSurcharge) {
+        this.basePrice = basePrice;
+        this.pricePerKm = pricePerKm;
+        this.pricePerKg = pricePerKg;
+        this.pricePerCubicMeter = pricePerCubicMeter;
+        this.dangerousSurcharge = dangerousSurcharge;
+        this.fragileSurcharge = fragileSurcharge;
+        this.oversizeSurcharge = oversizeSurcharge;
+    }
+
+    public static int flags(boolean dangerous, boolean fragile, double lengthCm, double widthCm, double heightCm) {
+        boolean oversize = lengthCm > OVERSIZE_CM || widthCm > OVERSIZE_CM || heightCm > OVERSIZE_CM;
+        return (dangerous ? DANGEROUS : 0) | (fragile ? FRAGILE : 0) | (oversize ? OVERSIZE : 0);
+    }
+
+    public static int flags(Parcel p) {
+        return flags(p.dangerousGoods, p.fragile, p.lengthCm, p.widthCm, p.heightCm);
+    }
+
+    /**
+     * 單筆運費。
+     */
+    public double charge(double weightKg, double lengthCm, double widthCm, double heightCm,
+                         double distanceKm, int flags) {
+        double volume = (lengthCm / 100.0) * (widthCm / 100.0) * (heightCm / 100.0);
+        return chargeForVolume(weightKg, volume, distanceKm, flags);
+    }
+
+    /**
+     * 已知材積（立方公尺）時的單筆運費，報價用；超大與否由 flags 帶入。
+     */
+    public double chargeForVolume(double weightKg, double volumeCubicMeter, double distanceKm, int flags) {
+        double amount = basePrice
+                + pricePerKm * distanceKm
+                + pricePerKg * weightKg
+                + pricePerCubicMeter * volumeCubicMeter;
+        amount += dangerousSurcharge * (flags & 1);
+        amount += fragileSurcharge * ((flags >> 1) & 1);
+        amount += oversizeSurcharge * ((flags >> 2) & 1);
+        return amount;
+    }
+
+    /**
+     * 批次運費：第 k 件的各欄位分別取自各陣列的第 k 個元素，回傳等長的運費陣列。
+     */
+    public double[] charges(double[] weightKg, double[] lengthCm, double[] widthCm, double[] heightCm,
+                            double[] distanceKm, byte[] flags) {
+        double[] out = new double[weightKg.length];
+        charges(weightKg, lengthCm, widthCm, heightCm, distanceKm, flags, out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * 同上，只算 [from, to) 並寫入 out 的同一位置。
+     */
+    public void charges(double[] weightKg, double[] lengthCm, double[] widthCm, double[] heightCm,
+                        double[] distanceKm, byte[] flags, double[] out, int from, int to) {
+        // 係數先讀進區域變數，迴圈內只有陣列存取與算術
+        double base = basePrice, perKm = pricePerKm, perKg = pricePerKg, perM3 = pricePerCubicMeter;
+        double dangerous = dangerousSurcharge, fragile = fragileSurcharge, oversize = oversizeSurcharge;
+        for (int k = from; k < to; k++) {
+            double volume = (lengthCm[k] / 100.0) * (widthCm[k] / 100.0) * (heightCm[k] / 100.0);
+            double amount = base + perKm * distanceKm[k] + perKg * weightKg[k] + perM3 * volume;
+            int f = flags[k];
+            amount += dangerous * (f & 1);
+            amount += fragile * ((f >> 1) & 1);
+            amount += oversize * ((f >> 2) & 1);
+            out[k] = amount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Tariff{" +
+                "base=" + basePrice +
+                ", perKm=" + pricePerKm +
+                ", perKg=" + pricePerKg +
+                ", perM3=" + pricePerCubicMeter +
+                ", dangerous=" + dangerousSurcharge +
+                ", fragile=" + fragileSurcharge +
+                ", oversize=" + oversizeSurcharge +
+                '}';
+    }
+}
@@ -3,19 +3,31 @@ package logistics.model;
 import java.time.LocalDateTime;
 import logistics.enums.TrackingEventType;
 import logistics.enums.ExceptionType;
+import logistics.store.SymbolTable;
 
 public class TrackingEvent {
     private TrackingEventType type;
     private LocalDateTime timestamp;
-    private String location;    // 倉儲地點 / 城市 / 地址
-    private String truckId;     // 若有貨車載具
-    private String warehouseId; // 若有倉儲代碼
+    // 地點 / 貨車 / 倉庫大量重複，以 SymbolTable.shared() 的 int 代碼保存
+    private int location;       // 倉儲地點 / 城市 / 地址
+    private int truckId;        // 若有貨車載具
+    private int warehouseId;    // 若有倉儲代碼
     private String description; // 備註
     private ExceptionType exceptionType; // 若為 EXCEPTION 事件可填
 
     public TrackingEvent(TrackingEventType type, LocalDateTime timestamp,
                          String location, String truckId, String warehouseId,
                          String description, ExceptionType exceptionType) {
+        this(type, timestamp,
+                SymbolTable.shared().intern(location),
+                SymbolTable.shared().intern(truckId),
+                SymbolTable.shared().intern(warehouseId),
+                description, exceptionType);
+    }
+
+    private TrackingEvent(TrackingEventType type, LocalDateTime timestamp,
+                          int location, int truckId, int warehouseId,
+                          String description, ExceptionType exceptionType) {
         this.type = type;
         this.timestamp = timestamp;
         this.location = location;
@@ -25,6 +37,16 @@ public class TrackingEvent {
         this.exceptionType = exceptionType;
     }
 
+    /**
+     * 直接以字典代碼建立（事件日誌解碼用，省去字串查表）。
+     */
+    public static TrackingEvent ofCodes(TrackingEventType type, LocalDateTime timestamp,
+                                        int locationCode, int truckCode, int warehouseCode,
+                                        String description, ExceptionType exceptionType) {
+        return new TrackingEvent(type, timestamp, locationCode, truckCode, warehouseCode,
+                description, exceptionType);
+    }
+
     //  加上這些 getter，讓其他 package 也能讀
     public TrackingEventType getType() {
         return type;
@@ -35,14 +57,27 @@ public class TrackingEvent {
     }
 
     public String getLocation() {
-        return location;
+        return SymbolTable.shared().name(location);
     }
 
     public String getTruckId() {
-        return truckId;
+        return SymbolTable.shared().name(truckId);
     }
 
     public String getWarehouseId() {
+        return SymbolTable.shared().name(warehouseId);
+    }
+
+    // 字典代碼（SymbolTable.NONE 表示 null），比對時用 int 即可
+    public int getLocationCode() {
+        return location;
+    }
+
+    public int getTruckCode() {
+        return truckId;
+    }
+
+    public int getWarehouseCode() {
         return warehouseId;
     }
 
@@ -59,9 +94,9 @@ public class TrackingEvent {
         return "TrackingEvent{" +
                 "type=" + type +
                 ", time=" + timestamp +
-                ", location='" + location + '\'' +
-                ", truckId='" + truckId + '\'' +
-                ", warehouseId='" + warehouseId + '\'' +
+                ", location='" + getLocation() + '\'' +
+                ", truckId='" + getTruckId() + '\'' +
+                ", warehouseId='" + getWarehouseId() + '\'' +
                 ", description='" + description + '\'' +
                 ", exceptionType=" + exceptionType +
                 '}';
@@ -0,0 +1,13 @@
+package logistics.persist;
+
+/**
+ * WAL 的落盤策略。
+ */
+public enum FsyncPolicy {
+    /** 每次 commit 都等到 fsync 完成才返回；同時等待的 commit 共用一次 fsync（group commit） */
+    ALWAYS,
+    /** commit 寫進記憶體緩衝即返回，背景執行緒每隔一段時間批次寫檔並 fsync（當機最多遺失一個間隔） */
+    GROUP,
+    /** 只寫檔不 fsync，交給作業系統決定何時落盤 */
+    NEVER
+}
@@ -0,0 +1,437 @@
+package logistics.persist;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 只增的預寫日誌（write-ahead log）。
+ *
+ * 紀錄格式：int 長度 + int CRC32C + payload。LSN 為紀錄在整個日誌中的起始 byte 位置，單調遞增。
+ * 日誌切成多個 segment 檔（wal-&lt;起始 LSN&gt;.log），方便快照後整段刪除舊紀錄。
+ *
+ * 寫入流程：append 只把紀錄複製進記憶體緩衝（持鎖時間為微秒等級），由背景 flusher 批次寫檔，
+ * 再依 {@link FsyncPolicy} 決定是否 fsync；commit 依策略決定呼叫端是否要等待落盤。
+ *
+ * 開啟時會掃描既有 segment，遇到寫到一半的尾端紀錄（長度不合或 CRC 不符）就截斷。
+ */
+public final class WriteAheadLog implements Closeable {
+
+    public static final long DEFAULT_GROUP_COMMIT_MILLIS = 5;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    private static final int HEADER = 8;
+    private static final int MAX_PENDING = 32 << 20;        // 緩衝上限，超過時 append 等待（背壓）
+    private static final int EAGER_FLUSH_BYTES = 1 << 20;   // GROUP 模式下緩衝累積到此大小就提早寫檔
+
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final long groupCommitNanos;
+    private final long segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private byte[] pending = new byte[64 * 1024];
+    private byte[] spare = new byte[64 * 1024];
+    private int pendingLen;
+    private long appendLsn;     // 下一筆紀錄的 LSN
+    private long durableLsn;    // 此位置之前的紀錄已寫檔（並依策略 fsync）
+    private boolean flushRequested;
+    private boolean closed;
+    private IOException failure;
+
+    private final long recoveredEnd;   // 開啟時既有紀錄的結尾，replay 只讀到這裡
+    private final Object segmentLock = new Object();
+    private FileChannel segment;       // guarded by segmentLock
+    private final Thread flusher;
+
+    private WriteAheadLog(Path dir, FsyncPolicy policy, long groupCommitMillis, long segmentBytes,
+                          long end) throws IOException {
+        this.dir = dir;
+        this.policy = policy;
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitMillis);
+        this.segmentBytes = segmentBytes;
+        this.recoveredEnd = end;
+        this.appendLsn = end;
+        this.durableLsn = end;
+        this.segment = openSegment(end);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static WriteAheadLog open(Path dir, FsyncPolicy policy) {
+        return open(dir, policy, DEFAULT_GROUP_COMMIT_MILLIS, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * 開啟（不存在則建立）dir 下的日誌，並截斷損壞的尾端。
+     *
+     * @param groupCommitMillis GROUP 模式下批次寫檔的間隔
+     * @param segmentBytes      單一 segment 檔超過此大小就換新檔
+     */
+    public static WriteAheadLog open(Path dir, FsyncPolicy policy, long groupCommitMillis, long segmentBytes) {
+        return open(dir, policy, groupCommitMillis, segmentBytes, 0);
+    }
+
+    /**
+     * 同上，但新紀錄的 LSN 至少從 minLsn 起算（開啟時傳入快照的 LSN）。
+     *
+     * 快照涵蓋到的紀錄若在當機時沒寫進日誌，既有結尾會小於快照 LSN；若從那裡繼續附加，新紀錄會拿到
+     * 快照已宣稱涵蓋的 LSN，下次從快照 LSN 回放時被略過。此時既有 segment 全在快照之前，直接刪除，
+     * 從 minLsn 開新的 segment。
+     */
+    public static WriteAheadLog open(Path dir, FsyncPolicy policy, long groupCommitMillis, long segmentBytes,
+                                     long minLsn) {
+        try {
+            Files.createDirectories(dir);
+            long end = recover(dir);
+            if (end < minLsn) {
+                for (long start : segmentStarts(dir)) {
+                    Files.delete(segmentPath(dir, start));
+                }
+                end = minLsn;
+            }
+            return new WriteAheadLog(dir, policy, groupCommitMillis, segmentBytes, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法開啟 WAL：" + dir, e);
+        }
+    }
+
+    /* ========= 寫入 ========= */
+
+    /**
+     * 附加一筆紀錄，回傳其 LSN。只複製進緩衝，不等待落盤；需要時再呼叫 {@link #commit(long)}。
+     */
+    public long append(byte[] payload) {
+        return append(payload, 0, payload.length);
+    }
+
+    public long append(byte[] payload, int off, int len) {
+        int need = HEADER + len;
+        CRC32C crc = new CRC32C();
+        crc.update(payload, off, len);
+        int checksum = (int) crc.getValue();
+
+        lock.lock();
+        try {
+            while (pendingLen > 0 && pendingLen + need > MAX_PENDING && failure == null && !closed) {
+                flushed.awaitUninterruptibly();
+            }
+            checkUsable();
+            if (pendingLen + need > pending.length) {
+                byte[] grown = new byte[Math.max(pending.length * 2, pendingLen + need)];
+                System.arraycopy(pending, 0, grown, 0, pendingLen);
+                pending = grown;
+            }
+            putInt(pending, pendingLen, len);
+            putInt(pending, pendingLen + 4, checksum);
+            System.arraycopy(payload, off, pending, pendingLen + HEADER, len);
+            pendingLen += need;
+
+            long lsn = appendLsn;
+            appendLsn += need;
+
+            // GROUP 模式只在批次的第一筆（喚醒 flusher 開始計時）或緩衝過大時通知
+            if (policy != FsyncPolicy.GROUP || pendingLen == need || pendingLen >= EAGER_FLUSH_BYTES) {
+                hasWork.signal();
+            }
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 依策略等待 lsn 那筆紀錄落盤：ALWAYS 等到 fsync 完成（同時等待者共用一次 fsync），其餘策略直接返回。
+     */
+    public void commit(long lsn) {
+        if (policy != FsyncPolicy.ALWAYS) return;
+        lock.lock();
+        try {
+            awaitDurable(lsn + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把目前為止 append 的紀錄全部寫檔並 fsync（不論策略）。
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            checkUsable();
+            long target = appendLsn;
+            flushRequested = true;
+            hasWork.signal();
+            awaitDurable(target);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            synchronized (segmentLock) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("WAL fsync 失敗", e);
+        }
+    }
+
+    /**
+     * 下一筆紀錄會拿到的 LSN；在此之前 append 的紀錄 LSN 都比它小。
+     */
+    public long endLsn() {
+        lock.lock();
+        try {
+            return appendLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDurable(long target) {
+        while (durableLsn < target) {
+            checkUsable();
+            flushed.awaitUninterruptibly();
+        }
+    }
+
+    private void checkUsable() {
+        if (failure != null) throw new UncheckedIOException("WAL 寫入失敗", failure);
+        if (closed) throw new IllegalStateException("WAL 已關閉");
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            int batchLen;
+            long batchEnd;
+            boolean stop;
+            lock.lock();
+            try {
+                while (!closed && pendingLen == 0 && !flushRequested) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if (policy == FsyncPolicy.GROUP) {
+                    // 收集一個間隔內的紀錄再一起寫檔
+                    long wait = groupCommitNanos;
+                    while (!closed && !flushRequested && wait > 0 && pendingLen < EAGER_FLUSH_BYTES) {
+                        wait = hasWork.awaitNanos(wait);
+                    }
+                }
+                stop = closed;
+                flushRequested = false;
+                batch = pending;
+                batchLen = pendingLen;
+                batchEnd = appendLsn;
+                pending = spare;
+                spare = batch;
+                pendingLen = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            if (batchLen > 0) {
+                try {
+                    synchronized (segmentLock) {
+                        write(batch, batchLen, batchEnd - batchLen);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableLsn = batchEnd;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (stop || error != null) return;
+        }
+    }
+
+    private void write(byte[] batch, int len, long batchStart) throws IOException {
+        if (segment.size() >= segmentBytes) {
+            segment.force(false);
+            segment.close();
+            segment = openSegment(batchStart);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(batch, 0, len);
+        while (buf.hasRemaining()) {
+            segment.write(buf);
+        }
+        if (policy != FsyncPolicy.NEVER) {
+            segment.force(false);
+        }
+    }
+
+    private FileChannel openSegment(long startLsn) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, startLsn),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ch.position(ch.size());
+        return ch;
+    }
+
+    /* ========= 回放 / 截斷 ========= */
+
+    /**
+     * 依序回放 LSN &gt;= fromLsn 的紀錄（只含開啟時已存在的紀錄）；須在開始 append 前呼叫。
+     */
+    public void replay(long fromLsn, Consumer<ByteBuffer> handler) {
+        try {
+            for (long start : segmentStarts(dir)) {
+                Path file = segmentPath(dir, start);
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = Math.min(ch.size(), recoveredEnd - start);
+                    if (size <= 0 || start + size <= fromLsn) continue;
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    buf.order(ByteOrder.BIG_ENDIAN);
+                    int pos = 0;
+                    while (pos + HEADER <= size) {
+                        int len = buf.getInt(pos);
+                        ByteBuffer payload = buf.slice(pos + HEADER, len);
+                        if (start + pos >= fromLsn) {
+                            handler.accept(payload);
+                        }
+                        pos += HEADER + len;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("WAL 回放失敗", e);
+        }
+    }
+
+    /**
+     * 刪除整段都在 lsn 之前的 segment 檔（快照涵蓋到 lsn 之後呼叫）。
+     *
+     * @return 刪除的檔案數
+     */
+    public int truncateBefore(long lsn) {
+        try {
+            List<Long> starts = segmentStarts(dir);
+            int removed = 0;
+            // 最後一段是目前寫入中的檔案，永遠保留
+            for (int i = 0; i + 1 < starts.size(); i++) {
+                if (starts.get(i + 1) <= lsn) {
+                    Files.deleteIfExists(segmentPath(dir, starts.get(i)));
+                    removed++;
+                }
+            }
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("WAL 截斷失敗", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            hasWork.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (segmentLock) {
+            segment.force(false);
+            segment.close();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /* ========= helpers ========= */
+
+    private static Path segmentPath(Path dir, long startLsn) {
+        return dir.resolve(String.format("wal-%020d.log", startLsn));
+    }
+
+    private static List<Long> segmentStarts(Path dir) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith("wal-") && n.endsWith(".log"))
+                    .forEach(n -> starts.add(Long.parseLong(n.substring(4, n.length() - 4))));
+        }
+        starts.sort(null);
+        return starts;
+    }
+
+    /**
+     * 掃描既有 segment，回傳最後一筆完整紀錄的結尾；損壞點之後的內容（含後續 segment）一律捨棄。
+     */
+    private static long recover(Path dir) throws IOException {
+        List<Long> starts = segmentStarts(dir);
+        long end = starts.isEmpty() ? 0 : starts.get(0);
+        for (int i = 0; i < starts.size(); i++) {
+            long start = starts.get(i);
+            Path file = segmentPath(dir, start);
+            if (start != end) {
+                // 與前一段不連續：前一段尾端已損壞，之後的內容不可信
+                Files.delete(file);
+                continue;
+            }
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = ch.size();
+                long valid = 0;
+                if (size > 0) {
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    CRC32C crc = new CRC32C();
+                    while (valid + HEADER <= size) {
+                        int len = buf.getInt((int) valid);
+                        if (len < 0 || valid + HEADER + len > size) break;
+                        crc.reset();
+                        crc.update(buf.slice((int) valid + HEADER, len));
+                        if ((int) crc.getValue() != buf.getInt((int) valid + 4)) break;
+                        valid += HEADER + len;
+                    }
+                }
+                if (valid < size) {
+                    ch.truncate(valid);
+                }
+                end = start + valid;
+            }
+        }
+        return end;
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+}
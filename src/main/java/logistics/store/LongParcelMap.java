@@ -0,0 +1,185 @@
+package logistics.store;
+
+import logistics.model.Parcel;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * 以 long（追蹤編號的數字部分）為 key 的 open-addressing 包裹表。
+ *
+ * 相較 Map&lt;String, Parcel&gt;：不必對 String 做 hash/equals，也沒有每筆 entry 的 Node 物件，
+ * 每筆只佔 long[] 與 Parcel[] 各一格（約 12~24 bytes，視負載而定）。
+ *
+ * 併發：切成多個 segment，每段一把 StampedLock；寫入取寫鎖，讀取先走樂觀讀，
+ * 只有遇到同段正在寫入時才退回讀鎖。不支援刪除（包裹不會被移除）。
+ */
+public final class LongParcelMap {
+
+    private static final long EMPTY = -1L;          // key 一律 >= 0
+    private static final int SEGMENTS = 64;         // 2 的次方
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public LongParcelMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * 取得包裹；不存在時回傳 null。
+     */
+    public Parcel get(long key) {
+        long h = mix(key);
+        return segmentFor(h).get(key, h);
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * key 不存在時放入並回傳 null；已存在則不覆蓋，回傳既有包裹。
+     */
+    public Parcel putIfAbsent(long key, Parcel value) {
+        if (key < 0) throw new IllegalArgumentException("key 不可為負：" + key);
+        if (value == null) throw new IllegalArgumentException("value is null");
+        long h = mix(key);
+        return segmentFor(h).putIfAbsent(key, h, value);
+    }
+
+    public long size() {
+        long n = 0;
+        for (Segment s : segments) {
+            n += s.size;
+        }
+        return n;
+    }
+
+    /**
+     * 逐段走訪（弱一致：走訪期間新增的包裹不一定會被看到）。
+     */
+    public void forEach(Consumer<Parcel> action) {
+        for (Segment s : segments) {
+            s.forEach(action);
+        }
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int) (h >>> 58) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 追蹤編號的低位數大致遞增，先打散再用（splitmix64 finalizer）。
+     */
+    private static long mix(long key) {
+        long z = key;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /* ========= segment ========= */
+
+    private static final class Table {
+        final long[] keys;
+        final Parcel[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Parcel[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(MIN_CAPACITY);
+        private volatile int size;
+
+        Parcel get(long key, long h) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Parcel v = probe(table, key, h);
+                if (lock.validate(stamp)) return v;
+            }
+            stamp = lock.readLock();
+            try {
+                return probe(table, key, h);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * 樂觀讀期間 table 可能正被改寫，這裡只保證不會越界或無窮迴圈，結果由 validate 把關。
+         */
+        private static Parcel probe(Table t, long key, long h) {
+            long[] keys = t.keys;
+            int mask = keys.length - 1;
+            int i = (int) h & mask;
+            for (int n = 0; n <= mask; n++) {
+                long k = keys[i];
+                if (k == key) return t.values[i];
+                if (k == EMPTY) return null;
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        Parcel putIfAbsent(long key, long h, Parcel value) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int mask = t.keys.length - 1;
+                int i = (int) h & mask;
+                while (t.keys[i] != EMPTY) {
+                    if (t.keys[i] == key) return t.values[i];
+                    i = (i + 1) & mask;
+                }
+                t.values[i] = value;
+                t.keys[i] = key;
+                size = size + 1;
+                if (size > t.keys.length * LOAD_FACTOR) {
+                    table = resize(t);
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private static Table resize(Table old) {
+            Table t = new Table(old.keys.length << 1);
+            int mask = t.keys.length - 1;
+            for (int j = 0; j < old.keys.length; j++) {
+                long k = old.keys[j];
+                if (k == EMPTY) continue;
+                int i = (int) mix(k) & mask;
+                while (t.keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                t.keys[i] = k;
+                t.values[i] = old.values[j];
+            }
+            return t;
+        }
+
+        void forEach(Consumer<Parcel> action) {
+            Parcel[] snapshot;
+            long stamp = lock.readLock();
+            try {
+                snapshot = table.values.clone();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            for (Parcel p : snapshot) {
+                if (p != null) action.accept(p);
+            }
+        }
+    }
+}
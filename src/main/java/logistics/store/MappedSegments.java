@@ -0,0 +1,113 @@
+package logistics.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以固定大小 segment 逐段 memory-map 的只增檔案；不指定檔案時改用 heap 上的 segment（不持久化時用）。
+ *
+ * allocate 以 CAS 保留空間，保證一筆資料不會跨 segment；之後以絕對位置讀寫
+ * （ByteBuffer 的絕對 get/put 不改 position，不同區段可多執行緒同時寫）。
+ * segment 在第一次用到時才建立。
+ */
+final class MappedSegments implements Closeable {
+
+    private final FileChannel channel;   // heap 模式為 null
+    private final int segmentSize;
+    private final AtomicLong position = new AtomicLong();
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+    /**
+     * heap 上的 segment，由 GC 回收，不佔檔案空間。
+     */
+    MappedSegments(int segmentSize) {
+        if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize 需大於 0");
+        this.segmentSize = segmentSize;
+        this.channel = null;
+    }
+
+    MappedSegments(Path file, int segmentSize) {
+        if (segmentSize <= 0) throw new IllegalArgumentException("segmentSize 需大於 0");
+        this.segmentSize = segmentSize;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法開啟 " + file, e);
+        }
+    }
+
+    int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * 保留 len bytes，回傳起始位置；目前 segment 放不下時直接跳到下一段開頭。
+     */
+    long allocate(int len) {
+        if (len > segmentSize) {
+            throw new IllegalArgumentException("資料長度 " + len + " 超過 segment 大小 " + segmentSize);
+        }
+        for (;;) {
+            long cur = position.get();
+            long start = cur;
+            if ((cur % segmentSize) + len > segmentSize) {
+                start = (cur / segmentSize + 1) * segmentSize;
+            }
+            if (position.compareAndSet(cur, start + len)) {
+                ensureMapped((int) ((start + len - 1) / segmentSize));
+                return start;
+            }
+        }
+    }
+
+    ByteBuffer segmentFor(long offset) {
+        return segments[(int) (offset / segmentSize)];
+    }
+
+    int offsetInSegment(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    long bytesUsed() {
+        return position.get();
+    }
+
+    private void ensureMapped(int segIndex) {
+        if (segIndex < segments.length) return;
+        synchronized (this) {
+            ByteBuffer[] cur = segments;
+            if (segIndex < cur.length) return;
+            ByteBuffer[] grown = new ByteBuffer[segIndex + 1];
+            System.arraycopy(cur, 0, grown, 0, cur.length);
+            try {
+                for (int i = cur.length; i <= segIndex; i++) {
+                    grown[i] = channel == null
+                            ? ByteBuffer.allocate(segmentSize)
+                            : channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("memory-map 失敗", e);
+            }
+            segments = grown;
+        }
+    }
+
+    /**
+     * 關閉檔案並放掉所有 segment 的參照：Java 17 沒有公開的 unmap，mapping 在 buffer 被 GC 時才解除
+     * （強制 unmap 後若仍有讀取會讓 JVM 當掉，所以不那樣做）。
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            segments = new ByteBuffer[0];
+        }
+        if (channel != null) channel.close();
+    }
+}
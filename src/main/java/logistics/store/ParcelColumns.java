@@ -0,0 +1,192 @@
+package logistics.store;
+
+import logistics.model.Parcel;
+import logistics.model.ServiceType;
+import logistics.model.Tariff;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 欄式（struct-of-arrays）包裹資料：與物件模型並存，專供計費與統計的大量掃描使用。
+ *
+ * 計費用到的欄位（重量、尺寸、寄件人、寄件日、服務類型）各自存成平行的 primitive 陣列，
+ * 危險品 / 易碎 / 超大三個旗標壓成每列一個 byte（{@link Tariff#flags}）。資料以固定大小的 chunk 存放，擴充時不搬移既有資料。
+ *
+ * 併發：append 以 synchronized 序列化；讀取只看 size 以內的列，不加鎖。
+ * 欄位值是建立包裹當下的快照（Parcel 的欄位事後被改動不會反映到這裡）。
+ */
+public final class ParcelColumns {
+
+    /** summarize 的 senderId 傳這個值代表不限寄件人 */
+    public static final long ALL_SENDERS = -1L;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final class Chunk {
+        final long[] senderId = new long[CHUNK_SIZE];
+        final int[] shipDay = new int[CHUNK_SIZE];       // LocalDate.toEpochDay()
+        final int[] serviceType = new int[CHUNK_SIZE];   // 指向 types 的索引
+        final double[] weightKg = new double[CHUNK_SIZE];
+        final double[] lengthCm = new double[CHUNK_SIZE];
+        final double[] widthCm = new double[CHUNK_SIZE];
+        final double[] heightCm = new double[CHUNK_SIZE];
+        final byte[] flags = new byte[CHUNK_SIZE];       // Tariff.DANGEROUS | FRAGILE | OVERSIZE
+    }
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+
+    // 服務類型 -> 緊密索引（欄位只存 int）
+    private volatile ServiceType[] types = new ServiceType[0];
+    private final Map<Long, Integer> typeIndex = new HashMap<>();
+
+    /**
+     * 登錄一筆包裹，回傳列號。
+     */
+    public synchronized int append(Parcel p, LocalDate shipDate) {
+        int row = size;
+        int c = row >>> CHUNK_BITS;
+        Chunk[] cs = chunks;
+        if (c == cs.length) {
+            Chunk[] grown = new Chunk[c + 1];
+            System.arraycopy(cs, 0, grown, 0, c);
+            grown[c] = new Chunk();
+            chunks = cs = grown;
+        }
+        Chunk ch = cs[c];
+        int i = row & CHUNK_MASK;
+        ch.senderId[i] = p.sender.id;
+        ch.shipDay[i] = (int) shipDate.toEpochDay();
+        ch.serviceType[i] = indexOf(p.serviceType);
+        ch.weightKg[i] = p.weightKg;
+        ch.lengthCm[i] = p.lengthCm;
+        ch.widthCm[i] = p.widthCm;
+        ch.heightCm[i] = p.heightCm;
+        ch.flags[i] = (byte) Tariff.flags(p);
+        size = row + 1;   // volatile 寫入，發布這一列
+        return row;
+    }
+
+    private int indexOf(ServiceType st) {
+        Integer idx = typeIndex.get(st.getId());
+        if (idx != null) return idx;
+        ServiceType[] ts = types;
+        ServiceType[] grown = new ServiceType[ts.length + 1];
+        System.arraycopy(ts, 0, grown, 0, ts.length);
+        grown[ts.length] = st;
+        types = grown;
+        typeIndex.put(st.getId(), ts.length);
+        return ts.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 該列的寄件日。
+     */
+    public LocalDate shipDate(int row) {
+        return LocalDate.ofEpochDay(chunks[row >>> CHUNK_BITS].shipDay[row & CHUNK_MASK]);
+    }
+
+    /* ========= 計費 ========= */
+
+    /**
+     * 批次計算運費：out[k] = rows[k] 那筆包裹在 distanceKm[k] 下的運費。
+     * 公式與 LogisticsCore.calculateCharge 相同（運算順序也相同，結果逐位元一致）。
+     */
+    public void charges(int[] rows, double[] distanceKm, double[] out) {
+        charges(rows, distanceKm, out, 0, rows.length);
+    }
+
+    /**
+     * 同上，只算 [from, to) 這一段；不同段可由不同執行緒同時計算。
+     */
+    public void charges(int[] rows, double[] distanceKm, double[] out, int from, int to) {
+        Chunk[] cs = chunks;
+        ServiceType[] ts = types;
+        for (int k = from; k < to; k++) {
+            int row = rows[k];
+            Chunk ch = cs[row >>> CHUNK_BITS];
+            int i = row & CHUNK_MASK;
+            Tariff t = ts[ch.serviceType[i]].getTariff();
+            out[k] = t.charge(ch.weightKg[i], ch.lengthCm[i], ch.widthCm[i], ch.heightCm[i],
+                    distanceKm[k], ch.flags[i]);
+        }
+    }
+
+    /* ========= 統計 ========= */
+
+    /**
+     * 寄件日在 [from, to] 的包裹統計；senderId 為 {@link #ALL_SENDERS} 時不限寄件人。
+     */
+    public Summary summarize(long senderId, LocalDate from, LocalDate to) {
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+        boolean anySender = senderId == ALL_SENDERS;
+
+        long count = 0, dangerous = 0, fragile = 0, oversize = 0;
+        double weight = 0, volume = 0;
+
+        int n = size;
+        Chunk[] cs = chunks;
+        for (int c = 0; c * CHUNK_SIZE < n; c++) {
+            Chunk ch = cs[c];
+            int limit = Math.min(CHUNK_SIZE, n - c * CHUNK_SIZE);
+            for (int i = 0; i < limit; i++) {
+                int day = ch.shipDay[i];
+                if (day < fromDay || day > toDay) continue;
+                if (!anySender && ch.senderId[i] != senderId) continue;
+
+                double l = ch.lengthCm[i], w = ch.widthCm[i], h = ch.heightCm[i];
+                count++;
+                weight += ch.weightKg[i];
+                volume += (l / 100.0) * (w / 100.0) * (h / 100.0);
+                int f = ch.flags[i];
+                dangerous += f & Tariff.DANGEROUS;
+                fragile += (f & Tariff.FRAGILE) >> 1;
+                oversize += (f & Tariff.OVERSIZE) >> 2;
+            }
+        }
+        return new Summary(count, weight, volume, dangerous, fragile, oversize);
+    }
+
+    /**
+     * 包裹統計結果。
+     */
+    public static final class Summary {
+        public final long count;
+        public final double totalWeightKg;
+        public final double totalVolumeCubicMeter;
+        public final long dangerousCount;
+        public final long fragileCount;
+        public final long oversizeCount;
+
+        Summary(long count, double totalWeightKg, double totalVolumeCubicMeter,
+                long dangerousCount, long fragileCount, long oversizeCount) {
+            this.count = count;
+            this.totalWeightKg = totalWeightKg;
+            this.totalVolumeCubicMeter = totalVolumeCubicMeter;
+            this.dangerousCount = dangerousCount;
+            this.fragileCount = fragileCount;
+            this.oversizeCount = oversizeCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{" +
+                    "count=" + count +
+                    ", totalWeightKg=" + totalWeightKg +
+                    ", totalVolumeCubicMeter=" + totalVolumeCubicMeter +
+                    ", dangerous=" + dangerousCount +
+                    ", fragile=" + fragileCount +
+                    ", oversize=" + oversizeCount +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package logistics.store;
+
+import logistics.model.ServiceType;
+import logistics.model.Tariff;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 報價快取：寄件人入口的試算遠比實際建立包裹頻繁，同樣條件的報價只算一次。
+ *
+ * 鍵為 (服務類型 id, 重量級距, 材積級距, 距離級距, 附加費旗標)。重量、材積、距離一律無條件進位到級距上限，
+ * 報價即以上限值計算（與零售報價「不足一級以一級計」相同）；實際出帳仍以包裹的實際數值計算。
+ *
+ * 容量有上限：分成 {@link #SEGMENTS} 段，各段是依存取順序的 LinkedHashMap，滿了淘汰最久沒用到的項目；
+ * 各段各自加鎖，不同鍵多半落在不同段。每個項目記著算出它時的費率表，服務類型調價後舊項目不會再命中
+ * （{@link #invalidate} 另外把它們清掉以釋出空間）。
+ */
+public final class QuoteCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 65_536;
+    public static final double DEFAULT_WEIGHT_STEP_KG = 0.5;
+    public static final double DEFAULT_VOLUME_STEP_CUBIC_METER = 0.001;   // 1 公升
+    public static final double DEFAULT_DISTANCE_STEP_KM = 1.0;
+
+    private static final int SEGMENTS = 16;   // 2 的次方
+
+    private static final class Key {
+        final long serviceTypeId;
+        final long weightBucket;
+        final long volumeBucket;
+        final long distanceBucket;
+        final int flags;
+
+        Key(long serviceTypeId, long weightBucket, long volumeBucket, long distanceBucket, int flags) {
+            this.serviceTypeId = serviceTypeId;
+            this.weightBucket = weightBucket;
+            this.volumeBucket = volumeBucket;
+            this.distanceBucket = distanceBucket;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return serviceTypeId == k.serviceTypeId && weightBucket == k.weightBucket
+                    && volumeBucket == k.volumeBucket && distanceBucket == k.distanceBucket && flags == k.flags;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = serviceTypeId;
+            h = h * 31 + weightBucket;
+            h = h * 31 + volumeBucket;
+            h = h * 31 + distanceBucket;
+            h = h * 31 + flags;
+            h *= 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class Quote {
+        final Tariff tariff;
+        final double amount;
+
+        Quote(Tariff tariff, double amount) {
+            this.tariff = tariff;
+            this.amount = amount;
+        }
+    }
+
+    // 一段 LRU：存取順序的 LinkedHashMap，超過容量時淘汰走訪順序最前面（最久沒用）的項目；呼叫端以 synchronized (seg) 保護
+    private final class Segment {
+        private final LinkedHashMap<Key, Quote> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        Quote get(Key key) {
+            return entries.get(key);
+        }
+
+        void put(Key key, Quote quote) {
+            entries.put(key, quote);
+            if (entries.size() > capacity) {
+                Iterator<Key> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        int removeServiceType(long serviceTypeId) {
+            int before = entries.size();
+            entries.keySet().removeIf(k -> k.serviceTypeId == serviceTypeId);
+            return before - entries.size();
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final double weightStepKg;
+    private final double volumeStepCubicMeter;
+    private final double distanceStepKm;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QuoteCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_WEIGHT_STEP_KG, DEFAULT_VOLUME_STEP_CUBIC_METER, DEFAULT_DISTANCE_STEP_KM);
+    }
+
+    /**
+     * @param maxEntries 快取項目上限（平均分給各段）
+     * @param weightStepKg 重量級距（公斤）
+     * @param volumeStepCubicMeter 材積級距（立方公尺）
+     * @param distanceStepKm 距離級距（公里）
+     */
+    public QuoteCache(int maxEntries, double weightStepKg, double volumeStepCubicMeter, double distanceStepKm) {
+        if (maxEntries < SEGMENTS) {
+            throw new IllegalArgumentException("maxEntries 至少為 " + SEGMENTS);
+        }
+        if (!(weightStepKg > 0) || !(volumeStepCubicMeter > 0) || !(distanceStepKm > 0)) {
+            throw new IllegalArgumentException("級距需大於 0");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxEntries / SEGMENTS);
+        }
+        this.weightStepKg = weightStepKg;
+        this.volumeStepCubicMeter = volumeStepCubicMeter;
+        this.distanceStepKm = distanceStepKm;
+    }
+
+    /**
+     * 報價：命中時直接回傳，否則以級距上限計算後放入快取。
+     *
+     * @param flags {@link Tariff#flags} 算出的附加費旗標
+     */
+    public double quote(ServiceType st, double weightKg, double volumeCubicMeter, double distanceKm, int flags) {
+        Tariff tariff = st.getTariff();
+        long wb = bucket(weightKg, weightStepKg);
+        long vb = bucket(volumeCubicMeter, volumeStepCubicMeter);
+        long db = bucket(distanceKm, distanceStepKm);
+        Key key = new Key(st.getId(), wb, vb, db, flags);
+        Segment seg = segments[key.hashCode() & (SEGMENTS - 1)];
+
+        synchronized (seg) {
+            Quote q = seg.get(key);
+            if (q != null && q.tariff == tariff) {
+                hits.increment();
+                return q.amount;
+            }
+        }
+        misses.increment();
+        double amount = tariff.chargeForVolume(wb * weightStepKg, vb * volumeStepCubicMeter,
+                db * distanceStepKm, flags);
+        synchronized (seg) {
+            seg.put(key, new Quote(tariff, amount));
+        }
+        return amount;
+    }
+
+    /**
+     * 移除某服務類型的所有報價（調價後呼叫）。
+     */
+    public void invalidate(long serviceTypeId) {
+        long removed = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                removed += seg.removeServiceType(serviceTypeId);
+            }
+        }
+        invalidations.add(removed);
+    }
+
+    public Stats stats() {
+        int size = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                size += seg.size();
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), size);
+    }
+
+    // 無條件進位到級距；剛好落在級距上的值不進位（容許尺寸換算材積的浮點誤差，例如 20x10x10 cm 算出 0.0020000000000000005）
+    private static long bucket(double value, double step) {
+        return (long) Math.ceil(value / step - 1e-9);
+    }
+
+    /**
+     * 快取統計，用來調整級距與容量。
+     */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long invalidations;   // 因調價移除的項目數
+        public final int size;
+
+        Stats(long hits, long misses, long evictions, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRate=" + String.format("%.3f", hitRate()) +
+                    ", evictions=" + evictions +
+                    ", invalidations=" + invalidations +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package logistics.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字串字典：把大量重複的字串（地點、貨車代碼、倉庫代碼）換成緊密的 int 代碼。
+ *
+ * 代碼從 0 起依序配發、永不回收；{@link #NONE} 代表 null。
+ * 代碼只在同一個 JVM 內有效，要寫到檔案（WAL、快照）時須存回字串。
+ */
+public final class SymbolTable {
+
+    public static final int NONE = -1;
+
+    private static final SymbolTable SHARED = new SymbolTable();
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int size;   // guarded by this
+
+    /**
+     * 追蹤事件共用的字典。
+     */
+    public static SymbolTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * 取得字串的代碼，沒有時配發一個新的；null 回傳 NONE。
+     */
+    public int intern(String s) {
+        if (s == null) return NONE;
+        Integer code = codes.get(s);
+        if (code != null) return code;
+        synchronized (this) {
+            code = codes.get(s);
+            if (code != null) return code;
+            String[] ns = names;
+            if (size == ns.length) {
+                String[] grown = new String[ns.length * 2];
+                System.arraycopy(ns, 0, grown, 0, ns.length);
+                names = ns = grown;
+            }
+            int c = size++;
+            ns[c] = s;
+            codes.put(s, c);   // 之後經由 codes 查到代碼的執行緒一定看得到 names[c]
+            return c;
+        }
+    }
+
+    /**
+     * 只查不配發：字串從未出現過時回傳 NONE（查詢時用，避免把查詢字串塞進字典）。
+     */
+    public int lookup(String s) {
+        if (s == null) return NONE;
+        Integer code = codes.get(s);
+        return code == null ? NONE : code;
+    }
+
+    public String name(int code) {
+        return code == NONE ? null : names[code];
+    }
+
+    public int size() {
+        return codes.size();
+    }
+}
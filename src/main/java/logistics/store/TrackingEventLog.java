@@ -0,0 +1,214 @@
+package logistics.store;
+
+import logistics.enums.ExceptionType;
+import logistics.enums.TrackingEventType;
+import logistics.model.TrackingEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 追蹤事件的 off-heap 日誌：事件以固定格式的二進位紀錄寫進 memory-mapped 檔案，
+ * 每筆紀錄帶著同一包裹上一筆事件的位置（offset 鏈），Parcel 只需保留最後一筆的位置。
+ *
+ * 紀錄格式（48 bytes）：
+ * <pre>
+ *   0  long  前一筆事件的位置（NO_EVENT 表示沒有）
+ *   8  long  timestamp 的 epoch second（以 UTC 換算 LocalDateTime）
+ *  16  int   timestamp 的 nano
+ *  20  byte  TrackingEventType ordinal
+ *  21  byte  ExceptionType ordinal + 1（0 表示 null）
+ *  24  int   location 字典代碼
+ *  28  int   truckId 字典代碼
+ *  32  int   warehouseId 字典代碼
+ *  40  long  description 字串位置
+ * </pre>
+ * location / truckId / warehouseId 存 SymbolTable.shared() 的代碼（NONE 表示 null）；
+ * description 另存在字串區（int 長度 + UTF-8 bytes），位置為 NO_STRING 表示 null。
+ *
+ * 此日誌只是把事件移出 heap，不負責持久化；重啟後內容不保證可用。
+ * 不持久化的 core 用 {@link #inMemory()}：同樣的紀錄格式放在 heap 上的小 segment，不建立檔案。
+ */
+public final class TrackingEventLog implements Closeable {
+
+    public static final long NO_EVENT = -1L;
+
+    static final int RECORD_SIZE = 48;
+    public static final int DEFAULT_SEGMENT_SIZE = RECORD_SIZE << 20;   // 48 MB
+    static final int IN_MEMORY_SEGMENT_SIZE = RECORD_SIZE << 14;       // 768 KB
+    private static final long NO_STRING = -1L;
+
+    private static final TrackingEventType[] TYPES = TrackingEventType.values();
+    private static final ExceptionType[] EXCEPTION_TYPES = ExceptionType.values();
+
+    private final MappedSegments records;
+    private final MappedSegments strings;
+    private final Path tempDir;   // createTemp 建立的暫存目錄，close 時刪除（其他情況為 null）
+
+    /**
+     * 在 dir 下建立（或覆寫）events.dat / strings.dat。
+     */
+    public TrackingEventLog(Path dir, int segmentSize) {
+        this(dir, segmentSize, null);
+    }
+
+    private TrackingEventLog(Path dir, int segmentSize, Path tempDir) {
+        if (segmentSize % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("segmentSize 需為 " + RECORD_SIZE + " 的倍數");
+        }
+        this.records = new MappedSegments(dir.resolve("events.dat"), segmentSize);
+        this.strings = new MappedSegments(dir.resolve("strings.dat"), segmentSize);
+        this.tempDir = tempDir;
+    }
+
+    private TrackingEventLog(MappedSegments records, MappedSegments strings) {
+        this.records = records;
+        this.strings = strings;
+        this.tempDir = null;
+    }
+
+    /**
+     * heap 上的日誌：不建立檔案、不 memory-map，用多少配置多少，core 不再使用後隨 GC 回收。
+     */
+    public static TrackingEventLog inMemory() {
+        return new TrackingEventLog(new MappedSegments(IN_MEMORY_SEGMENT_SIZE),
+                new MappedSegments(IN_MEMORY_SEGMENT_SIZE));
+    }
+
+    /**
+     * 在系統暫存目錄建立 memory-mapped 日誌；暫存目錄在 close 時刪除，呼叫端須負責 close。
+     */
+    public static TrackingEventLog createTemp() {
+        try {
+            Path dir = Files.createTempDirectory("logistics-events");
+            return new TrackingEventLog(dir, DEFAULT_SEGMENT_SIZE, dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法建立事件日誌暫存目錄", e);
+        }
+    }
+
+    Path tempDir() {
+        return tempDir;
+    }
+
+    /* ========= 寫入 ========= */
+
+    /**
+     * 附加一筆事件，回傳其位置。prevRef 為同一包裹上一筆事件（第一筆傳 NO_EVENT）。
+     * 同一包裹的附加須由呼叫端序列化；不同包裹可同時附加。
+     */
+    public long append(long prevRef, TrackingEvent e) {
+        long description = putString(e.getDescription());
+
+        long ref = records.allocate(RECORD_SIZE);
+        ByteBuffer buf = records.segmentFor(ref);
+        int at = records.offsetInSegment(ref);
+        LocalDateTime ts = e.getTimestamp();
+        buf.putLong(at, prevRef);
+        buf.putLong(at + 8, ts.toEpochSecond(ZoneOffset.UTC));
+        buf.putInt(at + 16, ts.getNano());
+        buf.put(at + 20, (byte) e.getType().ordinal());
+        buf.put(at + 21, (byte) (e.getExceptionType() == null ? 0 : e.getExceptionType().ordinal() + 1));
+        buf.putInt(at + 24, e.getLocationCode());
+        buf.putInt(at + 28, e.getTruckCode());
+        buf.putInt(at + 32, e.getWarehouseCode());
+        buf.putLong(at + 40, description);
+        return ref;
+    }
+
+    private long putString(String s) {
+        if (s == null) return NO_STRING;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        long ref = strings.allocate(4 + bytes.length);
+        ByteBuffer buf = strings.segmentFor(ref);
+        int at = strings.offsetInSegment(ref);
+        buf.putInt(at, bytes.length);
+        buf.put(at + 4, bytes);
+        return ref;
+    }
+
+    /* ========= 讀取 ========= */
+
+    public TrackingEvent read(long ref) {
+        ByteBuffer buf = records.segmentFor(ref);
+        int at = records.offsetInSegment(ref);
+        LocalDateTime ts = LocalDateTime.ofEpochSecond(buf.getLong(at + 8), buf.getInt(at + 16), ZoneOffset.UTC);
+        int ex = buf.get(at + 21);
+        return TrackingEvent.ofCodes(
+                TYPES[buf.get(at + 20)],
+                ts,
+                buf.getInt(at + 24),
+                buf.getInt(at + 28),
+                buf.getInt(at + 32),
+                getString(buf.getLong(at + 40)),
+                ex == 0 ? null : EXCEPTION_TYPES[ex - 1]
+        );
+    }
+
+    public long previous(long ref) {
+        return records.segmentFor(ref).getLong(records.offsetInSegment(ref));
+    }
+
+    private String getString(long ref) {
+        if (ref == NO_STRING) return null;
+        ByteBuffer buf = strings.segmentFor(ref);
+        int at = strings.offsetInSegment(ref);
+        byte[] bytes = new byte[buf.getInt(at)];
+        buf.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 從最後一筆往回走 offset 鏈，回傳由舊到新的事件清單；元素在 get 時才解碼。
+     */
+    public List<TrackingEvent> history(long headRef) {
+        long[] refs = new long[8];
+        int n = 0;
+        for (long r = headRef; r != NO_EVENT; r = previous(r)) {
+            if (n == refs.length) refs = Arrays.copyOf(refs, n * 2);
+            refs[n++] = r;
+        }
+        long[] chain = refs;
+        int size = n;
+        return new AbstractList<TrackingEvent>() {
+            @Override
+            public TrackingEvent get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+                return read(chain[size - 1 - index]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 已使用的檔案空間（事件紀錄 + 字串區）。
+     */
+    public long bytesUsed() {
+        return records.bytesUsed() + strings.bytesUsed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+        strings.close();
+        if (tempDir != null) {
+            Files.deleteIfExists(tempDir.resolve("events.dat"));
+            Files.deleteIfExists(tempDir.resolve("strings.dat"));
+            Files.deleteIfExists(tempDir);
+        }
+    }
+}
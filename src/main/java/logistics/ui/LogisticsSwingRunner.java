@@ -5,6 +5,7 @@ import logistics.enums.*;
 import logistics.model.*;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -823,6 +824,11 @@ public class LogisticsSwingRunner {
                 // 登出後要求重新登入/註冊；若選擇離開則退出
                 if (!ensureLoggedIn()) {
                     showMessage("已離開系統。");
+                    try {
+                        core.close();
+                    } catch (IOException ignored) {
+                        // 即將結束程式
+                    }
                     System.exit(0);
                 }
             }
@@ -0,0 +1,157 @@
+package logistics.api.impl;
+
+import logistics.core.LogisticsCore;
+import logistics.enums.*;
+import logistics.model.*;
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncLogisticsApiImplTest {
+
+    /**
+     * 送進來的工作先排隊，呼叫 runAll 才在測試執行緒上執行，用來控制「呼叫當下」與「工作執行時」的先後。
+     */
+    private static final class QueuedExecutor implements Executor {
+        final Queue<Runnable> pending = new ArrayDeque<>();
+        int submitted;
+
+        @Override
+        public void execute(Runnable task) {
+            submitted++;
+            pending.add(task);
+        }
+
+        void runAll() {
+            Runnable r;
+            while ((r = pending.poll()) != null) r.run();
+        }
+    }
+
+    private LogisticsCore core;
+    private LogisticsApiImpl api;
+    private Customer alice;
+    private Customer bob;
+    private ServiceType st;
+
+    @BeforeEach
+    void setUp() {
+        core = new LogisticsCore();
+        api = new LogisticsApiImpl(core);
+        alice = api.createCustomer("Alice", "Kaohsiung", "0912", "a@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+        bob = api.createCustomer("Bob", "Taipei", "0922", "b@mail.com",
+                CustomerType.CONTRACT, BillingPreference.MONTHLY);
+        st = api.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+        api.register("clerk", "secret1", Role.CUSTOMER_SERVICE, null);
+        api.register("alice", "secret2", Role.CUSTOMER, alice);
+        api.logout();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        core.close();
+    }
+
+    private static Throwable cause(CompletableFuture<?> f) {
+        CompletionException e = assertThrows(CompletionException.class, f::join);
+        return e.getCause();
+    }
+
+    @Test
+    @DisplayName("async：操作者在呼叫當下取得，之後登出或換人登入不影響已送出的工作")
+    void operatorCapturedAtCallTime(TestReporter reporter) {
+        QueuedExecutor executor = new QueuedExecutor();
+        AsyncLogisticsApiImpl async = new AsyncLogisticsApiImpl(core, api, executor);
+
+        api.login("clerk", "secret1");
+        CompletableFuture<Parcel> asClerk = async.createParcel(bob, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        api.logout();
+        CompletableFuture<Parcel> loggedOut = async.createParcel(bob, st, 1, 10, 10, 10, 100, "y", false, false, false);
+        api.login("alice", "secret2");
+        assertFalse(asClerk.isDone(), "工作還在排隊");
+
+        executor.runAll();
+        Parcel p = asClerk.join();
+        reporter.publishEntry("PARCEL", p.trackingNumber);
+        assertSame(bob, p.sender, "以送出當下的客服身分建立，執行時已換成 alice 也不影響");
+        assertInstanceOf(SecurityException.class, cause(loggedOut), "送出時沒有登入者");
+    }
+
+    @Test
+    @DisplayName("async：core 丟出的 IllegalArgumentException / SecurityException 由 future 以例外完成")
+    void coreExceptionsCompleteExceptionally() {
+        QueuedExecutor executor = new QueuedExecutor();
+        AsyncLogisticsApiImpl async = new AsyncLogisticsApiImpl(core, api, executor);
+        api.login("alice", "secret2");
+
+        CompletableFuture<Parcel> malformed = async.searchByTrackingNumber("T123");
+        CompletableFuture<PeriodBalance> othersBalance = async.getCurrentBalance(bob.id, YearMonth.now());
+        CompletableFuture<Parcel> forBob = async.createParcel(bob, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        executor.runAll();
+
+        assertInstanceOf(IllegalArgumentException.class, cause(malformed));
+        assertInstanceOf(SecurityException.class, cause(othersBalance), "客戶不可查他人的累計");
+        assertInstanceOf(SecurityException.class, cause(forBob), "客戶不可替他人建立包裹");
+    }
+
+    @Test
+    @DisplayName("async：出帳與日期查詢這類大量工作在指定的 executor 上執行，不在呼叫端執行緒")
+    void heavyCallsRunOnSuppliedExecutor() {
+        QueuedExecutor executor = new QueuedExecutor();
+        AsyncLogisticsApiImpl async = new AsyncLogisticsApiImpl(core, api, executor);
+        api.login("clerk", "secret1");
+        api.createParcel(bob, st, 1, 10, 10, 10, 100, "x", false, false, false);
+
+        LocalDate today = LocalDate.now();
+        CompletableFuture<BillingRecord> bill = async.generateBillingRecord(bob, today, today, Map.of(),
+                PaymentMethod.CASH);
+        CompletableFuture<List<Parcel>> found = async.searchByDateRange(today, today);
+        assertEquals(2, executor.submitted);
+        assertFalse(bill.isDone(), "呼叫端沒有直接執行");
+        assertFalse(found.isDone());
+
+        executor.runAll();
+        assertEquals(1, bill.join().getItems().size());
+        assertEquals(1, found.join().size());
+    }
+
+    @Test
+    @DisplayName("async：close 只關閉自有的執行緒池，外部傳入的 executor 由呼叫端管理")
+    void closeShutsDownOnlyOwnedPool() throws Exception {
+        api.login("clerk", "secret1");
+
+        ExecutorService injected = Executors.newSingleThreadExecutor();
+        try {
+            AsyncLogisticsApiImpl async = new AsyncLogisticsApiImpl(core, api, injected);
+            async.close();
+            assertFalse(injected.isShutdown(), "外部的 executor 不受影響");
+            assertEquals(YearMonth.now(),
+                    async.getCurrentBalance(bob.id, YearMonth.now()).get(5, TimeUnit.SECONDS).getPeriod(),
+                    "close 後仍可經外部的 executor 呼叫");
+        } finally {
+            injected.shutdownNow();
+        }
+
+        AsyncLogisticsApiImpl owning = new AsyncLogisticsApiImpl(core, api);
+        assertNotNull(owning.getCurrentBalance(bob.id, YearMonth.now()).get(5, TimeUnit.SECONDS));
+        owning.close();
+        assertThrows(RejectedExecutionException.class,
+                () -> owning.getCurrentBalance(bob.id, YearMonth.now()), "自有的執行緒池已關閉");
+    }
+}
@@ -0,0 +1,143 @@
+package logistics.api.impl;
+
+import logistics.core.LogisticsCore;
+import logistics.enums.*;
+import logistics.model.*;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionTableTest {
+
+    private final List<LogisticsCore> cores = new ArrayList<>();
+
+    @AfterEach
+    void closeCores() throws Exception {
+        for (LogisticsCore c : cores) c.close();
+    }
+
+    private LogisticsCore newCore() {
+        LogisticsCore core = new LogisticsCore();
+        cores.add(core);
+        return core;
+    }
+
+    @Test
+    @DisplayName("session：閒置超過 TTL 失效，使用中會延長；過期的 session 由 open 清掃")
+    void ttlEviction(TestReporter reporter) {
+        AtomicLong now = new AtomicLong();
+        SessionTable table = new SessionTable(Duration.ofSeconds(10), now::get);
+        User alice = new User("alice", Role.ADMIN, null);
+        User bob = new User("bob", Role.DRIVER, null);
+
+        String a = table.open(alice);
+        String b = table.open(bob);
+        assertNotEquals(a, b);
+        reporter.publishEntry("TOKEN", a);
+
+        now.set(Duration.ofSeconds(8).toNanos());
+        assertSame(alice, table.resolve(a), "8 秒時仍有效，並延長到 18 秒");
+        now.set(Duration.ofSeconds(15).toNanos());
+        assertSame(alice, table.resolve(a));
+        assertThrows(SecurityException.class, () -> table.resolve(b), "bob 閒置超過 10 秒");
+        assertThrows(SecurityException.class, () -> table.resolve("forged"));
+
+        String c = table.open(bob);
+        now.set(Duration.ofSeconds(40).toNanos());
+        table.open(bob);   // 觸發清掃：a、c 都已過期
+        assertEquals(1, table.size());
+        assertThrows(SecurityException.class, () -> table.resolve(c));
+
+        table.close(a);
+        assertThrows(SecurityException.class, () -> table.resolve(a));
+    }
+
+    @Test
+    @DisplayName("session：同一個 API 實例以 token 同時服務不同角色的操作者")
+    void sharedApiServesManyOperators() {
+        LogisticsCore core = newCore();
+        LogisticsApiImpl api = new LogisticsApiImpl(core);
+        Customer alice = api.createCustomer("Alice", "Kaohsiung", "0912", "a@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+        Customer bob = api.createCustomer("Bob", "Taipei", "0922", "b@mail.com",
+                CustomerType.CONTRACT, BillingPreference.MONTHLY);
+        ServiceType st = api.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+        api.register("clerk", "secret1", Role.CUSTOMER_SERVICE, null);
+        api.register("alice", "secret2", Role.CUSTOMER, alice);
+        api.logout();
+
+        String clerk = api.openSession("clerk", "secret1");
+        String aliceToken = api.openSession("alice", "secret2");
+        assertNull(api.currentUser(), "openSession 不影響共用實例的 currentUser");
+        assertThrows(SecurityException.class, () -> api.openSession("alice", "wrong-pw"));
+
+        Parcel forBob = api.session(clerk).createParcel(bob, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        Parcel forAlice = api.session(aliceToken).createParcel(alice, st, 1, 10, 10, 10, 100, "y", false, false, false);
+        assertEquals(Role.CUSTOMER, api.session(aliceToken).currentUser().getRole());
+        assertThrows(SecurityException.class,
+                () -> api.session(aliceToken).getByTrackingNumber(forBob.trackingNumber), "客戶不可看他人包裹");
+        assertSame(forAlice, api.session(clerk).getByTrackingNumber(forAlice.trackingNumber));
+        assertSame(st, api.session(clerk).getServiceType(st.getId()), "檢視共用 serviceType cache");
+
+        LogisticsApiImpl view = api.session(aliceToken);
+        view.logout();
+        assertThrows(SecurityException.class, () -> view.searchByCustomer(alice.id), "登出後 token 失效");
+        assertThrows(SecurityException.class, () -> api.session(aliceToken));
+        assertThrows(IllegalStateException.class, () -> api.session(clerk).login("alice", "secret2"));
+    }
+
+    @Test
+    @DisplayName("註冊：多個 session 同時註冊同一個帳號，只有一個成功，不會互相覆蓋")
+    void concurrentRegisterSameUsername(TestReporter reporter) throws Exception {
+        LogisticsApiImpl api = new LogisticsApiImpl(newCore());
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                String password = "secret" + i;
+                results.add(pool.submit(() -> {
+                    start.await();   // 各執行緒同時起跑
+                    try {
+                        api.register("dup", password, Role.DRIVER, null);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int ok = 0;
+            for (Future<Boolean> f : results) {
+                if (f.get(30, TimeUnit.SECONDS)) ok++;
+            }
+            reporter.publishEntry("REGISTERED", String.valueOf(ok));
+            assertEquals(1, ok, "同名只有一個註冊成功");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        int accepted = 0;
+        for (int i = 0; i < threads; i++) {
+            try {
+                api.openSession("dup", "secret" + i);
+                accepted++;
+            } catch (SecurityException ignored) {
+                // 其他密碼
+            }
+        }
+        assertEquals(1, accepted, "留下的帳號就是唯一成功註冊的那一個");
+    }
+}
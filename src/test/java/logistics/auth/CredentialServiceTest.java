@@ -0,0 +1,120 @@
+package logistics.auth;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CredentialServiceTest {
+
+    /**
+     * 計算實際跑了幾次 KDF；gate 不為 null 時每次驗證先等它放行。
+     */
+    private static final class CountingVerifier implements PasswordVerifier {
+        final PasswordVerifier inner = new Pbkdf2PasswordVerifier(1_000);
+        final AtomicInteger verifies = new AtomicInteger();
+        volatile CountDownLatch gate;
+
+        @Override
+        public String hash(String rawPassword) {
+            return inner.hash(rawPassword);
+        }
+
+        @Override
+        public boolean verify(String rawPassword, String storedHash) {
+            verifies.incrementAndGet();
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return inner.verify(rawPassword, storedHash);
+        }
+    }
+
+    @Test
+    @DisplayName("PBKDF2：每次雜湊的 salt 不同，驗證正確/錯誤密碼；舊版 SHA-256 雜湊仍可驗證")
+    void pbkdf2AndLegacy(TestReporter reporter) {
+        Pbkdf2PasswordVerifier v = new Pbkdf2PasswordVerifier(5_000);
+        String h1 = v.hash("secret1");
+        String h2 = v.hash("secret1");
+        reporter.publishEntry("HASH", h1);
+
+        assertTrue(h1.startsWith("pbkdf2-sha256$5000$"));
+        assertNotEquals(h1, h2, "salt 應隨機");
+        assertTrue(v.verify("secret1", h1));
+        assertFalse(v.verify("secret2", h1));
+        assertTrue(new Pbkdf2PasswordVerifier(50_000).verify("secret1", h1), "調高成本後舊雜湊仍以原次數驗證");
+
+        String legacy = Pbkdf2PasswordVerifier.legacySha256("secret1");
+        assertTrue(v.verify("secret1", legacy));
+        assertFalse(v.verify("secret2", legacy));
+        assertFalse(v.verify("secret1", "pbkdf2-sha256$x$y$z"));
+    }
+
+    @Test
+    @DisplayName("登入尖峰：同帳密同時驗證只算一次 KDF，之後命中快取；錯誤密碼不快取，改密碼後重新驗證")
+    void dedupeAndCache(TestReporter reporter) throws Exception {
+        CountingVerifier v = new CountingVerifier();
+        AtomicLong now = new AtomicLong();
+        CredentialService cs = new CredentialService(v, 2, 100, Duration.ofSeconds(60), now::get);
+        String stored = v.hash("secret1");
+
+        v.gate = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(callers.submit(() -> cs.verify("driver7", "secret1", stored)));
+            }
+            Thread.sleep(100);   // 讓所有呼叫都排上同一個進行中的驗證
+            v.gate.countDown();
+            for (Future<Boolean> f : results) {
+                assertTrue(f.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        v.gate = null;
+        reporter.publishEntry("STORM", "32 concurrent logins -> " + v.verifies.get() + " KDF run(s)");
+        assertEquals(1, v.verifies.get());
+
+        assertTrue(cs.verify("driver7", "secret1", stored));
+        assertEquals(1, v.verifies.get(), "快取期間不重算");
+        assertFalse(cs.verify("driver7", "wrong-pw", stored));
+        assertFalse(cs.verify("driver7", "wrong-pw", stored));
+        assertEquals(3, v.verifies.get(), "錯誤密碼每次都要算");
+
+        String changed = v.hash("secret9");
+        assertFalse(cs.verify("driver7", "secret1", changed), "改密碼後舊快取不適用");
+        now.set(Duration.ofSeconds(61).toNanos());
+        assertTrue(cs.verify("driver7", "secret9", changed));
+        assertEquals(5, v.verifies.get());
+    }
+
+    @Test
+    @DisplayName("驗證佇列滿時直接拒絕，不讓等待無限拉長")
+    void rejectsWhenSaturated() throws Exception {
+        CountingVerifier v = new CountingVerifier();
+        CredentialService cs = new CredentialService(v, 1, 1, Duration.ZERO);
+        String stored = v.hash("secret1");
+        v.gate = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> running = cs.verifyAsync("a", "secret1", stored);
+        CompletableFuture<Boolean> queued = cs.verifyAsync("b", "secret1", stored);
+        assertThrows(IllegalStateException.class, () -> cs.verify("c", "secret1", stored));
+
+        v.gate.countDown();
+        assertTrue(running.get(10, TimeUnit.SECONDS));
+        assertTrue(queued.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -1,12 +1,30 @@
 package logistics.core;
 
 import logistics.enums.*;
+import logistics.geo.DistanceService;
 import logistics.model.*;
+import logistics.persist.FsyncPolicy;
+import logistics.store.ParcelColumns;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -62,6 +80,11 @@ class LogisticsCoreTest {
         bobUser = new User("customer#" + bob.id, Role.CUSTOMER, bob);
     }
 
+    @AfterEach
+    void tearDown() throws Exception {
+        core.close();
+    }
+
     /* ===================== TestReporter ===================== */
 
     private void info(TestReporter reporter, String message) {
@@ -147,6 +170,42 @@ void deleteCustomer_removesCustomer_and_checkPermission(TestReporter reporter) {
         info(reporter, "PASS：追蹤編號生成規則/唯一性驗證成功");
     }
 
+    @Test
+    @DisplayName("1.3 批次建立包裹：整批驗證後才建立，編號連續、PICKED_UP 時間相同")
+    void createParcels_batch(TestReporter reporter) {
+        info(reporter, "開始測試：批次建立包裹");
+
+        List<ParcelSpec> specs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            specs.add(new ParcelSpec(alice, st, 1 + i, 10, 10, 10, 100, "item-" + i, false, false, false));
+        }
+
+        step(reporter, "EXPECT_DENY", "第 3 筆超重 / 夾帶他人包裹，整批都不建立");
+        List<ParcelSpec> overweight = new ArrayList<>(specs);
+        overweight.set(3, new ParcelSpec(alice, st, 25, 10, 10, 10, 100, "heavy", false, false, false));
+        assertThrows(IllegalArgumentException.class, () -> core.createParcels(admin, overweight));
+        List<ParcelSpec> mixed = new ArrayList<>(specs);
+        mixed.add(new ParcelSpec(bob, st, 1, 10, 10, 10, 100, "bob", false, false, false));
+        assertThrows(SecurityException.class, () -> core.createParcels(aliceUser, mixed));
+        assertTrue(core.searchByCustomer(admin, alice.id).isEmpty(), "驗證失敗時不應建立任何包裹");
+
+        Parcel[] created = core.createParcels(aliceUser, specs);
+        step(reporter, "CREATED", created[0].trackingNumber + " ~ " + created[4].trackingNumber);
+
+        assertEquals(5, created.length);
+        long first = TrackingNumberAllocator.parse(created[0].trackingNumber) / 10;
+        for (int i = 0; i < created.length; i++) {
+            assertEquals("item-" + i, created[i].description, "回傳順序應與輸入相同");
+            assertEquals(first + i, TrackingNumberAllocator.parse(created[i].trackingNumber) / 10, "編號應連續");
+            assertEquals(created[0].getCurrentStatus().getTimestamp(), created[i].getCurrentStatus().getTimestamp());
+            assertEquals(TrackingEventType.PICKED_UP, created[i].getCurrentStatus().getType());
+        }
+        assertEquals(5, core.searchByCustomer(admin, alice.id).size());
+        assertSame(created[2], core.searchByTrackingNumber(admin, created[2].trackingNumber));
+
+        info(reporter, "PASS：批次建立包裹驗證成功");
+    }
+
     @Test
     @DisplayName("1.6 權限：客戶只能替自己建立包裹（不能替他人）")
     void customerCannotCreateParcelForOthers(TestReporter reporter) {
@@ -188,6 +247,40 @@ void deleteCustomer_removesCustomer_and_checkPermission(TestReporter reporter) {
         info(reporter, "PASS：倉儲角色事件權限驗證成功");
     }
 
+    @Test
+    @DisplayName("1.4 追蹤：批次新增事件依包裹分組套用，失敗逐筆回報不中止整批")
+    void addTrackingEvents_batch(TestReporter reporter) {
+        info(reporter, "開始測試：倉儲人員批次送出掃描事件");
+
+        Parcel p1 = core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        Parcel p2 = core.createParcel(admin, bob, st, 1, 10, 10, 10, 100, "y", false, false, false);
+
+        List<EventSpec> scans = List.of(
+                new EventSpec(p1.trackingNumber, TrackingEventType.ENTER_WAREHOUSE, "台中", null, "WH-2", "in", null),
+                new EventSpec(p2.trackingNumber, TrackingEventType.ENTER_WAREHOUSE, "台中", null, "WH-2", "in", null),
+                new EventSpec(p1.trackingNumber, TrackingEventType.IN_TRANSIT, "路上", "TRUCK-2", null, "x", null),
+                new EventSpec(TrackingNumberAllocator.format(TrackingNumberAllocator.toId(0, 99_999)), TrackingEventType.SORTED, "台中", null, "WH-2", "x", null),
+                new EventSpec(p1.trackingNumber, TrackingEventType.SORTED, "台中", null, "WH-2", "sorted", null),
+                new EventSpec("BAD", TrackingEventType.SORTED, "台中", null, "WH-2", "x", null));
+        BatchResult r = core.addTrackingEvents(wh, scans);
+        step(reporter, "RESULT", r + " failures=" + r.getFailures().keySet());
+
+        assertEquals(3, r.getAccepted());
+        assertEquals(Set.of(2, 3, 5), r.getFailures().keySet());
+        assertInstanceOf(SecurityException.class, r.getFailures().get(2), "倉儲不可新增 IN_TRANSIT");
+        assertInstanceOf(IllegalArgumentException.class, r.getFailures().get(3), "不存在的包裹");
+        assertInstanceOf(IllegalArgumentException.class, r.getFailures().get(5), "格式錯誤的編號");
+
+        List<TrackingEvent> h1 = core.getHistory(admin, p1.trackingNumber);
+        assertEquals(List.of(TrackingEventType.PICKED_UP, TrackingEventType.ENTER_WAREHOUSE, TrackingEventType.SORTED),
+                h1.stream().map(TrackingEvent::getType).toList(), "同一包裹的事件保留輸入順序");
+        assertEquals(h1.get(1).getTimestamp(), core.getCurrentStatus(admin, p2.trackingNumber).getTimestamp(),
+                "整批共用同一時間");
+        assertEquals(2, core.searchByWarehouseId(admin, "WH-2").size(), "倉庫索引應一併更新");
+
+        info(reporter, "PASS：批次追蹤事件驗證成功");
+    }
+
     @Test
     @DisplayName("1.6 權限：客戶只能看自己的貨件狀態/歷史")
     void customerCanOnlyViewOwnParcels(TestReporter reporter) {
@@ -338,6 +431,331 @@ void deleteCustomer_removesCustomer_and_checkPermission(TestReporter reporter) {
         info(reporter, "PASS：計費公式驗證成功");
     }
 
+    @Test
+    @DisplayName("1.5 計費：費率表批次計價與逐件 calculateCharge 逐位元一致")
+    void tariffBatchPricing(TestReporter reporter) {
+        info(reporter, "開始測試：費率表批次計價");
+
+        int n = 1000;
+        Random rnd = new Random(7);
+        double[] weight = new double[n], length = new double[n], width = new double[n], height = new double[n];
+        double[] distance = new double[n];
+        byte[] flags = new byte[n];
+        Parcel[] parcels = new Parcel[n];
+        for (int i = 0; i < n; i++) {
+            weight[i] = rnd.nextDouble() * 20;
+            length[i] = rnd.nextDouble() * 150;
+            width[i] = rnd.nextDouble() * 110;
+            height[i] = rnd.nextDouble() * 60;
+            distance[i] = rnd.nextDouble() * 300;
+            boolean dangerous = rnd.nextInt(10) == 0;
+            boolean fragile = rnd.nextInt(4) == 0;
+            parcels[i] = new Parcel("T" + i, alice, st, weight[i], length[i], width[i], height[i],
+                    0, "t", dangerous, fragile, false);
+            flags[i] = (byte) Tariff.flags(parcels[i]);
+        }
+        double[] batch = st.getTariff().charges(weight, length, width, height, distance, flags);
+        for (int i = 0; i < n; i++) {
+            assertEquals(core.calculateCharge(parcels[i], distance[i]), batch[i], "第 " + i + " 件");
+        }
+        step(reporter, "VERIFY", "n=" + n + ", sample=" + batch[0]);
+
+        assertEquals(Tariff.OVERSIZE | Tariff.FRAGILE, Tariff.flags(false, true, 100.5, 10, 10));
+        assertEquals(0, Tariff.flags(false, false, 100, 100, 100), "剛好 100 公分不算超大");
+
+        info(reporter, "PASS：費率表批次計價驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：報價走快取；調價後報價失效、客戶月累計改以新價重算，重啟後價格相同")
+    void quoteAndPricingUpdate(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：報價快取 + 調價");
+
+        double q = core.quote(st, 1.3, 20, 10, 10, 12.4, false, true);
+        assertEquals(q, core.quote(st, 1.5, 20, 10, 10, 13.0, false, true), "同級距的報價相同");
+        assertEquals(st.getTariff().chargeForVolume(1.5, 0.002, 13.0, Tariff.FRAGILE), q, 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> core.quote(st, 25, 10, 10, 10, 5, false, false),
+                "超出服務類型重量範圍");
+        step(reporter, "QUOTE", core.quoteStats().toString());
+        assertEquals(1, core.quoteStats().hits);
+
+        Parcel p = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "x", false, false, false);
+        core.setFinalDistance(admin, p.trackingNumber, 30.0);
+        assertThrows(SecurityException.class, () -> core.updateServiceTypePricing(cs, st.getId(),
+                1, 1, 1, 1, 1, 1, 1));
+        core.updateServiceTypePricing(admin, st.getId(), 70, 3, 10, 100, 30, 20, 40);
+
+        assertEquals(70, st.getBasePrice());
+        assertEquals(q + 20 + 13.0, core.quote(st, 1.5, 20, 10, 10, 13.0, false, true), 1e-9,
+                "基本費 +20、每公里 +1");
+        PeriodBalance balance = core.currentBalance(admin, alice.id, YearMonth.now());
+        step(reporter, "BALANCE", balance.toString());
+        assertEquals(core.calculateCharge(p, 30.0), balance.getTotalAmount(), 1e-9);
+        assertEquals(70 + 3 * 30.0 + 10 * 2 + 100 * 0.001, balance.getTotalAmount(), 1e-9);
+
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 5, FsyncPolicy.GROUP)) {
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            durable.updateServiceTypePricing(admin, s.getId(), 55, 2, 10, 100, 30, 20, 40);
+        }
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 5, FsyncPolicy.GROUP)) {
+            assertEquals(55, restored.serviceTypes.get(1L).getBasePrice(), "調價寫進 WAL");
+        }
+
+        info(reporter, "PASS：報價快取 + 調價驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：設定距離服務後依寄件地址到收件地址的區域距離計價，對不到時用暫定距離；收件地址寫進 WAL")
+    void billingUsesDistanceService(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：離線距離服務計價");
+
+        Path zones = dataDir.resolve("zones.csv");
+        Files.write(zones, String.join("\n",
+                "zone,KHH,22.6273,120.3014,10,高雄|kaohsiung",
+                "zone,TPE,25.0330,121.5654,8,台北|taipei",
+                "distance,KHH,TPE,350").getBytes(StandardCharsets.UTF_8));
+        DistanceService ds = DistanceService.load(zones);
+
+        Parcel toTaipei = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "x",
+                false, false, false, "台北市信義區");
+        Parcel unknown = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "x",
+                false, false, false, "Tokyo");
+        PeriodBalance before = core.currentBalance(admin, alice.id, YearMonth.now());
+        assertEquals(2 * core.calculateCharge(toTaipei, LogisticsCore.PROVISIONAL_DISTANCE_KM),
+                before.getTotalAmount(), 1e-9, "還沒有距離服務時都用暫定距離");
+
+        core.setDistanceService(ds);
+        PeriodBalance after = core.currentBalance(admin, alice.id, YearMonth.now());
+        step(reporter, "BALANCE", after.toString());
+        assertEquals(core.calculateCharge(toTaipei, 350) + core.calculateCharge(unknown, LogisticsCore.PROVISIONAL_DISTANCE_KM),
+                after.getTotalAmount(), 1e-9, "設定後重算月累計");
+
+        // 已開出整月帳單的客戶：換距離服務不動已結帳的累計
+        Parcel bobs = core.createParcel(admin, bob, st, 2, 10, 10, 10, 100, "b",
+                false, false, false, "高雄市");   // Bob 在台北
+        BillingRecord bobInvoice = core.generateBillingRecord(bob, YearMonth.now().atDay(1),
+                YearMonth.now().atEndOfMonth(), Map.of(), PaymentMethod.MONTHLY_ACCOUNT);
+        core.setDistanceService(null);
+        assertEquals(bobInvoice.getTotalCents(), core.currentBalance(admin, bob.id, YearMonth.now()).getTotalCents());
+        assertEquals(Money.toCents(core.calculateCharge(bobs, 350)), bobInvoice.getTotalCents());
+        core.setDistanceService(ds);
+
+        Parcel local = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "x",
+                false, false, false, "高雄市前鎮區");
+        BillingRecord bill = core.generateBillingRecord(alice, LocalDate.now(), LocalDate.now(),
+                Map.of(), PaymentMethod.MONTHLY_ACCOUNT);
+        assertEquals(core.calculateCharge(local, 10), bill.getItems().stream()
+                .filter(i -> i.getTrackingNumber().equals(local.trackingNumber))
+                .findFirst().orElseThrow().getAmount(), 1e-9, "區內距離");
+        assertEquals(core.currentBalance(admin, alice.id, YearMonth.now()).getTotalAmount(), bill.getTotalAmount(), 1e-9);
+
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 5, FsyncPolicy.GROUP)) {
+            Customer c = durable.createCustomer("Carol", "Kaohsiung", "0933", "c@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            durable.createParcel(admin, c, s, 1, 10, 10, 10, 100, "x", false, false, false, "Taipei");
+        }
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 5, FsyncPolicy.GROUP)) {
+            restored.setDistanceService(ds);
+            Parcel p = restored.searchByCustomer(admin, 1).get(0);
+            assertEquals("Taipei", p.destination, "收件地址寫進 WAL");
+            assertEquals(restored.calculateCharge(p, 350),
+                    restored.currentBalance(admin, p.sender.id, YearMonth.now()).getTotalAmount(), 1e-9);
+        }
+
+        info(reporter, "PASS：離線距離服務計價驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：金額以分為單位精確加總，帳單合計在 addItem 時累加，溢位直接拒絕")
+    void moneyExactTotals(TestReporter reporter) {
+        info(reporter, "開始測試：Money 與帳單合計");
+
+        assertEquals(1005, Money.toCents(10.045 + 1e-12));
+        assertEquals(-5, Money.of(-0.05).cents());
+        assertEquals("-0.05", Money.of(-0.05).toString());
+        assertEquals("263.40", Money.of(263.40000000000003).toString());
+        assertEquals(Money.ofCents(30), Money.of(0.1).plus(Money.of(0.2)));
+        assertEquals(Money.of(0.3), Money.of(0.1).times(3));
+        assertThrows(IllegalArgumentException.class, () -> Money.toCents(Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.ofCents(Long.MAX_VALUE).plus(Money.ofCents(1)));
+
+        Parcel p = core.createParcel(admin, bob, st, 2, 10, 10, 10, 100, "x", false, false, false);
+        BillingRecord br = new BillingRecord("B0", bob, LocalDate.now(), LocalDate.now());
+        double naive = 0;
+        for (int i = 0; i < 100_000; i++) {
+            br.addItem(new BillingItem(p, 0.1, PaymentMethod.MONTHLY_ACCOUNT));
+            naive += 0.1;
+        }
+        step(reporter, "TOTAL", br + " / double 逐筆相加=" + naive);
+        assertEquals(1_000_000, br.getTotalCents());
+        assertEquals(Money.ofCents(1_000_000), br.getTotal());
+        assertEquals(10_000.0, br.getTotalAmount());
+        assertNotEquals(10_000.0, naive, "double 逐筆相加會累積誤差");
+        assertTrue(br.toString().contains("total=10000.00"));
+
+        BillingRecord huge = new BillingRecord("B1", bob, LocalDate.now(), LocalDate.now());
+        huge.addItem(new BillingItem(p, Money.ofCents(Long.MAX_VALUE), PaymentMethod.CASH));
+        assertThrows(ArithmeticException.class,
+                () -> huge.addItem(new BillingItem(p, Money.ofCents(1), PaymentMethod.CASH)));
+        assertEquals(1, huge.getItems().size(), "溢位的明細不加入");
+
+        info(reporter, "PASS：Money 與帳單合計驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 帳單歷史：依客戶與期間索引，由新到舊游標分頁，可依期間過濾；客戶角色只看得到自己的帳單")
+    void billingHistoryPaged(TestReporter reporter) {
+        info(reporter, "開始測試：帳單歷史分頁");
+
+        YearMonth first = YearMonth.of(2023, 1);
+        for (int m = 0; m < 30; m++) {
+            YearMonth ym = first.plusMonths(m);
+            core.generateBillingRecord(alice, ym.atDay(1), ym.atEndOfMonth(), Map.of(), PaymentMethod.CASH);
+            core.generateBillingRecord(bob, ym.atDay(1), ym.atEndOfMonth(), Map.of(), PaymentMethod.CASH);
+        }
+
+        BillingPage page = core.getBillingHistory(admin, alice.id, null, null, null, 12);
+        step(reporter, "PAGE1", page.toString());
+        assertEquals(12, page.getRecords().size());
+        assertEquals(first.plusMonths(29).atDay(1), page.getRecords().get(0).getPeriodStart(), "最新的在前");
+        assertTrue(page.hasMore());
+
+        List<BillingRecord> all = new ArrayList<>(page.getRecords());
+        while (page.hasMore()) {
+            page = core.getBillingHistory(admin, alice.id, null, null, page.getNextCursor(), 12);
+            all.addAll(page.getRecords());
+        }
+        assertEquals(30, all.size(), "逐頁取完不重複、不遺漏");
+        for (int i = 0; i < all.size(); i++) {
+            assertSame(alice, all.get(i).getCustomer());
+            assertEquals(first.plusMonths(29 - i).atDay(1), all.get(i).getPeriodStart());
+        }
+        assertEquals(30, core.getBillingHistoryForCustomer(alice.id).size());
+        assertEquals(first.atDay(1), core.getBillingHistoryForCustomer(alice.id).get(0).getPeriodStart(),
+                "完整歷史由舊到新");
+
+        BillingPage y2024 = core.getBillingHistory(admin, alice.id, LocalDate.of(2024, 1, 1),
+                LocalDate.of(2024, 12, 31), null, 5);
+        assertEquals(LocalDate.of(2024, 12, 1), y2024.getRecords().get(0).getPeriodStart());
+        BillingPage rest = core.getBillingHistory(admin, alice.id, LocalDate.of(2024, 1, 1),
+                LocalDate.of(2024, 12, 31), y2024.getNextCursor(), 100);
+        assertEquals(7, rest.getRecords().size());
+        assertEquals(LocalDate.of(2024, 1, 1), rest.getRecords().get(6).getPeriodStart());
+        assertFalse(rest.hasMore());
+
+        assertEquals(3, core.getBillingHistory(aliceUser, alice.id, null, null, null, 3).getRecords().size());
+        assertTrue(core.getBillingHistory(aliceUser, bob.id, null, null, null, 3).getRecords().isEmpty(),
+                "客戶角色查他人帳單得到空頁");
+        String bobCursor = core.getBillingHistory(admin, bob.id, null, null, null, 1).getNextCursor();
+        assertThrows(IllegalArgumentException.class,
+                () -> core.getBillingHistory(admin, alice.id, null, null, bobCursor, 12), "游標須屬於同一位客戶");
+        assertThrows(IllegalArgumentException.class,
+                () -> core.getBillingHistory(admin, alice.id, null, null, "garbage", 12));
+        assertThrows(IllegalArgumentException.class,
+                () -> core.getBillingHistory(admin, alice.id, null, null, null, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> core.getBillingHistory(admin, alice.id, LocalDate.of(2024, 2, 1), LocalDate.of(2024, 1, 1), null, 12));
+
+        info(reporter, "PASS：帳單歷史分頁驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：整月帳單開出後該月結帳，調價與距離修正只重算未結帳月份，已結帳累計仍等於帳單")
+    void pricingUpdateSkipsClosedPeriods(TestReporter reporter) {
+        info(reporter, "開始測試：調價只重算未結帳月份");
+
+        YearMonth month = YearMonth.now();
+        Parcel a = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "a", false, false, false);
+        Parcel b = core.createParcel(admin, bob, st, 2, 10, 10, 10, 100, "b", false, false, false);
+        BillingRecord invoice = core.generateBillingRecord(alice, month.atDay(1), month.atEndOfMonth(),
+                Map.of(), PaymentMethod.CASH);
+        // 只涵蓋部分月份的帳單不結帳
+        core.generateBillingRecord(bob, month.atDay(1), month.atDay(1), Map.of(), PaymentMethod.CASH);
+
+        core.updateServiceTypePricing(admin, st.getId(), 80, 2, 10, 100, 30, 20, 40);
+        core.setFinalDistance(admin, a.trackingNumber, 99.0);
+        PeriodBalance closed = core.currentBalance(admin, alice.id, month);
+        PeriodBalance open = core.currentBalance(admin, bob.id, month);
+        step(reporter, "CLOSED", closed.toString());
+        step(reporter, "OPEN", open.toString());
+
+        assertEquals(invoice.getTotalCents(), closed.getTotalCents(), "已結帳月份維持帳單金額");
+        assertEquals(Money.toCents(core.calculateCharge(b, LogisticsCore.PROVISIONAL_DISTANCE_KM)),
+                open.getTotalCents(), "未結帳月份以新價格重算");
+        assertEquals(99.0, a.finalDistanceKm, "距離照樣記錄，只是不改已結帳的累計");
+
+        Parcel late = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "late", false, false, false);
+        assertEquals(invoice.getTotalCents() + Money.toCents(core.calculateCharge(late, 10.0)),
+                core.currentBalance(admin, alice.id, month).getTotalCents(), "結帳後新寄的件仍計入件數與金額");
+
+        info(reporter, "PASS：調價只重算未結帳月份驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：重啟後已結帳月份的累計仍等於帳單（快照中的包裹、WAL 尾端的出帳、之後的調價），暫定距離不退回預設值")
+    void closedPeriodsSurviveRestart(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：重啟後已結帳累計");
+
+        Path zones = dataDir.resolve("zones.csv");
+        Files.write(zones, String.join("\n",
+                "zone,KHH,22.6273,120.3014,10,高雄|kaohsiung",
+                "zone,TPE,25.0330,121.5654,8,台北|taipei",
+                "distance,KHH,TPE,350").getBytes(StandardCharsets.UTF_8));
+        DistanceService ds = DistanceService.load(zones);
+        YearMonth month = YearMonth.now();
+
+        BillingRecord inSnapshot;
+        BillingRecord inWalTail;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir.resolve("data"), 7, FsyncPolicy.GROUP)) {
+            durable.setDistanceService(ds);
+            Customer carol = durable.createCustomer("Carol", "Taipei", "0933", "c@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            Customer dave = durable.createCustomer("Dave", "Taipei", "0944", "d@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            Customer erin = durable.createCustomer("Erin", "Taipei", "0955", "e@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            for (Customer c : List.of(carol, dave, erin)) {
+                durable.createParcel(admin, c, s, 2, 10, 10, 10, 100, c.name, false, false, false, "高雄市");
+            }
+            inSnapshot = durable.generateBillingRecord(carol, month.atDay(1), month.atEndOfMonth(),
+                    Map.of(), PaymentMethod.MONTHLY_ACCOUNT);
+            durable.snapshot();
+
+            // 快照之後：調價、出帳、再調價，都只在 WAL 裡
+            durable.updateServiceTypePricing(admin, s.getId(), 90, 4, 10, 100, 30, 20, 40);
+            inWalTail = durable.generateBillingRecord(erin, month.atDay(1), month.atEndOfMonth(),
+                    Map.of(), PaymentMethod.MONTHLY_ACCOUNT);
+            durable.updateServiceTypePricing(admin, s.getId(), 120, 5, 10, 100, 30, 20, 40);
+
+            assertEquals(inSnapshot.getTotalCents(), durable.currentBalance(admin, carol.id, month).getTotalCents());
+            assertEquals(inWalTail.getTotalCents(), durable.currentBalance(admin, erin.id, month).getTotalCents());
+            assertNotEquals(inSnapshot.getTotalCents(), inWalTail.getTotalCents(), "兩張帳單開在不同價格下");
+            step(reporter, "INVOICES", inSnapshot.getTotalCents() + " / " + inWalTail.getTotalCents());
+        }
+
+        // 重開兩次：第一次由舊快照 + WAL 尾端重建並寫新快照，第二次只靠新快照；都不設距離服務
+        for (int round = 0; round < 2; round++) {
+            try (LogisticsCore restored = LogisticsCore.open(dataDir.resolve("data"), 7, FsyncPolicy.GROUP)) {
+                assertEquals(inSnapshot.getTotalCents(), restored.currentBalance(admin, 1, month).getTotalCents(),
+                        "快照前結帳的月份");
+                assertEquals(inWalTail.getTotalCents(), restored.currentBalance(admin, 3, month).getTotalCents(),
+                        "WAL 尾端結帳的月份");
+                Parcel daves = restored.searchByCustomer(admin, 2).get(0);
+                assertEquals(350.0, daves.provisionalDistanceKm, "暫定距離寫進 WAL/快照");
+                assertEquals(Money.toCents(restored.calculateCharge(daves, 350)),
+                        restored.currentBalance(admin, 2, month).getTotalCents(), "未結帳月份以最新價格重算");
+                if (round == 0) restored.snapshot();
+            }
+        }
+
+        info(reporter, "PASS：重啟後已結帳累計驗證成功");
+    }
+
     @Test
     @DisplayName("1.6 權限：駕駛員（DRIVER）可新增運輸/外送/簽收/異常事件；不可做倉儲/分揀類事件")
     void driverRoleTrackingPermission(TestReporter reporter) {
@@ -430,5 +848,675 @@ void deleteCustomer_removesCustomer_and_checkPermission(TestReporter reporter) {
 
         info(reporter, "PASS：合約客戶付款方式驗證成功");
     }
-    
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("1.5 計費：全客戶出帳一次掃描，每位有寄件的客戶一張帳單，編號連續且與逐件計算一致")
+    void runBilling_allCustomers(TestReporter reporter) {
+        info(reporter, "開始測試：全客戶出帳");
+
+        Customer gone = core.createCustomer("Gone", "Keelung", "0966", "g@mail.com",
+                CustomerType.PREPAID, BillingPreference.PREPAID);
+        core.createCustomer("Idle", "Hualien", "0977", "i@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+        List<Parcel> aliceParcels = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {   // 超過分段門檻，實際切成多個 fork-join 工作
+            aliceParcels.add(core.createParcel(admin, alice, st, 1 + i % 19, 10 + i % 120, 10, 10, 100, "a",
+                    i % 7 == 0, i % 5 == 0, false));
+        }
+        Parcel bobParcel = core.createParcel(admin, bob, st, 2, 10, 10, 10, 100, "b", false, false, false);
+        core.createParcel(admin, gone, st, 2, 10, 10, 10, 100, "g", false, false, false);
+        core.deleteCustomer(admin, gone.id);
+
+        LocalDate today = LocalDate.now();
+        Map<String, Double> distances = Map.of(aliceParcels.get(3).trackingNumber, 42.0);
+        List<BillingRecord> run = core.runBilling(today, today, distances, PaymentMethod.CREDIT_CARD);
+        step(reporter, "RUN", run.toString());
+
+        assertEquals(2, run.size(), "只有 Alice、Bob 在期間內有寄件（已刪除與沒寄件的客戶不出帳）");
+        assertSame(alice, run.get(0).getCustomer());
+        assertSame(bob, run.get(1).getCustomer());
+        long firstSeq = Long.parseLong(run.get(0).getId().substring(1));
+        assertEquals("B" + (firstSeq + 1), run.get(1).getId(), "同一批帳單編號連續");
+
+        assertEquals(aliceParcels.size(), run.get(0).getItems().size());
+        for (int i = 0; i < aliceParcels.size(); i++) {
+            BillingItem item = run.get(0).getItems().get(i);
+            assertSame(aliceParcels.get(i), item.getParcel());
+            assertEquals(Money.of(core.calculateCharge(aliceParcels.get(i), i == 3 ? 42.0 : 10.0)), item.getMoney(),
+                    "明細金額為逐件運費四捨五入到分");
+        }
+        assertEquals(run.get(0).getItems().stream().mapToLong(BillingItem::getAmountCents).sum(),
+                run.get(0).getTotalCents(), "合計逐分等於明細加總");
+        assertSame(bobParcel, run.get(1).getItems().get(0).getParcel());
+        assertEquals(PaymentMethod.MONTHLY_ACCOUNT, run.get(1).getItems().get(0).getPaymentMethod());
+        assertEquals(PaymentMethod.CASH, run.get(0).getItems().get(0).getPaymentMethod());
+
+        BillingRecord next = core.generateBillingRecord(alice, today, today, Map.of(), PaymentMethod.CASH);
+        assertEquals("B" + (firstSeq + 2), next.getId(), "之後的帳單接續序號");
+        assertEquals(1, core.getBillingHistoryForCustomer(bob.id).size());
+
+        info(reporter, "PASS：全客戶出帳驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費：建立包裹即計入客戶月累計，確定距離後修正差額，重啟後累計相同")
+    void currentBalance_incremental(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：客戶月累計");
+
+        YearMonth month = YearMonth.now();
+        Parcel a1 = core.createParcel(admin, alice, st, 2, 10, 10, 10, 100, "a1", false, true, false);
+        Parcel[] batch = core.createParcels(admin, List.of(
+                new ParcelSpec(alice, st, 3, 120, 10, 10, 100, "a2", true, false, false),
+                new ParcelSpec(bob, st, 1, 10, 10, 10, 100, "b1", false, false, false)));
+        Parcel a2 = batch[0];
+
+        PeriodBalance balance = core.currentBalance(admin, alice.id, month);
+        step(reporter, "PROVISIONAL", balance.toString());
+        assertEquals(2, balance.getParcelCount());
+        double provisional = core.calculateCharge(a1, LogisticsCore.PROVISIONAL_DISTANCE_KM)
+                + core.calculateCharge(a2, LogisticsCore.PROVISIONAL_DISTANCE_KM);
+        assertEquals(provisional, balance.getTotalAmount(), 1e-9);
+        assertEquals(Map.of(PaymentMethod.CASH, balance.getTotalAmount()), balance.getAmountByPaymentMethod(),
+                "Alice 偏好貨到付款");
+        assertEquals(Map.of(PaymentMethod.MONTHLY_ACCOUNT, core.calculateCharge(batch[1], 10.0)),
+                core.currentBalance(admin, bob.id, month).getAmountByPaymentMethod(), "合約客戶記在月結帳戶");
+        assertEquals(0, core.currentBalance(admin, alice.id, month.minusMonths(1)).getParcelCount());
+
+        // 確定距離：只修正金額，件數不變；重複設定以最後一次為準
+        core.setFinalDistance(driver, a1.trackingNumber, 80.0);
+        core.setFinalDistance(driver, a1.trackingNumber, 35.0);
+        balance = core.currentBalance(admin, alice.id, month);
+        step(reporter, "FINAL", balance.toString());
+        double expected = core.calculateCharge(a1, 35.0) + core.calculateCharge(a2, 10.0);
+        assertEquals(2, balance.getParcelCount());
+        assertEquals(expected, balance.getTotalAmount(), 1e-9);
+        assertThrows(SecurityException.class, () -> core.setFinalDistance(wh, a1.trackingNumber, 5.0));
+        assertThrows(IllegalArgumentException.class, () -> core.setFinalDistance(admin, a1.trackingNumber, -1));
+        assertThrows(IllegalArgumentException.class, () -> core.currentBalance(admin, 999, month));
+        assertEquals(balance.getTotalCents(), core.currentBalance(aliceUser, alice.id, month).getTotalCents(),
+                "客戶可查自己的累計");
+        assertThrows(SecurityException.class, () -> core.currentBalance(aliceUser, bob.id, month),
+                "客戶不可查他人的累計");
+        assertThrows(SecurityException.class, () -> core.currentBalance(bobUser, alice.id, month));
+
+        // 出帳沒指定距離時用已確定的距離，總額與累計一致
+        BillingRecord br = core.generateBillingRecord(alice, month.atDay(1), month.atEndOfMonth(),
+                Map.of(), PaymentMethod.CREDIT_CARD);
+        assertEquals(balance.getTotalAmount(), br.getTotalAmount(), 1e-9);
+
+        // 距離寫進 WAL 與快照：快照後再改一次，重啟 = 快照 + WAL 尾端
+        String tn;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 4, FsyncPolicy.GROUP)) {
+            Customer c = durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            Parcel p = durable.createParcel(admin, c, s, 1, 10, 10, 10, 0, "d", false, false, false);
+            durable.createParcel(admin, c, s, 4, 10, 10, 10, 0, "d", false, true, false);
+            tn = p.trackingNumber;
+            durable.setFinalDistance(admin, tn, 55.0);
+            durable.snapshot();
+            durable.setFinalDistance(admin, tn, 60.0);
+            balance = durable.currentBalance(admin, c.id, month);
+        }
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 4, FsyncPolicy.GROUP)) {
+            PeriodBalance again = restored.currentBalance(admin, 1, month);
+            step(reporter, "RESTORED", again.toString());
+            assertEquals(balance.getParcelCount(), again.getParcelCount());
+            assertEquals(balance.getTotalAmount(), again.getTotalAmount(), 1e-9);
+            assertEquals(60.0, restored.searchByTrackingNumber(admin, tn).finalDistanceKm);
+        }
+
+        info(reporter, "PASS：客戶月累計驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.4 查詢：依客戶查詢走客戶索引；客戶角色不可查他人；刪除客戶後索引清除")
+    void searchByCustomer_usesIndex(TestReporter reporter) {
+        info(reporter, "開始測試：客戶索引查詢");
+
+        Parcel a1 = core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "a1", false, false, false);
+        Parcel a2 = core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "a2", false, false, false);
+        core.createParcel(admin, bob, st, 1, 10, 10, 10, 100, "b1", false, false, false);
+        step(reporter, "SETUP", "Alice 2 件、Bob 1 件");
+
+        List<Parcel> list = core.searchByCustomer(admin, alice.id);
+        assertEquals(List.of(a1, a2), list, "應依建立順序回傳 Alice 的包裹");
+
+        assertEquals(2, core.searchByCustomer(aliceUser, alice.id).size(), "Alice 可查自己的包裹");
+        assertTrue(core.searchByCustomer(bobUser, alice.id).isEmpty(), "Bob 不可查 Alice 的包裹");
+
+        core.deleteCustomer(admin, alice.id);
+        assertTrue(core.searchByCustomer(admin, alice.id).isEmpty(), "刪除客戶後索引應清除");
+        step(reporter, "VERIFY", "刪除後查無包裹");
+
+        info(reporter, "PASS：客戶索引查詢驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.4 查詢：貨車/倉庫倒排索引，同一包裹只出現一次")
+    void searchByTruckAndWarehouse_usesPostings(TestReporter reporter) {
+        info(reporter, "開始測試：truckId / warehouseId 倒排索引");
+
+        Parcel p = core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        Parcel q = core.createParcel(admin, bob, st, 1, 10, 10, 10, 100, "y", false, false, false);
+        core.addTrackingEvent(driver, p.trackingNumber, TrackingEventType.LOADED_TO_TRUCK, "A", "TRUCK-9", null, "上車", null);
+        core.addTrackingEvent(driver, p.trackingNumber, TrackingEventType.IN_TRANSIT, "B", "TRUCK-9", null, "運送中", null);
+        core.addTrackingEvent(driver, q.trackingNumber, TrackingEventType.LOADED_TO_TRUCK, "A", "TRUCK-9", null, "上車", null);
+        core.addTrackingEvent(wh, p.trackingNumber, TrackingEventType.ENTER_WAREHOUSE, "WH-07", null, "WH-07", "入倉", null);
+        step(reporter, "SETUP", "p 兩次上 TRUCK-9、q 一次；p 入 WH-07");
+
+        List<Parcel> onTruck = core.searchByTruckId(admin, "TRUCK-9");
+        assertEquals(2, onTruck.size(), "每件包裹只應出現一次");
+        assertEquals(Set.of(p, q), Set.copyOf(onTruck));
+        assertEquals(List.of(p), core.searchByTruckId(aliceUser, "TRUCK-9"), "客戶只看得到自己的包裹");
+        assertEquals(List.of(p), core.searchByWarehouseId(cs, "WH-07"));
+        assertTrue(core.searchByWarehouseId(cs, "WH-00").isEmpty());
+
+        info(reporter, "PASS：倒排索引查詢驗證成功");
+    }
+
+    @Test
+    @DisplayName("2.1 併發：多執行緒同時新增追蹤事件不遺失、索引一致")
+    void concurrentTrackingEvents(TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：多執行緒 addTrackingEvent");
+
+        int parcelsCount = 8;
+        int threads = 16;
+        int eventsPerThread = 200;
+        List<Parcel> created = new ArrayList<>();
+        for (int i = 0; i < parcelsCount; i++) {
+            created.add(core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "p" + i, false, false, false));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        Parcel p = created.get((worker + i) % parcelsCount);
+                        core.addTrackingEvent(driver, p.trackingNumber, TrackingEventType.IN_TRANSIT,
+                                "road", "TRUCK-" + worker, null, "moving", null);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        int total = created.stream().mapToInt(p -> core.getHistory(admin, p.trackingNumber).size()).sum();
+        step(reporter, "VERIFY", "事件總數=" + total);
+        assertEquals(parcelsCount + threads * eventsPerThread, total, "事件不可遺失（含每件的 PICKED_UP）");
+        assertEquals(parcelsCount, core.searchByTruckId(admin, "TRUCK-0").size(), "TRUCK-0 應經手所有包裹");
+
+        info(reporter, "PASS：併發追蹤事件驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.3 建立包裹：追蹤編號帶節點前綴與檢查碼，格式錯誤直接拒絕")
+    void trackingNumber_nodePrefixAndCheckDigit(TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：追蹤編號格式");
+
+        Parcel p0 = core.createParcel(admin, alice, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        Parcel p7;
+        try (LogisticsCore node7 = new LogisticsCore(7)) {
+            Customer c7 = node7.createCustomer("N7", "Hsinchu", "0944", "n7@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            ServiceType st7 = node7.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            p7 = node7.createParcel(admin, c7, st7, 1, 10, 10, 10, 100, "x", false, false, false);
+        }
+        step(reporter, "CREATE", "node0=" + p0.trackingNumber + ", node7=" + p7.trackingNumber);
+
+        assertTrue(TrackingNumberAllocator.isWellFormed(p0.trackingNumber));
+        assertEquals(0, TrackingNumberAllocator.nodeOf(p0.trackingNumber));
+        assertEquals(7, TrackingNumberAllocator.nodeOf(p7.trackingNumber));
+        assertNotEquals(p0.trackingNumber, p7.trackingNumber, "不同節點不可重號");
+
+        // 改動最後一位 -> 檢查碼不符
+        String tn = p0.trackingNumber;
+        char last = tn.charAt(tn.length() - 1);
+        String broken = tn.substring(0, tn.length() - 1) + (char) ('0' + (last - '0' + 1) % 10);
+        assertFalse(TrackingNumberAllocator.isWellFormed(broken));
+        assertThrows(IllegalArgumentException.class, () -> core.searchByTrackingNumber(admin, broken));
+        assertThrows(IllegalArgumentException.class, () -> core.searchByTrackingNumber(admin, "T123"));
+        assertThrows(IllegalArgumentException.class, () -> core.searchByTrackingNumber(admin, null));
+
+        info(reporter, "PASS：追蹤編號格式驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.5 計費/統計：欄式資料的批次運費與逐件計算一致，統計依客戶與日期過濾")
+    void columnarBillingAndSummary(TestReporter reporter) {
+        info(reporter, "開始測試：欄式計費與統計");
+
+        Parcel big = core.createParcel(admin, bob, st, 2.5, 120, 30, 40, 100, "big", true, true, false);
+        Parcel small = core.createParcel(admin, bob, st, 0.5, 10, 10, 10, 100, "small", false, true, false);
+        core.createParcel(admin, alice, st, 9, 10, 10, 10, 100, "other", false, false, false);
+
+        LocalDate today = LocalDate.now();
+        BillingRecord br = core.generateBillingRecord(bob, today, today,
+                Map.of(big.trackingNumber, 42.0), PaymentMethod.CASH);
+        assertEquals(2, br.getItems().size());
+        for (BillingItem item : br.getItems()) {
+            double distance = item.getParcel() == big ? 42.0 : 10.0;
+            assertEquals(Money.toCents(core.calculateCharge(item.getParcel(), distance)), item.getAmountCents(),
+                    "批次計費結果應與 calculateCharge 換算成分後完全一致");
+        }
+        step(reporter, "BILLING", "total=" + br.getTotalAmount());
+
+        ParcelColumns.Summary bobs = core.summarizeShipments(bob.id, today, today);
+        step(reporter, "SUMMARY", bobs.toString());
+        assertEquals(2, bobs.count);
+        assertEquals(3.0, bobs.totalWeightKg, 1e-9);
+        assertEquals(1, bobs.dangerousCount);
+        assertEquals(2, bobs.fragileCount);
+        assertEquals(1, bobs.oversizeCount);
+
+        assertEquals(3, core.summarizeShipments(ParcelColumns.ALL_SENDERS, today, today).count);
+        assertEquals(0, core.summarizeShipments(ParcelColumns.ALL_SENDERS, today.plusDays(1), today.plusDays(2)).count);
+
+        info(reporter, "PASS：欄式計費與統計驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.6 持久化：WAL 回放後客戶、包裹、事件、帳單、帳號與序號都還原")
+    void walRecovery(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：WAL 重啟回放");
+
+        String trackingNo;
+        String billingId;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 3, FsyncPolicy.GROUP)) {
+            Customer c = durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            Customer gone = durable.createCustomer("Gone", "Keelung", "0966", "g@mail.com",
+                    CustomerType.PREPAID, BillingPreference.PREPAID);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            Parcel p = durable.createParcel(admin, c, s, 1.5, 10, 10, 10, 100, "書", false, true, false);
+            trackingNo = p.trackingNumber;
+            durable.addTrackingEvent(wh, trackingNo, TrackingEventType.ENTER_WAREHOUSE,
+                    "台中轉運站", null, "WH-9", "入庫", null);
+            durable.addTrackingEvent(driver, trackingNo, TrackingEventType.EXCEPTION,
+                    "台中", "TRUCK-9", null, "延誤", ExceptionType.DELAYED);
+            billingId = durable.generateBillingRecord(c, LocalDate.now(), LocalDate.now(),
+                    Map.of(), PaymentMethod.CASH).getId();
+            durable.deleteCustomer(admin, gone.id);
+            durable.registerUser("dora", "secret1", Role.CUSTOMER, c);
+            step(reporter, "SETUP", "tracking=" + trackingNo + ", billing=" + billingId);
+        }
+
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 3, FsyncPolicy.GROUP)) {
+            Customer c = restored.getCustomer(1);
+            assertEquals("Dora", c.name);
+            assertNull(restored.getCustomer(2), "刪除的客戶回放後仍應不存在");
+
+            List<TrackingEvent> history = restored.getHistory(admin, trackingNo);
+            assertEquals(3, history.size());
+            assertEquals(TrackingEventType.PICKED_UP, history.get(0).getType());
+            assertEquals("WH-9", history.get(1).getWarehouseId());
+            assertEquals(ExceptionType.DELAYED, history.get(2).getExceptionType());
+            assertEquals(1, restored.searchByTruckId(admin, "TRUCK-9").size(), "倒排索引應一併重建");
+
+            List<BillingRecord> bills = restored.getBillingHistoryForCustomer(c.id);
+            assertEquals(1, bills.size());
+            assertEquals(billingId, bills.get(0).getId());
+            assertEquals(trackingNo, bills.get(0).getItems().get(0).getParcel().trackingNumber);
+
+            User dora = restored.login("dora", "secret1");
+            assertSame(c, dora.getCustomerProfile());
+
+            // 序號接續，不重號
+            assertEquals(3, restored.createCustomer("Eve", "Tainan", "0977", "e@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.MONTHLY).id);
+            Parcel next = restored.createParcel(admin, c, restored.serviceTypes.get(1L),
+                    1, 10, 10, 10, 0, "next", false, false, false);
+            assertTrue(next.trackingNumber.compareTo(trackingNo) > 0);
+            assertEquals(3, TrackingNumberAllocator.nodeOf(next.trackingNumber));
+            step(reporter, "VERIFY", "next tracking=" + next.trackingNumber);
+        }
+
+        info(reporter, "PASS：WAL 重啟回放驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.7 快照：寫入持續進行時擷取快照，重啟後 = 快照 + WAL 尾端，事件不重複也不遺失")
+    void snapshotWhileWriting(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：線上快照 + 重啟");
+
+        int parcelsPerThread = 200;
+        int threads = 4;
+        List<String> trackingNos = new ArrayList<>();
+        long snapshotLsn;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 1, FsyncPolicy.GROUP)) {
+            Customer c = durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            Customer gone = durable.createCustomer("Gone", "Keelung", "0966", "g@mail.com",
+                    CustomerType.PREPAID, BillingPreference.PREPAID);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            Parcel orphan = durable.createParcel(admin, gone, s, 1, 10, 10, 10, 0, "orphan", false, false, false);
+            durable.registerUser("gone", "secret1", Role.CUSTOMER, gone);
+            durable.deleteCustomer(admin, gone.id);
+            trackingNos.add(orphan.trackingNumber);
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    List<String> mine = new ArrayList<>();
+                    for (int i = 0; i < parcelsPerThread; i++) {
+                        Parcel p = durable.createParcel(admin, c, s, 1, 10, 10, 10, 0, "p", false, false, false);
+                        durable.addTrackingEvent(driver, p.trackingNumber, TrackingEventType.IN_TRANSIT,
+                                "台中", "TRUCK-" + i, null, null, null);
+                        mine.add(p.trackingNumber);
+                    }
+                    return mine;
+                }));
+            }
+            snapshotLsn = durable.snapshot();   // 與寫入同時進行
+            for (Future<List<String>> f : futures) {
+                trackingNos.addAll(f.get(30, TimeUnit.SECONDS));
+            }
+            pool.shutdown();
+            durable.generateBillingRecord(c, LocalDate.now(), LocalDate.now(), Map.of(), PaymentMethod.CASH);
+            step(reporter, "SETUP", "snapshotLsn=" + snapshotLsn + ", parcels=" + trackingNos.size());
+        }
+
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 1, FsyncPolicy.GROUP)) {
+            for (String tn : trackingNos) {
+                int expected = tn.equals(trackingNos.get(0)) ? 1 : 2;
+                assertEquals(expected, restored.getHistory(admin, tn).size(), "事件數不符：" + tn);
+            }
+            assertEquals(threads * parcelsPerThread, restored.searchByCustomer(admin, 1).size());
+            assertNull(restored.getCustomer(2));
+            assertEquals("Gone", restored.searchByTrackingNumber(admin, trackingNos.get(0)).sender.name,
+                    "已刪除客戶的包裹仍保有寄件人");
+            assertEquals(threads * parcelsPerThread,
+                    restored.getBillingHistoryForCustomer(1).get(0).getItems().size());
+
+            long second = restored.snapshot();
+            assertTrue(second >= snapshotLsn);
+        }
+        // 只有最新的快照會被保留，重開後仍可用
+        try (LogisticsCore again = LogisticsCore.open(dataDir, 1, FsyncPolicy.GROUP)) {
+            assertEquals(threads * parcelsPerThread, again.searchByCustomer(admin, 1).size());
+            assertEquals(2, again.getHistory(admin, trackingNos.get(trackingNos.size() - 1)).size());
+            assertNotNull(again.login("gone", "secret1").getCustomerProfile());
+        }
+
+        info(reporter, "PASS：線上快照 + 重啟驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.7 快照：快照前 WAL 先落盤；WAL 尾端遺失時從快照 LSN 續寫，之後的異動重啟後仍在")
+    void snapshotLsnSurvivesLostWalTail(@TempDir Path dataDir, @TempDir Path crashDir,
+                                        TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：快照後 WAL 尾端遺失");
+
+        long snapshotLsn;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 6, FsyncPolicy.GROUP)) {
+            durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            snapshotLsn = durable.snapshot();
+
+            // GROUP 下 createCustomer 不等落盤，但快照回傳前快照涵蓋的紀錄已寫進 WAL 檔
+            long walEnd = 0;
+            try (var files = Files.list(dataDir.resolve("wal"))) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    String n = f.getFileName().toString();
+                    walEnd = Math.max(walEnd, Long.parseLong(n.substring(4, n.length() - 4)) + Files.size(f));
+                }
+            }
+            step(reporter, "SNAPSHOT", "lsn=" + snapshotLsn + ", wal on disk=" + walEnd);
+            assertTrue(walEnd >= snapshotLsn);
+
+            // 模擬當機：只有快照檔留下，WAL 尚未落盤的尾端全部遺失
+            try (var files = Files.list(dataDir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    if (f.getFileName().toString().endsWith(".snap")) {
+                        Files.copy(f, crashDir.resolve(f.getFileName()));
+                    }
+                }
+            }
+        }
+
+        try (LogisticsCore reopened = LogisticsCore.open(crashDir, 6, FsyncPolicy.GROUP)) {
+            assertEquals("Dora", reopened.getCustomer(1).name);
+            reopened.createCustomer("Eve", "Tainan", "0977", "e@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+        }
+        try (LogisticsCore again = LogisticsCore.open(crashDir, 6, FsyncPolicy.GROUP)) {
+            assertEquals("Dora", again.getCustomer(1).name);
+            assertNotNull(again.getCustomer(2), "快照之後寫入的客戶不可在回放時被略過");
+            assertEquals("Eve", again.getCustomer(2).name);
+        }
+
+        info(reporter, "PASS：快照後 WAL 尾端遺失驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.7 快照：定期快照失敗時保留完整例外供查詢，之後成功即清除")
+    void periodicSnapshotFailureIsVisible(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：定期快照失敗");
+
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 3, FsyncPolicy.GROUP)) {
+            durable.createCustomer("Eve", "Tainan", "0966", "e@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+            Path blocker = Files.createDirectory(dataDir.resolve("snapshot.tmp"));   // 暫存檔的位置被目錄佔住
+            assertNull(durable.lastSnapshotFailure());
+            durable.startSnapshots(Duration.ofMillis(10));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (durable.lastSnapshotFailure() == null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Throwable failure = durable.lastSnapshotFailure();
+            step(reporter, "FAILURE", String.valueOf(failure));
+            assertNotNull(failure, "失敗要看得到");
+            assertInstanceOf(UncheckedIOException.class, failure);
+            assertNotNull(failure.getCause(), "保留原始例外");
+
+            Files.delete(blocker);
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (durable.lastSnapshotFailure() != null && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNull(durable.lastSnapshotFailure(), "之後成功即清除");
+        }
+
+        info(reporter, "PASS：定期快照失敗驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.8 快照載入：包裹留在 map 的檔案中，查詢或掃描用到時才解碼")
+    void snapshotParcelsMaterializeOnDemand(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：快照延遲解碼");
+
+        List<String> doraParcels = new ArrayList<>();
+        String evesParcel;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 2, FsyncPolicy.GROUP)) {
+            Customer dora = durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            Customer eve = durable.createCustomer("Eve", "Tainan", "0977", "e@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            for (int i = 0; i < 50; i++) {
+                doraParcels.add(durable.createParcel(admin, dora, s, 1, 10, 10, 10, 0, "d" + i,
+                        false, false, false).trackingNumber);
+            }
+            evesParcel = durable.createParcel(admin, eve, s, 2, 10, 10, 10, 0, "e", false, false, false).trackingNumber;
+            durable.addTrackingEvent(driver, evesParcel, TrackingEventType.LOADED_TO_TRUCK,
+                    "台南", "TRUCK-E", null, null, null);
+            durable.generateBillingRecord(eve, LocalDate.now(), LocalDate.now(), Map.of(), PaymentMethod.CASH);
+            durable.snapshot();
+        }
+
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 2, FsyncPolicy.GROUP)) {
+            step(reporter, "OPEN", "hot=" + restored.parcels.size() + ", cold=" + restored.cold.remaining());
+            assertEquals(0, restored.parcels.size(), "啟動時不應解碼任何包裹");
+            assertEquals(51, restored.cold.remaining());
+
+            // 單筆查詢只解碼那一件
+            assertEquals("d7", restored.searchByTrackingNumber(admin, doraParcels.get(7)).description);
+            assertEquals(1, restored.parcels.size());
+
+            // 帳單明細的包裹在 getParcel 時才取回
+            BillingRecord br = restored.getBillingHistoryForCustomer(2).get(0);
+            assertEquals(1, restored.parcels.size());
+            assertEquals(evesParcel, br.getItems().get(0).getParcel().trackingNumber);
+            assertEquals(2, restored.parcels.size());
+
+            // 依客戶掃描只解碼該客戶的包裹
+            assertEquals(50, restored.searchByCustomer(admin, 1).size());
+            assertEquals(51, restored.parcels.size());
+            assertEquals(0, restored.cold.remaining());
+
+            restored.addTrackingEvent(driver, doraParcels.get(0), TrackingEventType.IN_TRANSIT,
+                    "新竹", "TRUCK-D", null, null, null);
+        }
+
+        // 再開一次並在部分解碼的狀態下寫新快照：未動過的 entry 原封複製，動過的以記憶體為準
+        try (LogisticsCore partial = LogisticsCore.open(dataDir, 2, FsyncPolicy.GROUP)) {
+            assertEquals(2, partial.getHistory(admin, doraParcels.get(0)).size());
+            assertEquals(1, partial.parcels.size());
+            assertEquals(1, partial.searchByTruckId(admin, "TRUCK-E").size());
+            assertEquals(2, partial.parcels.size(), "依貨車查詢只解碼快照倒排列出的包裹");
+            assertTrue(partial.searchByWarehouseId(admin, "WH-NONE").isEmpty());
+            assertEquals(2, partial.parcels.size());
+            partial.snapshot();
+        }
+        try (LogisticsCore again = LogisticsCore.open(dataDir, 2, FsyncPolicy.GROUP)) {
+            // 倒排同時來自上一份快照（原封複製的包裹）與記憶體中的包裹
+            assertEquals(evesParcel, again.searchByTruckId(admin, "TRUCK-E").get(0).trackingNumber);
+            assertEquals(doraParcels.get(0), again.searchByTruckId(admin, "TRUCK-D").get(0).trackingNumber);
+            assertEquals(2, again.parcels.size());
+            assertEquals(51, again.searchByDateRange(admin, LocalDate.now(), LocalDate.now()).size());
+            assertEquals(2, again.getHistory(admin, doraParcels.get(0)).size());
+            assertEquals(2, again.getHistory(admin, evesParcel).size());
+            assertEquals(1, again.getHistory(admin, doraParcels.get(1)).size());
+        }
+
+        info(reporter, "PASS：快照延遲解碼驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.8 快照載入：日期/客戶掃描以快照中的排列二分搜尋，只解碼區間內的包裹")
+    void snapshotScansDecodeOnlyTheWindow(@TempDir Path dataDir, TestReporter reporter) throws Exception {
+        info(reporter, "開始測試：快照排列掃描");
+
+        LocalDate d = LocalDate.of(2024, 5, 10);
+        Customer eve;
+        try (LogisticsCore durable = LogisticsCore.open(dataDir, 8, FsyncPolicy.GROUP)) {
+            Customer dora = durable.createCustomer("Dora", "Hsinchu", "0955", "d@mail.com",
+                    CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+            eve = durable.createCustomer("Eve", "Tainan", "0977", "e@mail.com",
+                    CustomerType.CONTRACT, BillingPreference.MONTHLY);
+            ServiceType s = durable.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                    0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+            // 直接走登錄路徑放到指定寄件日（不寫 WAL，由快照保存）
+            TrackingNumberAllocator ids = new TrackingNumberAllocator(9);
+            for (int offset = -2; offset <= 2; offset++) {
+                for (Customer c : List.of(eve, dora)) {
+                    long id = ids.nextId();
+                    durable.applyCreateParcel(id, new Parcel(TrackingNumberAllocator.format(id), c, s,
+                            1, 10, 10, 10, 0, c.name + offset, false, false, false), d.plusDays(offset).atTime(9, 0));
+                }
+            }
+            durable.snapshot();
+        }
+
+        try (LogisticsCore restored = LogisticsCore.open(dataDir, 8, FsyncPolicy.GROUP)) {
+            assertTrue(restored.cold.ordered());
+            assertEquals(0, restored.parcels.size());
+
+            assertEquals(2, restored.searchByDateRange(admin, d, d).size());
+            assertEquals(2, restored.parcels.size(), "只解碼該日的包裹");
+
+            assertTrue(restored.searchByDateRange(admin, d.plusDays(1), d).isEmpty());
+            assertEquals(2, restored.parcels.size());
+
+            // 客戶角色走 (寄件客戶, 寄件日) 排列，不碰其他客戶的包裹
+            User eveView = new User("customer#" + eve.id, Role.CUSTOMER, restored.getCustomer(eve.id));
+            List<Parcel> evesLater = restored.searchByDateRange(eveView, d.plusDays(1), d.plusDays(2));
+            assertEquals(2, evesLater.size());
+            assertTrue(evesLater.stream().allMatch(p -> p.sender.id == eve.id));
+            assertEquals(4, restored.parcels.size());
+
+            assertEquals(6, restored.searchByDateRange(admin, d.minusDays(1), d.plusDays(1)).size());
+            assertEquals(7, restored.parcels.size(), "已解碼的不重複解碼");
+            assertEquals(3, restored.cold.remaining());
+            step(reporter, "COLD", "remaining=" + restored.cold.remaining());
+
+            assertEquals(5, restored.searchByCustomer(admin, eve.id).size());
+            assertEquals(10, restored.searchByDateRange(admin, d.minusDays(2), d.plusDays(2)).size());
+        }
+
+        info(reporter, "PASS：快照排列掃描驗證成功");
+    }
+
+    @Test
+    @DisplayName("1.9 寄件日索引：起訖日皆含、單日區間、起日晚於訖日、同日同桶、刪除客戶後移出")
+    void shipDateIndexBoundaries(TestReporter reporter) {
+        info(reporter, "開始測試：寄件日索引邊界");
+
+        // 直接走登錄路徑，放到指定的寄件日（用另一個節點的編號空間，不與 core 配發的衝突）
+        TrackingNumberAllocator ids = new TrackingNumberAllocator(1);
+        LocalDate d = LocalDate.of(2024, 3, 15);
+        Map<String, LocalDate> shipped = new LinkedHashMap<>();
+        Object[][] plan = {
+                {alice, d.minusDays(1)}, {alice, d}, {bob, d}, {alice, d}, {bob, d.plusDays(1)}, {alice, d.plusDays(2)}
+        };
+        for (Object[] row : plan) {
+            long id = ids.nextId();
+            Parcel p = new Parcel(TrackingNumberAllocator.format(id), (Customer) row[0], st,
+                    1, 10, 10, 10, 100, "x", false, false, false);
+            core.applyCreateParcel(id, p, ((LocalDate) row[1]).atTime(10, 0));
+            shipped.put(p.trackingNumber, (LocalDate) row[1]);
+        }
+
+        // 起訖日皆含
+        List<Parcel> range = core.searchByDateRange(admin, d.minusDays(1), d.plusDays(1));
+        assertEquals(5, range.size());
+        for (Parcel p : range) {
+            LocalDate s = shipped.get(p.trackingNumber);
+            assertFalse(s.isBefore(d.minusDays(1)) || s.isAfter(d.plusDays(1)), "超出區間：" + s);
+        }
+
+        // 單日區間
+        assertEquals(3, core.searchByDateRange(admin, d, d).size());
+        assertEquals(1, core.searchByDateRange(admin, d.plusDays(2), d.plusDays(2)).size());
+        assertTrue(core.searchByDateRange(admin, d.plusDays(3), d.plusDays(3)).isEmpty(), "沒有包裹的日期");
+
+        // 起日晚於訖日：空結果，不丟例外
+        assertTrue(core.searchByDateRange(admin, d.plusDays(1), d).isEmpty());
+
+        // 同一天建立的包裹落在同一個桶
+        assertEquals(3, core.parcelsByShipDate.get(d).size());
+        assertEquals(Set.of(d.minusDays(1), d, d.plusDays(1), d.plusDays(2)),
+                core.parcelsByShipDate.keySet());
+
+        // 刪除客戶後，其包裹移出日期查詢與日期桶；其他客戶不受影響
+        core.deleteCustomer(admin, alice.id);
+        List<Parcel> afterDelete = core.searchByDateRange(admin, d.minusDays(1), d.plusDays(2));
+        assertEquals(2, afterDelete.size());
+        assertTrue(afterDelete.stream().allMatch(p -> p.sender == bob));
+        assertEquals(1, core.parcelsByShipDate.get(d).size());
+        assertTrue(core.parcelsByShipDate.get(d.minusDays(1)).isEmpty());
+
+        // 刪除後才登錄的（例如快照中較晚解碼的）同樣不進索引
+        long id = ids.nextId();
+        core.applyCreateParcel(id, new Parcel(TrackingNumberAllocator.format(id), alice, st,
+                1, 10, 10, 10, 100, "late", false, false, false), d.atTime(12, 0));
+        assertEquals(1, core.searchByDateRange(admin, d, d).size());
+
+        info(reporter, "PASS：寄件日索引邊界驗證成功");
+    }
+
+}
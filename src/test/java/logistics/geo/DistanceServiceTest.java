@@ -0,0 +1,73 @@
+package logistics.geo;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceServiceTest {
+
+    private static final String ZONES = String.join("\n",
+            "# 測試用區域檔",
+            "factor,1.2",
+            "zone,TPE,25.0330,121.5654,8,台北|taipei",
+            "zone,NTP,25.0120,121.4650,12,新北|new taipei",
+            "zone,KHH,22.6273,120.3014,10,高雄|kaohsiung",
+            "distance,TPE,KHH,350",
+            "");
+
+    private static DistanceService load(Path dir, String content) throws Exception {
+        Path file = dir.resolve("zones.csv");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return DistanceService.load(file);
+    }
+
+    @Test
+    @DisplayName("DistanceService：地址對到區域（最長別名優先）、矩陣含區內距離、覆蓋值雙向、座標推算乘上係數")
+    void resolveAndLookup(@TempDir Path dir, TestReporter reporter) throws Exception {
+        DistanceService ds = load(dir, ZONES);
+        assertEquals(3, ds.zoneCount());
+
+        int tpe = ds.zoneOf("Taipei");
+        int ntp = ds.zoneOf("新北市板橋區文化路一段 100 號");
+        int khh = ds.zoneOf("高雄市前鎮區中山二路 2 號");
+        assertEquals("TPE", ds.zoneCode(tpe));
+        assertEquals("NTP", ds.zoneCode(ntp));
+        assertEquals("KHH", ds.zoneCode(khh));
+        assertEquals(ntp, ds.zoneOf("  New Taipei City "), "new taipei 比 taipei 長，優先");
+
+        assertEquals(8, ds.distanceKm(tpe, tpe), 1e-9, "對角線是區內距離");
+        assertEquals(350, ds.distanceKm(tpe, khh), 1e-9);
+        assertEquals(350, ds.distanceKm("高雄市", "台北市信義區"), 1e-9, "覆蓋值雙向");
+        double tpeNtp = ds.distanceKm(tpe, ntp);
+        reporter.publishEntry("TPE-NTP", String.valueOf(tpeNtp));
+        assertTrue(tpeNtp > 10 * 1.2 && tpeNtp < 13 * 1.2, "約 10.4 km 大圓距離 × 1.2");
+        assertEquals(tpeNtp, ds.distanceKm(ntp, tpe), 1e-9);
+    }
+
+    @Test
+    @DisplayName("DistanceService：對不到的地址回傳 NaN；格式錯誤帶行號拒絕")
+    void unknownAddressAndFormatErrors(@TempDir Path dir) throws Exception {
+        DistanceService ds = load(dir, ZONES);
+        assertEquals(DistanceService.UNKNOWN_ZONE, ds.zoneOf("Tokyo"));
+        assertEquals(DistanceService.UNKNOWN_ZONE, ds.zoneOf(null));
+        assertTrue(Double.isNaN(ds.distanceKm("Tokyo", "Taipei")));
+        assertTrue(Double.isNaN(ds.distanceKm("Taipei", null)));
+        int tpe = ds.zoneOf("Taipei");
+        assertTrue(Double.isNaN(ds.distanceKm(DistanceService.UNKNOWN_ZONE, tpe)), "未知區域回傳 NaN 而不是錯位");
+        assertTrue(Double.isNaN(ds.distanceKm(tpe, DistanceService.UNKNOWN_ZONE)));
+        assertTrue(Double.isNaN(ds.distanceKm(tpe, ds.zoneCount())));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> load(dir, "zone,TPE,25,121,8\nzone,TPE,22,120,10\n"));
+        assertTrue(e.getMessage().contains("第 2 行"), e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> load(dir, "zone,TPE,abc,121,8\n"));
+        assertTrue(e.getMessage().contains("第 1 行"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> load(dir, "zone,TPE,25,121,8\ndistance,TPE,XXX,5\n"),
+                "距離紀錄引用不存在的區域");
+    }
+}
@@ -0,0 +1,101 @@
+package logistics.ingest;
+
+import logistics.core.LogisticsCore;
+import logistics.enums.*;
+import logistics.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackingEventImporterTest {
+
+    @TempDir
+    Path dir;
+
+    private LogisticsCore core;
+    private User admin;
+    private Parcel p1;
+    private Parcel p2;
+
+    @BeforeEach
+    void setUp() {
+        core = new LogisticsCore();
+        admin = new User("admin", Role.ADMIN, null);
+        Customer c = core.createCustomer("Alice", "Kaohsiung", "0912", "a@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.CASH_ON_DELIVERY);
+        ServiceType st = core.createServiceType("標準小箱", PackageType.SMALL_BOX,
+                0.0, 20.0, DeliverySpeed.STANDARD, 50, 2, 10, 100, 30, 20, 40);
+        p1 = core.createParcel(admin, c, st, 1, 10, 10, 10, 100, "x", false, false, false);
+        p2 = core.createParcel(admin, c, st, 1, 10, 10, 10, 100, "y", false, false, false);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        core.close();
+    }
+
+    @Test
+    @DisplayName("匯入 CSV：小緩衝區跨行切割、小批次背壓，錯誤逐行計數不中止")
+    void importCsv(TestReporter reporter) throws Exception {
+        Path file = dir.resolve("events.csv");
+        Files.writeString(file, "﻿trackingNumber,type,location,truckId,warehouseId,description,exceptionType\r\n"
+                + p1.trackingNumber + ",ENTER_WAREHOUSE,台中,,WH-1,入庫\r\n"
+                + p2.trackingNumber + ",sorted,台中,,WH-1,\"分揀, 第 \"\"2\"\" 區\"\r\n"
+                + "\r\n"
+                + p1.trackingNumber + ",TELEPORTED,台中,,,,\r\n"
+                + p1.trackingNumber + ",EXCEPTION,台中,TRUCK-1,,延誤,STOLEN\r\n"
+                + "T999999999999999,SORTED,台中\r\n"
+                + p1.trackingNumber + ",EXCEPTION,台中,TRUCK-1,,延誤,delayed", StandardCharsets.UTF_8);
+
+        List<ImportReport> progress = new ArrayList<>();
+        TrackingEventImporter importer = new TrackingEventImporter(core, admin, 2, 1, 7);
+        ImportReport r = importer.importFile(file, TrackingEventImporter.Format.CSV, progress::add);
+        reporter.publishEntry("REPORT", r + " errors=" + r.getErrors());
+
+        assertEquals(6, r.getLines());
+        assertEquals(3, r.getAccepted());
+        assertEquals(3, r.getRejected());
+        assertEquals(Files.size(file), r.getBytesRead());
+        assertEquals(3, r.getErrors().size());
+        assertTrue(r.getErrors().get(0).startsWith("第 5 行"), r.getErrors().get(0));
+        assertFalse(progress.isEmpty(), "每套用一批應回報進度");
+
+        List<TrackingEvent> h1 = core.getHistory(admin, p1.trackingNumber);
+        assertEquals(3, h1.size());
+        assertEquals("WH-1", h1.get(1).getWarehouseId());
+        assertEquals(ExceptionType.DELAYED, h1.get(2).getExceptionType());
+        assertEquals("分揀, 第 \"2\" 區", core.getCurrentStatus(admin, p2.trackingNumber).getDescription());
+    }
+
+    @Test
+    @DisplayName("匯入 JSONL：依 key 取值，格式錯誤與權限不足的行計入 rejected")
+    void importJsonl(TestReporter reporter) throws Exception {
+        Path file = dir.resolve("events.jsonl");
+        Files.writeString(file,
+                "{\"trackingNumber\":\"" + p1.trackingNumber + "\",\"type\":\"SORTED\",\"location\":\"台中\\t站\","
+                        + "\"warehouseId\":\"WH-3\",\"carrier\":\"X\"}\n"
+                        + "{\"trackingNumber\":\"" + p2.trackingNumber + "\",\"type\":\"IN_TRANSIT\",\"truckId\":\"TRUCK-3\"}\n"
+                        + "{\"trackingNumber\":\"" + p2.trackingNumber + "\",\"type\":\"SORTED\",\"description\":null}\n"
+                        + "{\"trackingNumber\":\"" + p2.trackingNumber + "\",\"type\":5}\n"
+                        + "not json\n",
+                StandardCharsets.UTF_8);
+
+        User wh = new User("wh", Role.WAREHOUSE, null);
+        ImportReport r = new TrackingEventImporter(core, wh).importFile(file);
+        reporter.publishEntry("REPORT", r + " errors=" + r.getErrors());
+
+        assertEquals(5, r.getLines());
+        assertEquals(2, r.getAccepted());
+        assertEquals(3, r.getRejected(), "IN_TRANSIT 無權限、type 非字串、整行不是 JSON");
+        assertEquals("台中\t站", core.getCurrentStatus(admin, p1.trackingNumber).getLocation());
+        assertEquals(1, core.searchByWarehouseId(admin, "WH-3").size());
+        assertEquals(TrackingEventType.SORTED, core.getCurrentStatus(admin, p2.trackingNumber).getType());
+    }
+}
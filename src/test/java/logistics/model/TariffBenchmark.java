@@ -0,0 +1,118 @@
+package logistics.model;
+
+import logistics.core.LogisticsCore;
+import logistics.enums.BillingPreference;
+import logistics.enums.CustomerType;
+import logistics.enums.DeliverySpeed;
+import logistics.enums.PackageType;
+
+import java.util.Random;
+
+/**
+ * 逐件計價與費率表批次計價的吞吐量比較（手動執行，不在 mvn test 內）。
+ *
+ * 執行方式：
+ * <pre>
+ *   mvn -q test-compile
+ *   java -cp target/classes:target/test-classes logistics.model.TariffBenchmark [parcels]
+ * </pre>
+ *
+ * 三種算法算同一批包裹：
+ * getters（改版前的寫法：每件經 Parcel 取 ServiceType、逐一呼叫 getter、分支判斷附加費與超大）、
+ * calculateCharge（現在的逐件入口，走編譯好的費率表）、Tariff.charges（primitive 陣列批次）。
+ * 每輪先跑一次暖機，結果加總成 checksum 避免被 JIT 消除，也用來確認三者一致。
+ */
+public class TariffBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        try (LogisticsCore core = new LogisticsCore()) {
+            run(core, args);
+        }
+    }
+
+    private static void run(LogisticsCore core, String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = 10;
+
+        Customer c = new Customer(1, "bench", "addr", "0900", "b@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+        ServiceType st = new ServiceType(1, "bench", PackageType.SMALL_BOX, 0, 20, DeliverySpeed.STANDARD,
+                50, 2, 10, 100, 30, 20, 40);
+
+        Random rnd = new Random(42);
+        Parcel[] parcels = new Parcel[n];
+        double[] weight = new double[n], length = new double[n], width = new double[n], height = new double[n];
+        double[] distance = new double[n];
+        byte[] flags = new byte[n];
+        for (int i = 0; i < n; i++) {
+            weight[i] = rnd.nextDouble() * 20;
+            length[i] = 5 + rnd.nextDouble() * 120;
+            width[i] = 5 + rnd.nextDouble() * 60;
+            height[i] = 5 + rnd.nextDouble() * 60;
+            distance[i] = rnd.nextDouble() * 300;
+            parcels[i] = new Parcel("T" + i, c, st, weight[i], length[i], width[i], height[i],
+                    0, "bench", rnd.nextInt(10) == 0, rnd.nextInt(4) == 0, false);
+            flags[i] = (byte) Tariff.flags(parcels[i]);
+        }
+        double[] out = new double[n];
+        Tariff tariff = st.getTariff();
+
+        System.out.printf("parcels=%,d rounds=%d%n", n, rounds);
+        for (int round = 0; round <= 1; round++) {
+            System.out.println("-- round " + (round + 1) + (round == 0 ? " (warm-up)" : ""));
+
+            long best = Long.MAX_VALUE;
+            double sum = 0;
+            for (int r = 0; r < rounds; r++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) out[i] = viaGetters(parcels[i], distance[i]);
+                best = Math.min(best, System.nanoTime() - t0);
+                sum = checksum(out);
+            }
+            report("getters (per parcel)", n, best, sum);
+
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) out[i] = core.calculateCharge(parcels[i], distance[i]);
+                best = Math.min(best, System.nanoTime() - t0);
+                sum = checksum(out);
+            }
+            report("calculateCharge (per parcel)", n, best, sum);
+
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                long t0 = System.nanoTime();
+                tariff.charges(weight, length, width, height, distance, flags, out, 0, n);
+                best = Math.min(best, System.nanoTime() - t0);
+                sum = checksum(out);
+            }
+            report("Tariff.charges (batch)", n, best, sum);
+        }
+    }
+
+    // 改版前 LogisticsCore.calculateCharge 的寫法
+    private static double viaGetters(Parcel p, double distanceKm) {
+        ServiceType st = p.serviceType;
+        double volume = p.getVolumeCubicMeter();
+        double amount = st.getBasePrice()
+                + st.getPricePerKm() * distanceKm
+                + st.getPricePerKg() * p.weightKg
+                + st.getPricePerCubicMeter() * volume;
+        if (p.dangerousGoods) amount += st.getDangerousSurcharge();
+        if (p.fragile) amount += st.getFragileSurcharge();
+        if (p.lengthCm > 100 || p.widthCm > 100 || p.heightCm > 100) amount += st.getOversizeSurcharge();
+        return amount;
+    }
+
+    private static double checksum(double[] out) {
+        double s = 0;
+        for (double v : out) s += v;
+        return s;
+    }
+
+    private static void report(String name, int n, long nanos, double checksum) {
+        System.out.printf("%-30s best=%7.2f ms  %7.1f M parcels/s  (%5.2f ns/parcel)  checksum=%.6f%n",
+                name, nanos / 1e6, n / (nanos / 1e9) / 1e6, (double) nanos / n, checksum);
+    }
+}
@@ -0,0 +1,121 @@
+package logistics.persist;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> replayAll(WriteAheadLog wal, long from) {
+        List<String> out = new ArrayList<>();
+        wal.replay(from, b -> {
+            byte[] bytes = new byte[b.remaining()];
+            b.get(bytes);
+            out.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return out;
+    }
+
+    @Test
+    @DisplayName("WAL：重開後依序回放，LSN 遞增且可從中間開始")
+    void replayInOrder(TestReporter reporter) throws Exception {
+        long third;
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.ALWAYS)) {
+            wal.append("a".getBytes(StandardCharsets.UTF_8));
+            long lsn = wal.append("bb".getBytes(StandardCharsets.UTF_8));
+            third = wal.append("ccc".getBytes(StandardCharsets.UTF_8));
+            wal.commit(third);
+            assertTrue(lsn < third);
+            reporter.publishEntry("SETUP", "endLsn=" + wal.endLsn());
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            assertEquals(List.of("a", "bb", "ccc"), replayAll(wal, 0));
+            assertEquals(List.of("ccc"), replayAll(wal, third));
+        }
+    }
+
+    @Test
+    @DisplayName("WAL：寫到一半的尾端紀錄在開啟時被截斷，之後可繼續附加")
+    void tornTailIsTruncated(TestReporter reporter) throws Exception {
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            wal.append("ok-1".getBytes(StandardCharsets.UTF_8));
+            wal.append("ok-2".getBytes(StandardCharsets.UTF_8));
+            wal.flush();
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(p -> Files.isRegularFile(p)).findFirst().orElseThrow();
+        }
+        long before = Files.size(segment);
+        // 模擬當機：尾端多出一筆長度寫了、內容只寫一半的紀錄
+        try (RandomAccessFile f = new RandomAccessFile(segment.toFile(), "rw")) {
+            f.seek(before);
+            f.write(ByteBuffer.allocate(10).putInt(100).putInt(0).array());
+        }
+        reporter.publishEntry("SETUP", "segment " + before + " -> " + Files.size(segment) + " bytes");
+
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            assertEquals(before, Files.size(segment), "損壞的尾端應被截斷");
+            assertEquals(List.of("ok-1", "ok-2"), replayAll(wal, 0));
+            wal.append("ok-3".getBytes(StandardCharsets.UTF_8));
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            assertEquals(List.of("ok-1", "ok-2", "ok-3"), replayAll(wal, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("WAL：截斷快照之前的 segment 後，從快照 LSN 回放仍取得完整尾端")
+    void truncateBeforeSnapshot(TestReporter reporter) throws Exception {
+        long cut;
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.ALWAYS, 1, 64)) {   // 每段約 64 bytes
+            for (int i = 0; i < 20; i++) {
+                long lsn = wal.append(("rec-" + i).getBytes(StandardCharsets.UTF_8));
+                wal.commit(lsn);
+            }
+            cut = wal.endLsn();
+            wal.append("tail".getBytes(StandardCharsets.UTF_8));
+            wal.flush();
+            int removed = wal.truncateBefore(cut);
+            reporter.publishEntry("TRUNCATE", "cut=" + cut + ", removed segments=" + removed);
+            assertTrue(removed > 0);
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            assertEquals(List.of("tail"), replayAll(wal, cut));
+        }
+    }
+
+    @Test
+    @DisplayName("WAL：既有結尾落在快照 LSN 之前時，新紀錄從快照 LSN 起算，重開後回放得到")
+    void resumesAtSnapshotLsn(TestReporter reporter) throws Exception {
+        long lost;
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            wal.append("covered".getBytes(StandardCharsets.UTF_8));
+            wal.flush();
+            lost = wal.endLsn() + 100;   // 快照涵蓋到的位置，超出日誌實際寫到的結尾
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP,
+                WriteAheadLog.DEFAULT_GROUP_COMMIT_MILLIS, WriteAheadLog.DEFAULT_SEGMENT_BYTES, lost)) {
+            assertEquals(lost, wal.endLsn());
+            assertEquals(List.of(), replayAll(wal, lost));
+            assertEquals(lost, wal.append("after".getBytes(StandardCharsets.UTF_8)));
+            reporter.publishEntry("RESUME", "lsn=" + lost);
+        }
+        try (WriteAheadLog wal = WriteAheadLog.open(dir, FsyncPolicy.GROUP)) {
+            assertEquals(List.of("after"), replayAll(wal, lost), "快照 LSN 之後的紀錄不可被略過");
+        }
+    }
+}
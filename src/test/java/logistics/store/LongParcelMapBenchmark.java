@@ -0,0 +1,120 @@
+package logistics.store;
+
+import logistics.core.TrackingNumberAllocator;
+import logistics.enums.BillingPreference;
+import logistics.enums.CustomerType;
+import logistics.enums.DeliverySpeed;
+import logistics.enums.PackageType;
+import logistics.model.Customer;
+import logistics.model.Parcel;
+import logistics.model.ServiceType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LongParcelMap 與 Map&lt;String, Parcel&gt; 的記憶體 / 吞吐量比較（手動執行，不在 mvn test 內）。
+ *
+ * 執行方式：
+ * <pre>
+ *   mvn -q test-compile
+ *   java -Xmx3g -cp target/classes:target/test-classes logistics.store.LongParcelMapBenchmark [parcels]
+ * </pre>
+ *
+ * 追蹤編號字串本來就存在 Parcel.trackingNumber 裡，所以兩邊都保留同一份字串陣列，
+ * 量到的差異只包含 map 本身（table、entry 節點）。查詢用另一份字串實例模擬 API 請求，
+ * LongParcelMap 另外列出含 API 層 parse 的吞吐量。
+ */
+public class LongParcelMapBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int lookups = 5_000_000;
+
+        TrackingNumberAllocator alloc = new TrackingNumberAllocator(1);
+        String[] numbers = new String[n];
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = alloc.nextId();
+            numbers[i] = TrackingNumberAllocator.format(ids[i]);
+        }
+        Parcel parcel = sampleParcel();
+        // 模擬 API 請求：查詢用的字串是新的實例（不是 map 裡那一份），hash 需重算、equals 需逐字比對
+        int[] probe = new int[lookups];
+        String[] requests = new String[lookups];
+        Random rnd = new Random(42);
+        for (int i = 0; i < lookups; i++) {
+            probe[i] = rnd.nextInt(n);
+            requests[i] = new String(numbers[probe[i]]);
+        }
+        System.out.printf("parcels=%,d lookups=%,d%n", n, lookups);
+        for (int round = 1; round <= 2; round++) {
+            System.out.println("-- round " + round + (round == 1 ? " (warm-up)" : ""));
+            runStringMap("HashMap<String,Parcel>", new HashMap<>(), numbers, parcel, requests);
+            runStringMap("ConcurrentHashMap<String,Parcel>", new ConcurrentHashMap<>(), numbers, parcel, requests);
+            runLongMap(ids, parcel, probe, requests);
+        }
+    }
+
+    private static void runStringMap(String name, Map<String, Parcel> m,
+                                     String[] numbers, Parcel parcel, String[] requests) {
+        int n = numbers.length;
+        long before = usedHeap();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) m.put(numbers[i], parcel);
+        long t1 = System.nanoTime();
+        long bytes = usedHeap() - before;
+        long hits = 0;
+        long t2 = System.nanoTime();
+        for (String key : requests) if (m.get(key) != null) hits++;
+        long t3 = System.nanoTime();
+        report(name, n, bytes, t1 - t0, requests.length, t3 - t2, hits);
+    }
+
+    private static void runLongMap(long[] ids, Parcel parcel, int[] probe, String[] requests) {
+        int n = ids.length;
+        long before = usedHeap();
+        long t0 = System.nanoTime();
+        LongParcelMap m = new LongParcelMap();
+        for (int i = 0; i < n; i++) m.putIfAbsent(ids[i], parcel);
+        long t1 = System.nanoTime();
+        long bytes = usedHeap() - before;
+
+        long hits = 0;
+        long t2 = System.nanoTime();
+        for (int i : probe) if (m.get(ids[i]) != null) hits++;
+        long t3 = System.nanoTime();
+        report("LongParcelMap", n, bytes, t1 - t0, probe.length, t3 - t2, hits);
+
+        hits = 0;
+        t2 = System.nanoTime();
+        for (String key : requests) if (m.get(TrackingNumberAllocator.parse(key)) != null) hits++;
+        t3 = System.nanoTime();
+        report("LongParcelMap (parse + get)", n, bytes, t1 - t0, requests.length, t3 - t2, hits);
+    }
+
+    private static void report(String name, int n, long bytes, long buildNanos,
+                               int lookups, long lookupNanos, long hits) {
+        System.out.printf("%-34s heap=%,6d MB (%5.1f B/parcel)  build=%,6d ms  get=%6.1f M ops/s  hits=%d%n",
+                name, bytes >> 20, (double) bytes / n, buildNanos / 1_000_000,
+                lookups / (lookupNanos / 1e9) / 1e6, hits);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static Parcel sampleParcel() {
+        Customer c = new Customer(1, "bench", "addr", "0900", "b@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+        ServiceType st = new ServiceType(1, "bench", PackageType.SMALL_BOX, 0, 20, DeliverySpeed.STANDARD,
+                50, 2, 10, 100, 30, 20, 40);
+        return new Parcel("T000000000000000", c, st, 1, 10, 10, 10, 100, "bench", false, false, false);
+    }
+}
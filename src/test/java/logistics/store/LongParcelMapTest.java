@@ -0,0 +1,65 @@
+package logistics.store;
+
+import logistics.enums.BillingPreference;
+import logistics.enums.CustomerType;
+import logistics.enums.DeliverySpeed;
+import logistics.enums.PackageType;
+import logistics.model.Customer;
+import logistics.model.Parcel;
+import logistics.model.ServiceType;
+import org.junit.jupiter.api.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongParcelMapTest {
+
+    private Customer sender;
+    private ServiceType st;
+
+    @BeforeEach
+    void setUp() {
+        sender = new Customer(1, "Alice", "Kaohsiung", "0912", "a@mail.com",
+                CustomerType.NON_CONTRACT, BillingPreference.MONTHLY);
+        st = new ServiceType(1, "標準小箱", PackageType.SMALL_BOX, 0, 20, DeliverySpeed.STANDARD,
+                50, 2, 10, 100, 30, 20, 40);
+    }
+
+    private Parcel parcel(long key) {
+        return new Parcel("T" + key, sender, st, 1, 10, 10, 10, 100, "x", false, false, false);
+    }
+
+    @Test
+    @DisplayName("LongParcelMap：擴容後仍可取回所有 key；putIfAbsent 不覆蓋既有值")
+    void putGetAcrossResize(TestReporter reporter) {
+        LongParcelMap map = new LongParcelMap();
+        int n = 50_000;
+        for (long k = 0; k < n; k++) {
+            assertNull(map.putIfAbsent(k * 7, parcel(k * 7)));
+        }
+        reporter.publishEntry("SETUP", "放入 " + n + " 筆（含 key=0）");
+
+        assertEquals(n, map.size());
+        for (long k = 0; k < n; k++) {
+            assertEquals("T" + (k * 7), map.get(k * 7).trackingNumber);
+        }
+        assertNull(map.get(1), "未放入的 key 應回傳 null");
+
+        Parcel first = map.get(0);
+        assertSame(first, map.putIfAbsent(0, parcel(0)), "已存在時應回傳既有值");
+        assertSame(first, map.get(0));
+
+        Set<String> seen = new HashSet<>();
+        map.forEach(p -> seen.add(p.trackingNumber));
+        assertEquals(n, seen.size(), "forEach 應走訪每一筆");
+    }
+
+    @Test
+    @DisplayName("LongParcelMap：負數 key 拒絕")
+    void rejectsNegativeKey() {
+        LongParcelMap map = new LongParcelMap();
+        assertThrows(IllegalArgumentException.class, () -> map.putIfAbsent(-1, parcel(1)));
+    }
+}
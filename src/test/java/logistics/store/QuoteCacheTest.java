@@ -0,0 +1,72 @@
+package logistics.store;
+
+import logistics.enums.DeliverySpeed;
+import logistics.enums.PackageType;
+import logistics.model.ServiceType;
+import logistics.model.Tariff;
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuoteCacheTest {
+
+    private AtomicReference<Tariff> pricing;
+    private ServiceType st;
+
+    @BeforeEach
+    void setUp() {
+        pricing = new AtomicReference<>(new Tariff(50, 2, 10, 100, 30, 20, 40));
+        st = new ServiceType(1, "標準小箱", PackageType.SMALL_BOX, 0, 20, DeliverySpeed.STANDARD, pricing);
+    }
+
+    @Test
+    @DisplayName("QuoteCache：同級距命中、以級距上限計價；超過容量淘汰最久沒用的項目")
+    void bucketsHitsAndEviction(TestReporter reporter) {
+        QuoteCache cache = new QuoteCache(16, 0.5, 0.001, 1.0);   // 每段 1 筆
+
+        double q1 = cache.quote(st, 1.2, 0.0012, 9.3, Tariff.FRAGILE);
+        double q2 = cache.quote(st, 1.5, 0.002, 10.0, Tariff.FRAGILE);   // 同級距：1.5 kg、2 公升、10 km
+        assertEquals(st.getTariff().chargeForVolume(1.5, 0.002, 10.0, Tariff.FRAGILE), q1, 1e-9);
+        assertEquals(q1, q2);
+        assertNotEquals(q1, cache.quote(st, 1.2, 0.0012, 9.3, 0), "附加費旗標不同是不同的鍵");
+
+        QuoteCache.Stats stats = cache.stats();
+        reporter.publishEntry("STATS", stats.toString());
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1.0 / 3, stats.hitRate(), 1e-9);
+
+        for (int km = 0; km < 200; km++) {
+            cache.quote(st, 1, 0.001, km, 0);
+        }
+        stats = cache.stats();
+        reporter.publishEntry("EVICT", stats.toString());
+        assertTrue(stats.size <= 16, "項目數不超過上限");
+        assertTrue(stats.evictions > 0);
+    }
+
+    @Test
+    @DisplayName("QuoteCache：調價後舊報價不再命中，invalidate 移除該服務類型的項目")
+    void pricingChangeInvalidates(TestReporter reporter) {
+        QuoteCache cache = new QuoteCache();
+        ServiceType other = new ServiceType(2, "大箱", PackageType.LARGE_BOX, 0, 50, DeliverySpeed.STANDARD,
+                80, 3, 12, 120, 30, 20, 40);
+        double before = cache.quote(st, 2, 0.01, 20, 0);
+        cache.quote(other, 2, 0.01, 20, 0);
+
+        pricing.set(new Tariff(60, 2, 10, 100, 30, 20, 40));
+        double after = cache.quote(st, 2, 0.01, 20, 0);
+        assertEquals(before + 10, after, 1e-9, "基本費 +10");
+        assertEquals(0, cache.stats().hits, "費率表換了，舊項目不算命中");
+
+        cache.invalidate(st.getId());
+        QuoteCache.Stats stats = cache.stats();
+        reporter.publishEntry("STATS", stats.toString());
+        assertEquals(1, stats.invalidations);
+        assertEquals(1, stats.size, "只剩另一個服務類型的報價");
+        cache.quote(other, 2, 0.01, 20, 0);
+        assertEquals(1, cache.stats().hits);
+    }
+}
@@ -0,0 +1,101 @@
+package logistics.store;
+
+import logistics.enums.ExceptionType;
+import logistics.enums.TrackingEventType;
+import logistics.model.TrackingEvent;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackingEventLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    @DisplayName("TrackingEventLog：事件欄位（含 null、例外類型、中文）寫入後可完整讀回")
+    void roundTrip(TestReporter reporter) throws Exception {
+        try (TrackingEventLog log = new TrackingEventLog(dir, 64 * TrackingEventLog.RECORD_SIZE)) {
+            LocalDateTime ts = LocalDateTime.of(2026, 3, 1, 8, 30, 15, 123456789);
+            TrackingEvent e = new TrackingEvent(TrackingEventType.EXCEPTION, ts,
+                    "高雄轉運站", "TRUCK-1", null, "延誤", ExceptionType.DELAYED);
+
+            long ref = log.append(TrackingEventLog.NO_EVENT, e);
+            TrackingEvent back = log.read(ref);
+            reporter.publishEntry("READ", back.toString());
+
+            assertEquals(e.getType(), back.getType());
+            assertEquals(ts, back.getTimestamp());
+            assertEquals("高雄轉運站", back.getLocation());
+            assertEquals("TRUCK-1", back.getTruckId());
+            assertNull(back.getWarehouseId());
+            assertEquals("延誤", back.getDescription());
+            assertEquals(ExceptionType.DELAYED, back.getExceptionType());
+            assertEquals(TrackingEventLog.NO_EVENT, log.previous(ref));
+
+            // 地點/貨車/倉庫以字典代碼保存，讀回的是同一個字串實例
+            assertEquals(SymbolTable.shared().lookup("TRUCK-1"), back.getTruckCode());
+            assertEquals(SymbolTable.NONE, back.getWarehouseCode());
+            assertSame(e.getLocation(), back.getLocation());
+        }
+    }
+
+    @Test
+    @DisplayName("TrackingEventLog：offset 鏈跨 segment 後仍依時間順序回傳歷史")
+    void historyAcrossSegments(TestReporter reporter) throws Exception {
+        try (TrackingEventLog log = new TrackingEventLog(dir, 4 * TrackingEventLog.RECORD_SIZE)) {   // 每段只放 4 筆紀錄
+            long head = TrackingEventLog.NO_EVENT;
+            int n = 11;
+            for (int i = 0; i < n; i++) {
+                TrackingEvent e = new TrackingEvent(TrackingEventType.IN_TRANSIT,
+                        LocalDateTime.of(2026, 1, 1, 0, 0).plusMinutes(i),
+                        "loc-" + i, null, null, null, null);
+                head = log.append(head, e);
+            }
+            reporter.publishEntry("SETUP", "bytesUsed=" + log.bytesUsed());
+
+            List<TrackingEvent> history = log.history(head);
+            assertEquals(n, history.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals("loc-" + i, history.get(i).getLocation(), "應由舊到新排列");
+            }
+            assertTrue(log.history(TrackingEventLog.NO_EVENT).isEmpty());
+        }
+    }
+
+    @Test
+    @DisplayName("TrackingEventLog：heap 日誌不建立檔案、跨 segment 可讀回；暫存日誌 close 時刪除暫存目錄")
+    void inMemoryAndTempCleanup(TestReporter reporter) throws Exception {
+        int perSegment = TrackingEventLog.IN_MEMORY_SEGMENT_SIZE / TrackingEventLog.RECORD_SIZE;
+        try (TrackingEventLog log = TrackingEventLog.inMemory()) {
+            assertNull(log.tempDir());
+            assertEquals(0, log.bytesUsed(), "用到才配置");
+            long head = TrackingEventLog.NO_EVENT;
+            int n = perSegment + 3;
+            for (int i = 0; i < n; i++) {
+                head = log.append(head, new TrackingEvent(TrackingEventType.IN_TRANSIT,
+                        LocalDateTime.of(2026, 1, 1, 0, 0).plusSeconds(i), null, null, null, "d" + i, null));
+            }
+            reporter.publishEntry("HEAP", "bytesUsed=" + log.bytesUsed());
+            List<TrackingEvent> history = log.history(head);
+            assertEquals(n, history.size());
+            assertEquals("d0", history.get(0).getDescription());
+            assertEquals("d" + (n - 1), history.get(n - 1).getDescription());
+        }
+
+        Path temp;
+        try (TrackingEventLog log = TrackingEventLog.createTemp()) {
+            temp = log.tempDir();
+            log.append(TrackingEventLog.NO_EVENT, new TrackingEvent(TrackingEventType.IN_TRANSIT,
+                    LocalDateTime.of(2026, 1, 1, 0, 0), null, null, null, null, null));
+            assertTrue(Files.exists(temp.resolve("events.dat")));
+        }
+        assertFalse(Files.exists(temp), "close 後暫存目錄已刪除");
+    }
+}